@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import net.runelite.api.Client;
+import net.runelite.api.CollisionData;
+import net.runelite.api.Constants;
+import net.runelite.api.coords.WorldPoint;
+
+/**
+ * Synthetic tile sets and stubs shared by the benchmarks, so they can run without a game client.
+ */
+final class BenchmarkFixtures
+{
+	// Lumbridge
+	static final int BASE_X = 3176;
+	static final int BASE_Y = 3168;
+
+	private BenchmarkFixtures()
+	{
+	}
+
+	/**
+	 * A client which is never in an instance, with the scene based at {@link #BASE_X}, {@link #BASE_Y}.
+	 * Every other method returns the default value for its return type.
+	 */
+	static Client stubClient()
+	{
+		return stubClient(Collections.emptyMap());
+	}
+
+	/**
+	 * A client with the scene based at {@link #BASE_X}, {@link #BASE_Y}, which returns the given values from the
+	 * methods of the same name. Every other method returns the default value for its return type.
+	 */
+	static Client stubClient(Map<String, Object> values)
+	{
+		return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[]{Client.class},
+			(proxy, method, args) ->
+			{
+				if (values.containsKey(method.getName()))
+				{
+					return values.get(method.getName());
+				}
+
+				switch (method.getName())
+				{
+					case "getBaseX":
+						return BASE_X;
+					case "getBaseY":
+						return BASE_Y;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					case "toString":
+						return "StubClient";
+				}
+
+				// The default value of the return type, e.g. 0 or false
+				Class<?> type = method.getReturnType();
+				return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+			});
+	}
+
+	static CollisionData stubCollisionData(int[][] flags)
+	{
+		return (CollisionData) Proxy.newProxyInstance(CollisionData.class.getClassLoader(),
+			new Class<?>[]{CollisionData.class},
+			(proxy, method, args) -> method.getName().equals("getFlags") ? flags : null);
+	}
+
+	/**
+	 * A plugin with only its client injected, which is enough for the tile lookup and translation methods.
+	 */
+	static LavaPlugin stubPlugin(Client client)
+	{
+		LavaPlugin plugin = new LavaPlugin();
+		setField(plugin, "client", client);
+		return plugin;
+	}
+
+	/**
+	 * A plugin with only its client injected, which reads its saved regions from the given values, by region id,
+	 * instead of the config.
+	 */
+	static LavaPlugin stubPlugin(Client client, Map<Integer, String> savedRegions)
+	{
+		List<String> savedKeys = new ArrayList<>();
+		for (int regionId : savedRegions.keySet())
+		{
+			savedKeys.add(Config.GROUP + ".global.region_" + regionId);
+		}
+
+		LavaPlugin plugin = new LavaPlugin()
+		{
+			@Override
+			List<String> getSavedRegionKeys()
+			{
+				return savedKeys;
+			}
+
+			@Override
+			String getRegionConfiguration(int regionId)
+			{
+				return savedRegions.get(regionId);
+			}
+		};
+		setField(plugin, "client", client);
+		return plugin;
+	}
+
+	static LavaTileIndex getTileIndex(LavaPlugin plugin)
+	{
+		return (LavaTileIndex) getField(plugin, "tileIndex");
+	}
+
+	@SuppressWarnings("unchecked")
+	static Map<Integer, Collection<LavaTile>> getRegionCache(LavaPlugin plugin)
+	{
+		return (Map<Integer, Collection<LavaTile>>) getField(plugin, "regionCache");
+	}
+
+	/**
+	 * Generate distinct tiles spread over square block of regions around the scene, roughly the way an account
+	 * which has walked outwards from Lumbridge would have them.
+	 */
+	static List<LavaTile> randomTiles(int count, long seed)
+	{
+		Random random = new Random(seed);
+		// Aim for about a quarter of each region being lava
+		int regionsPerSide = Math.max(1, (int) Math.ceil(Math.sqrt(count / 4096.0)));
+		int firstRegionX = (BASE_X >> 6) - regionsPerSide / 2;
+		int firstRegionY = (BASE_Y >> 6) - regionsPerSide / 2;
+
+		Set<LavaTile> tiles = new LinkedHashSet<>(count * 2);
+		while (tiles.size() < count)
+		{
+			int regionId = (firstRegionX + random.nextInt(regionsPerSide)) << 8 | (firstRegionY + random.nextInt(regionsPerSide));
+			int z = random.nextInt(10) == 0 ? 1 + random.nextInt(Constants.MAX_Z - 1) : 0;
+			tiles.add(new LavaTile(regionId, random.nextInt(64), random.nextInt(64), z));
+		}
+		return new ArrayList<>(tiles);
+	}
+
+	/**
+	 * Generate distinct tiles within a single region.
+	 */
+	static List<LavaTile> randomRegionTiles(int regionId, int count, long seed)
+	{
+		Random random = new Random(seed);
+		Set<LavaTile> tiles = new LinkedHashSet<>(count * 2);
+		while (tiles.size() < count)
+		{
+			tiles.add(new LavaTile(regionId, random.nextInt(64), random.nextInt(64), random.nextInt(Constants.MAX_Z)));
+		}
+		return new ArrayList<>(tiles);
+	}
+
+	static Map<Integer, List<LavaTile>> byRegion(Collection<LavaTile> tiles)
+	{
+		Map<Integer, List<LavaTile>> regions = new HashMap<>();
+		for (LavaTile tile : tiles)
+		{
+			regions.computeIfAbsent(tile.getRegionId(), k -> new ArrayList<>()).add(tile);
+		}
+		return regions;
+	}
+
+	static List<WorldPoint> toWorldPoints(Collection<LavaTile> tiles)
+	{
+		List<WorldPoint> points = new ArrayList<>(tiles.size());
+		for (LavaTile tile : tiles)
+		{
+			points.add(WorldPoint.fromRegion(tile.getRegionId(), tile.getRegionX(), tile.getRegionY(), tile.getZ()));
+		}
+		return points;
+	}
+
+	private static Object getField(LavaPlugin target, String name)
+	{
+		try
+		{
+			Field field = LavaPlugin.class.getDeclaredField(name);
+			field.setAccessible(true);
+			return field.get(target);
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+
+	private static void setField(LavaPlugin target, String name, Object value)
+	{
+		try
+		{
+			Field field = LavaPlugin.class.getDeclaredField(name);
+			field.setAccessible(true);
+			field.set(target, value);
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			throw new RuntimeException(ex);
+		}
+	}
+}
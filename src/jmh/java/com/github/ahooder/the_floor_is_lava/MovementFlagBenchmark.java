@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.runelite.api.CollisionData;
+import net.runelite.api.CollisionDataFlag;
+import net.runelite.api.Constants;
+import net.runelite.api.coords.WorldPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of looking up the movement flags of a tile, done for the tiles beside the player's path while auto-marking.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MovementFlagBenchmark
+{
+	private static final int[] FLAGS = {
+		CollisionDataFlag.BLOCK_MOVEMENT_NORTH_WEST,
+		CollisionDataFlag.BLOCK_MOVEMENT_NORTH,
+		CollisionDataFlag.BLOCK_MOVEMENT_NORTH_EAST,
+		CollisionDataFlag.BLOCK_MOVEMENT_EAST,
+		CollisionDataFlag.BLOCK_MOVEMENT_SOUTH_EAST,
+		CollisionDataFlag.BLOCK_MOVEMENT_SOUTH,
+		CollisionDataFlag.BLOCK_MOVEMENT_SOUTH_WEST,
+		CollisionDataFlag.BLOCK_MOVEMENT_WEST,
+		CollisionDataFlag.BLOCK_MOVEMENT_OBJECT,
+		CollisionDataFlag.BLOCK_MOVEMENT_FLOOR_DECORATION,
+		CollisionDataFlag.BLOCK_MOVEMENT_FLOOR,
+		CollisionDataFlag.BLOCK_MOVEMENT_FULL,
+	};
+
+	private LavaPlugin plugin;
+	private final WorldPoint[] points = new WorldPoint[1024];
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(0);
+		CollisionData[] collisionMaps = new CollisionData[Constants.MAX_Z];
+		for (int z = 0; z < collisionMaps.length; z++)
+		{
+			int[][] flags = new int[Constants.SCENE_SIZE][Constants.SCENE_SIZE];
+			for (int[] column : flags)
+			{
+				for (int y = 0; y < column.length; y++)
+				{
+					// Most tiles are unobstructed, the rest have one or two flags set
+					if (random.nextInt(4) == 0)
+					{
+						column[y] = FLAGS[random.nextInt(FLAGS.length)] | FLAGS[random.nextInt(FLAGS.length)];
+					}
+				}
+			}
+			collisionMaps[z] = BenchmarkFixtures.stubCollisionData(flags);
+		}
+
+		plugin = BenchmarkFixtures.stubPlugin(BenchmarkFixtures.stubClient(
+			ImmutableMap.of("getCollisionMaps", collisionMaps)));
+
+		for (int i = 0; i < points.length; i++)
+		{
+			// A few of the points are outside the scene, as the tiles beside its edge are
+			points[i] = new WorldPoint(
+				BenchmarkFixtures.BASE_X - 1 + random.nextInt(Constants.SCENE_SIZE + 2),
+				BenchmarkFixtures.BASE_Y - 1 + random.nextInt(Constants.SCENE_SIZE + 2),
+				0);
+		}
+	}
+
+	@Benchmark
+	public void getTileMovementFlags(Blackhole blackhole)
+	{
+		for (WorldPoint point : points)
+		{
+			blackhole.consume(plugin.getTileMovementFlags(point));
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import com.google.common.collect.ImmutableMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.runelite.api.Client;
+import net.runelite.api.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of loading the lava tiles of the regions in the scene as world points, as done by loadPoints on the
+ * executor when a new scene is loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SceneLoadBenchmark
+{
+	@Param({"1000", "10000", "100000", "500000"})
+	public int tileCount;
+
+	@Param({"false", "true"})
+	public boolean instanced;
+
+	private LavaPlugin plugin;
+	private LavaPlugin.SceneInstance scene;
+	private int[] sceneRegions;
+
+	@Setup
+	public void setup()
+	{
+		Map<Integer, String> savedRegions = new HashMap<>();
+		for (Map.Entry<Integer, List<LavaTile>> region : BenchmarkFixtures.byRegion(BenchmarkFixtures.randomTiles(tileCount, 0)).entrySet())
+		{
+			savedRegions.put(region.getKey(),
+				LavaTileCodec.encode(region.getValue(), Config.TileEncoding.PACKED));
+		}
+
+		Client client = BenchmarkFixtures.stubClient(instanced
+			? ImmutableMap.of("isInInstancedRegion", true, "getInstanceTemplateChunks", instanceTemplateChunks())
+			: ImmutableMap.of());
+		plugin = BenchmarkFixtures.stubPlugin(client, savedRegions);
+		scene = new LavaPlugin.SceneInstance(client);
+
+		int firstRegionX = BenchmarkFixtures.BASE_X >> 6;
+		int firstRegionY = BenchmarkFixtures.BASE_Y >> 6;
+		int regionsX = ((BenchmarkFixtures.BASE_X + Constants.SCENE_SIZE - 1) >> 6) - firstRegionX + 1;
+		int regionsY = ((BenchmarkFixtures.BASE_Y + Constants.SCENE_SIZE - 1) >> 6) - firstRegionY + 1;
+		sceneRegions = new int[regionsX * regionsY];
+		for (int x = 0; x < regionsX; x++)
+		{
+			for (int y = 0; y < regionsY; y++)
+			{
+				sceneRegions[x * regionsY + y] = (firstRegionX + x) << 8 | (firstRegionY + y);
+			}
+		}
+
+		// Decode the regions once, so only the translation is measured
+		plugin.loadScenePoints(sceneRegions, scene);
+	}
+
+	/**
+	 * An instance copying each chunk of the scene from the same chunk of the world, rotated at random
+	 */
+	private static int[][][] instanceTemplateChunks()
+	{
+		Random random = new Random(0);
+		int chunks = Constants.SCENE_SIZE / Constants.CHUNK_SIZE;
+		int[][][] templateChunks = new int[Constants.MAX_Z][chunks][chunks];
+		for (int z = 0; z < Constants.MAX_Z; z++)
+		{
+			for (int x = 0; x < chunks; x++)
+			{
+				for (int y = 0; y < chunks; y++)
+				{
+					int chunkX = (BenchmarkFixtures.BASE_X >> 3) + x;
+					int chunkY = (BenchmarkFixtures.BASE_Y >> 3) + y;
+					templateChunks[z][x][y] = z << 24 | chunkX << 14 | chunkY << 3 | random.nextInt(4) << 1;
+				}
+			}
+		}
+		return templateChunks;
+	}
+
+	@Benchmark
+	public void loadScenePoints(Blackhole blackhole)
+	{
+		blackhole.consume(plugin.loadScenePoints(sceneRegions, scene));
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the full tile count done by updateTileCounter, which decodes every saved region of the account.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TileCounterBenchmark
+{
+	@Param({"1000", "10000", "100000", "500000"})
+	public int tileCount;
+
+	@Param({"JSON", "BITMAP", "PACKED"})
+	public Config.TileEncoding encoding;
+
+	private LavaPlugin plugin;
+	private Map<Integer, Collection<LavaTile>> regionCache;
+
+	@Setup
+	public void setup()
+	{
+		Map<Integer, String> savedRegions = new HashMap<>();
+		for (Map.Entry<Integer, List<LavaTile>> region : BenchmarkFixtures.byRegion(BenchmarkFixtures.randomTiles(tileCount, 0)).entrySet())
+		{
+			savedRegions.put(region.getKey(),
+				LavaTileCodec.encode(region.getValue(), encoding));
+		}
+
+		plugin = BenchmarkFixtures.stubPlugin(BenchmarkFixtures.stubClient(), savedRegions);
+		regionCache = BenchmarkFixtures.getRegionCache(plugin);
+	}
+
+	@Benchmark
+	public int countTiles()
+	{
+		// Count from the config each time, as after logging in or switching accounts
+		regionCache.clear();
+		return plugin.countSavedTiles();
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.runelite.api.Constants;
+import net.runelite.api.coords.WorldPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-frame cost of the scene tile lookups made by the GPU draw callbacks, which look up every scene tile
+ * once, and the four neighbours of every lava tile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TileLookupBenchmark
+{
+	@Param({"1000", "10000", "100000", "500000"})
+	public int tileCount;
+
+	private LavaPlugin plugin;
+	private LavaTileIndex tileIndex;
+	private List<WorldPoint> points;
+
+	@Setup
+	public void setup()
+	{
+		plugin = BenchmarkFixtures.stubPlugin(BenchmarkFixtures.stubClient());
+		points = BenchmarkFixtures.toWorldPoints(BenchmarkFixtures.randomTiles(tileCount, 0));
+		tileIndex = BenchmarkFixtures.getTileIndex(plugin);
+		tileIndex.rebuild(points, BenchmarkFixtures.BASE_X, BenchmarkFixtures.BASE_Y);
+	}
+
+	@Benchmark
+	public void containsTile(Blackhole blackhole)
+	{
+		for (int plane = 0; plane < Constants.MAX_Z; plane++)
+		{
+			for (int x = 0; x < Constants.SCENE_SIZE; x++)
+			{
+				for (int y = 0; y < Constants.SCENE_SIZE; y++)
+				{
+					blackhole.consume(plugin.containsTile(plane, x, y));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public void getLavaStartMillis(Blackhole blackhole)
+	{
+		for (int plane = 0; plane < Constants.MAX_Z; plane++)
+		{
+			for (int x = 0; x < Constants.SCENE_SIZE; x++)
+			{
+				for (int y = 0; y < Constants.SCENE_SIZE; y++)
+				{
+					if (plugin.getLavaStartMillis(plane, x, y) == LavaPlugin.NO_LAVA)
+					{
+						continue;
+					}
+
+					// Neighbour checks for the lava walls
+					blackhole.consume(plugin.getLavaStartMillis(plane, x - 1, y));
+					blackhole.consume(plugin.getLavaStartMillis(plane, x, y + 1));
+					blackhole.consume(plugin.getLavaStartMillis(plane, x + 1, y));
+					blackhole.consume(plugin.getLavaStartMillis(plane, x, y - 1));
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public LavaTileIndex rebuildIndex()
+	{
+		tileIndex.rebuild(points, BenchmarkFixtures.BASE_X, BenchmarkFixtures.BASE_Y);
+		return tileIndex;
+	}
+}
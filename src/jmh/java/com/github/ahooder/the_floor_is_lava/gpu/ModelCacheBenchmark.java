@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.runelite.api.Model;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of pushing a static scene model when its geometry is found in the model cache, compared to converting it
+ * with pushModel, and to a cache miss which converts the model and also stores it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ModelCacheBenchmark
+{
+	@Param({"16", "256", "4096"})
+	public int faceCount;
+
+	@Param({"false", "true"})
+	public boolean textured;
+
+	private final SceneUploader sceneUploader = new SceneUploader();
+	private final GpuIntBuffer vertexBuffer = new GpuIntBuffer();
+	private final GpuFloatBuffer uvBuffer = new GpuFloatBuffer();
+	private Model model;
+
+	@Setup
+	public void setup()
+	{
+		model = randomModel(faceCount, textured, 0);
+		sceneUploader.modelCache.setBudget(64L * 1024 * 1024);
+		sceneUploader.modelCache.clear();
+		sceneUploader.pushSceneModel(model, vertexBuffer, uvBuffer);
+	}
+
+	@Benchmark
+	public int pushModel()
+	{
+		vertexBuffer.clear();
+		uvBuffer.clear();
+		return sceneUploader.pushModel(model, vertexBuffer, uvBuffer);
+	}
+
+	@Benchmark
+	public long hash()
+	{
+		return ModelGeometryCache.hash(model);
+	}
+
+	@Benchmark
+	public int cacheHit()
+	{
+		vertexBuffer.clear();
+		uvBuffer.clear();
+		return sceneUploader.pushSceneModel(model, vertexBuffer, uvBuffer);
+	}
+
+	@Benchmark
+	public int cacheMiss()
+	{
+		vertexBuffer.clear();
+		uvBuffer.clear();
+		sceneUploader.modelCache.clear();
+		return sceneUploader.pushSceneModel(model, vertexBuffer, uvBuffer);
+	}
+
+	/**
+	 * A model with random geometry, colours and priorities, which is enough for everything pushModel reads.
+	 */
+	private static Model randomModel(int faceCount, boolean textured, long seed)
+	{
+		Random random = new Random(seed);
+		int vertexCount = faceCount / 2 + 3;
+
+		Map<String, Object> values = new HashMap<>();
+		values.put("getFaceCount", faceCount);
+		values.put("getVerticesCount", vertexCount);
+		values.put("getVerticesX", randomInts(random, vertexCount, -512, 512));
+		values.put("getVerticesY", randomInts(random, vertexCount, -512, 0));
+		values.put("getVerticesZ", randomInts(random, vertexCount, -512, 512));
+		values.put("getFaceIndices1", randomInts(random, faceCount, 0, vertexCount));
+		values.put("getFaceIndices2", randomInts(random, faceCount, 0, vertexCount));
+		values.put("getFaceIndices3", randomInts(random, faceCount, 0, vertexCount));
+		values.put("getFaceColors1", randomInts(random, faceCount, 0, 0x10000));
+		values.put("getFaceColors2", randomInts(random, faceCount, 0, 0x10000));
+		values.put("getFaceColors3", randomInts(random, faceCount, 0, 0x10000));
+
+		byte[] priorities = new byte[faceCount];
+		for (int i = 0; i < faceCount; i++)
+		{
+			priorities[i] = (byte) random.nextInt(12);
+		}
+		values.put("getFaceRenderPriorities", priorities);
+
+		if (textured)
+		{
+			short[] textures = new short[faceCount];
+			float[] uvs = new float[faceCount * 6];
+			for (int i = 0; i < faceCount; i++)
+			{
+				// About half of the faces of a textured model are textured
+				textures[i] = random.nextBoolean() ? (short) random.nextInt(100) : -1;
+			}
+			for (int i = 0; i < uvs.length; i++)
+			{
+				uvs[i] = random.nextFloat();
+			}
+			values.put("getFaceTextures", textures);
+			values.put("getFaceTextureUVCoordinates", uvs);
+		}
+
+		return (Model) Proxy.newProxyInstance(Model.class.getClassLoader(), new Class<?>[]{Model.class},
+			(proxy, method, args) ->
+			{
+				if (values.containsKey(method.getName()))
+				{
+					return values.get(method.getName());
+				}
+
+				// The default value of the return type, e.g. 0 or null
+				Class<?> type = method.getReturnType();
+				return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+			});
+	}
+
+	private static int[] randomInts(Random random, int count, int min, int max)
+	{
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			values[i] = min + random.nextInt(max - min);
+		}
+		return values;
+	}
+}
@@ -129,6 +129,26 @@ public interface Config extends net.runelite.client.config.Config
 		return false;
 	}
 
+	enum TileEncoding
+	{
+		JSON,
+		BITMAP,
+		PACKED
+	}
+
+	@ConfigItem(
+		keyName = "tileEncoding",
+		name = "Tile save format",
+		section = settingsSection,
+		description = "Format used when saving lava tiles. JSON is readable by older versions of the plugin, bitmap uses " +
+			"a fixed 2 KB per region and packed uses 2 bytes per tile. Regions are converted as they are next changed.",
+		position = 7
+	)
+	default TileEncoding tileEncoding()
+	{
+		return TileEncoding.JSON;
+	}
+
 	@Range(
 		max = MAX_DISTANCE
 	)
@@ -295,4 +315,103 @@ public interface Config extends net.runelite.client.config.Config
 	{
 		return 60;
 	}
+
+	@ConfigItem(
+		section = gpuSettingsSection,
+		keyName = "persistentBuffers",
+		name = "Persistent Buffers",
+		description = "Write scene geometry directly into persistently mapped GPU memory instead of uploading it every frame. Requires compute shaders and OpenGL 4.4. Requires plugin restart.",
+		position = 13
+	)
+	default boolean persistentBuffers()
+	{
+		return false;
+	}
+
+	@ConfigItem(
+		section = gpuSettingsSection,
+		keyName = "parallelSceneUpload",
+		name = "Parallel Scene Upload",
+		description = "Build the scene geometry on multiple threads when a new region is loaded.",
+		position = 14
+	)
+	default boolean parallelSceneUpload()
+	{
+		return false;
+	}
+
+	@ConfigItem(
+		section = gpuSettingsSection,
+		keyName = "modelCacheSize",
+		name = "Model Cache Size (MiB)",
+		description = "Memory used to keep the geometry of recently loaded regions, so they load faster when revisited. Set to 0 to disable.",
+		position = 15
+	)
+	@Range(
+		max = 1024
+	)
+	default int modelCacheSize()
+	{
+		return 64;
+	}
+
+	@ConfigItem(
+		section = gpuSettingsSection,
+		keyName = "frameProfiler",
+		name = "Frame Profiler",
+		description = "Show how long each stage of drawing a frame takes. Type ::lavaprofile to write the timings to a file.",
+		position = 16
+	)
+	default boolean frameProfiler()
+	{
+		return false;
+	}
+
+	@ConfigItem(
+		section = gpuSettingsSection,
+		keyName = "gpuTimers",
+		name = "Frame Profiler GPU Timers",
+		description = "Also measure how long the GPU spends on each stage. Requires the frame profiler.",
+		position = 17
+	)
+	default boolean gpuTimers()
+	{
+		return false;
+	}
+
+	@ConfigItem(
+		section = gpuSettingsSection,
+		keyName = "cpuFaceSorting",
+		name = "CPU Face Sorting",
+		description = "When compute shaders are unavailable, sort faces on multiple CPU threads the same way the compute shaders do, instead of face by face on the client thread.",
+		position = 18
+	)
+	default boolean cpuFaceSorting()
+	{
+		return true;
+	}
+
+	@ConfigItem(
+		section = gpuSettingsSection,
+		keyName = "gpuLavaGeneration",
+		name = "GPU Lava Generation",
+		description = "Generate the lava geometry in a compute shader instead of on the CPU. Requires GPU compute shaders or OpenCL.",
+		position = 19
+	)
+	default boolean gpuLavaGeneration()
+	{
+		return false;
+	}
+
+	@ConfigItem(
+		section = gpuSettingsSection,
+		keyName = "mergeLavaTiles",
+		name = "Merge Lava Tiles",
+		description = "Draw areas of settled lava at the same height as large merged quads instead of tile by tile. Not used with GPU lava generation.",
+		position = 20
+	)
+	default boolean mergeLavaTiles()
+	{
+		return false;
+	}
 }
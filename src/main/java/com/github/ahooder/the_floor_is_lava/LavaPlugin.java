@@ -27,25 +27,32 @@
 package com.github.ahooder.the_floor_is_lava;
 
 import com.github.ahooder.the_floor_is_lava.gpu.GpuPlugin;
+import com.github.ahooder.the_floor_is_lava.overlays.FrameProfilerOverlay;
 import com.github.ahooder.the_floor_is_lava.overlays.MinimapOverlay;
 import com.github.ahooder.the_floor_is_lava.overlays.TileCounterOverlay;
 import com.github.ahooder.the_floor_is_lava.overlays.WorldMapOverlay;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.Hashing;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.google.inject.Provides;
 import java.awt.Color;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.inject.Inject;
 import javax.swing.SwingUtilities;
@@ -57,6 +64,8 @@ import net.runelite.api.ChatMessageType;
 import net.runelite.api.Client;
 import net.runelite.api.CollisionData;
 import net.runelite.api.CollisionDataFlag;
+import static net.runelite.api.Constants.CHUNK_SIZE;
+import static net.runelite.api.Constants.SCENE_SIZE;
 import static net.runelite.api.Constants.TILE_FLAG_BRIDGE;
 import net.runelite.api.GameObject;
 import net.runelite.api.GameState;
@@ -98,6 +107,7 @@ public class LavaPlugin extends Plugin
 {
 	private static final int MARK_DELAY = 250;
 	private static final int MULTI_MARK_DELAY = MARK_DELAY + 300;
+	private static final int SAVE_DELAY = 1000;
 
 	private static final String DOUSE_TILE = "Douse lava tile";
 	private static final String PLACE_TILE = "Place lava tile";
@@ -108,6 +118,32 @@ public class LavaPlugin extends Plugin
 	private static final String WALK_HERE = "Walk here";
 	private static final String REGION_PREFIX = "region_";
 
+	/**
+	 * Cached in place of the tiles of regions whose saved value couldn't be decoded. It's empty, so nothing is drawn
+	 * for them, and compared by identity so the saved value isn't overwritten.
+	 */
+	private static final Collection<LavaTile> UNREADABLE_REGION = Collections.unmodifiableList(new ArrayList<>());
+
+	public static final long NO_LAVA = -1;
+
+	private static final int FULL_BLOCK = MovementFlag.mask(
+		MovementFlag.BLOCK_MOVEMENT_FLOOR,
+		MovementFlag.BLOCK_MOVEMENT_FLOOR_DECORATION,
+		MovementFlag.BLOCK_MOVEMENT_OBJECT,
+		MovementFlag.BLOCK_MOVEMENT_FULL);
+
+	private static final int ALL_DIRECTIONS = MovementFlag.mask(
+		MovementFlag.BLOCK_MOVEMENT_NORTH_WEST,
+		MovementFlag.BLOCK_MOVEMENT_NORTH,
+		MovementFlag.BLOCK_MOVEMENT_NORTH_EAST,
+		MovementFlag.BLOCK_MOVEMENT_EAST,
+		MovementFlag.BLOCK_MOVEMENT_SOUTH_EAST,
+		MovementFlag.BLOCK_MOVEMENT_SOUTH,
+		MovementFlag.BLOCK_MOVEMENT_SOUTH_WEST,
+		MovementFlag.BLOCK_MOVEMENT_WEST);
+
+	private static final int ALL_MOVEMENT_FLAGS = MovementFlag.mask(MovementFlag.values());
+
 	private static final WidgetMenuOption clearAllOptionFixed = new WidgetMenuOption(
 		CLEAR_ALL_TILES, "", WidgetInfo.FIXED_VIEWPORT_INVENTORY_TAB);
 	private static final WidgetMenuOption clearAllOptionResizable = new WidgetMenuOption(
@@ -129,10 +165,25 @@ public class LavaPlugin extends Plugin
 	private static final WidgetMenuOption importOldOptionResizable2 = new WidgetMenuOption(
 		IMPORT_OLD_CONFIG, "", WidgetInfo.RESIZABLE_VIEWPORT_BOTTOM_LINE_INVENTORY_TAB);
 
-	private static final Gson GSON = new Gson();
-
-	@Getter
-	private final List<WorldPoint> points = new ArrayList<>();
+	/**
+	 * Immutable snapshot of the lava tiles in the loaded scene. It's replaced on the client thread, as a whole
+	 * when a load started by {@link #loadPoints} completes, or one region at a time when a tile is marked or cleared.
+	 */
+	private volatile ScenePoints points = ScenePoints.EMPTY;
+
+	private LavaTileIndex tileIndex = new LavaTileIndex();
+	private final AtomicInteger pointsGeneration = new AtomicInteger();
+	private boolean pointsPending;
+
+	// Decoded tiles for the current account, keyed by region ID
+	private final Map<Integer, Collection<LavaTile>> regionCache = new ConcurrentHashMap<>();
+	// Region tiles waiting to be written back to the config, keyed by config key
+	private final Map<String, Collection<LavaTile>> pendingSaves = new ConcurrentHashMap<>();
+	// Values written by the plugin itself, used to tell our own ConfigChanged events apart
+	private final Map<String, String> savedValues = new ConcurrentHashMap<>();
+	private final AtomicBoolean saveScheduled = new AtomicBoolean();
+	// Held while writing a pending save, so clearing all tiles can't be undone by a write already in progress
+	private final Object saveLock = new Object();
 
 	@Inject
 	private Client client;
@@ -167,6 +218,9 @@ public class LavaPlugin extends Plugin
 	@Inject
 	private TileCounterOverlay tileCounterOverlay;
 
+	@Inject
+	private FrameProfilerOverlay frameProfilerOverlay;
+
 	@Inject
 	private GpuPlugin gpuPlugin;
 
@@ -179,46 +233,31 @@ public class LavaPlugin extends Plugin
 		return configManager.getConfig(Config.class);
 	}
 
-	private final MovementFlag[] fullBlock = new MovementFlag[]
-		{
-			MovementFlag.BLOCK_MOVEMENT_FLOOR,
-			MovementFlag.BLOCK_MOVEMENT_FLOOR_DECORATION,
-			MovementFlag.BLOCK_MOVEMENT_OBJECT,
-			MovementFlag.BLOCK_MOVEMENT_FULL
-		};
-
-	private final MovementFlag[] allDirections = new MovementFlag[]
-		{
-			MovementFlag.BLOCK_MOVEMENT_NORTH_WEST,
-			MovementFlag.BLOCK_MOVEMENT_NORTH,
-			MovementFlag.BLOCK_MOVEMENT_NORTH_EAST,
-			MovementFlag.BLOCK_MOVEMENT_EAST,
-			MovementFlag.BLOCK_MOVEMENT_SOUTH_EAST,
-			MovementFlag.BLOCK_MOVEMENT_SOUTH,
-			MovementFlag.BLOCK_MOVEMENT_SOUTH_WEST,
-			MovementFlag.BLOCK_MOVEMENT_WEST
-		};
-
 	private final HashSet<Integer> tutorialIslandRegionIds = new HashSet<>();
 
-	private int totalTileCount;
+	private final AtomicInteger tileCountGeneration = new AtomicInteger();
+	private volatile int totalTileCount;
+	private volatile boolean tileCountPending;
 	private int tilesDoused;
 	private WorldPoint lastTile;
 	private int lastPlane;
 	private boolean inHouse = false;
-	private long totalXp;
+	private volatile String configUUID;
 
-	public static class MarkedTile {
-		public WorldPoint point;
-		public long millis = System.currentTimeMillis();
+	private static class MarkedTile {
+		private final LavaTile tile;
+		private long millis = System.currentTimeMillis();
 
-		public MarkedTile(WorldPoint point, long delay) {
-			this.point = point;
+		private MarkedTile(LavaTile tile, long delay) {
+			this.tile = tile;
 			millis += delay;
 		}
 	}
 
-	public ArrayDeque<MarkedTile> recentlyMarkedTiles = new ArrayDeque<>();
+	/**
+	 * The most recently marked tiles, used to restore their animation state when the scene tile index is rebuilt.
+	 */
+	private final ArrayDeque<MarkedTile> recentlyMarkedTiles = new ArrayDeque<>();
 
 	@Subscribe
 	public void onMenuOptionClicked(MenuOptionClicked event)
@@ -280,8 +319,8 @@ public class LavaPlugin extends Plugin
 	{
 		if (gameStateChanged.getGameState() != GameState.LOGGED_IN)
 			return;
+		updateConfigUUID();
 		loadPoints();
-		updateTileCounter();
 		inHouse = false;
 	}
 
@@ -289,11 +328,20 @@ public class LavaPlugin extends Plugin
 	public void onConfigChanged(ConfigChanged event)
 	{
 		if (event.getGroup().equals(Config.GROUP)) {
-			updateTileCounter();
+			if (event.getKey().startsWith(getConfigUUID() + "." + REGION_PREFIX)) {
+				// Ignore the events caused by our own writes, since the cache is already up-to-date
+				if (savedValues.remove(event.getKey(), Strings.nullToEmpty(event.getNewValue())))
+					return;
+				regionCache.remove(Integer.parseInt(removeRegionPrefix(event.getKey())));
+				updateTileCounter();
+			}
+
 			if (event.getKey().equals("showResetAllOption"))
 				updateCustomOptions();
-			else if (event.getKey().equals("perAccountSave"))
+			else if (event.getKey().equals("perAccountSave")) {
+				updateConfigUUID();
 				loadPoints();
+			}
 		}
 	}
 
@@ -327,9 +375,10 @@ public class LavaPlugin extends Plugin
 				overlayManager.add(minimapOverlay);
 				overlayManager.add(worldMapOverlay);
 				overlayManager.add(tileCounterOverlay);
+				overlayManager.add(frameProfilerOverlay);
 				updateCustomOptions();
+				updateConfigUUID();
 				loadPoints();
-				updateTileCounter();
 				updateTilesDoused();
 
 				menuManager.addManagedCustomMenu(importOldOptionFixed, e -> importOldConfig());
@@ -373,8 +422,15 @@ public class LavaPlugin extends Plugin
 			overlayManager.remove(minimapOverlay);
 			overlayManager.remove(worldMapOverlay);
 			overlayManager.remove(tileCounterOverlay);
+			overlayManager.remove(frameProfilerOverlay);
 			removeCustomOptions();
-			points.clear();
+			pointsGeneration.incrementAndGet();
+			pointsPending = false;
+			points = ScenePoints.EMPTY;
+			tileIndex.clear();
+			flushPendingSaves();
+			regionCache.clear();
+			configUUID = null;
 		});
 	}
 
@@ -405,12 +461,24 @@ public class LavaPlugin extends Plugin
 
 	private void clearAllLavaTiles()
 	{
-		configManager.getConfigurationKeys(Config.GROUP)
-			.stream()
-			.filter(key ->
-				key.startsWith(String.join(".", Config.GROUP, getConfigUUID(), REGION_PREFIX)))
-			.forEach(key -> configManager.unsetConfiguration(Config.GROUP,
-				key.substring(Config.GROUP.length() + 1)));
+		String prefix = getConfigUUID() + "." + REGION_PREFIX;
+		synchronized (saveLock)
+		{
+			pendingSaves.keySet().removeIf(key -> key.startsWith(prefix));
+			regionCache.clear();
+
+			configManager.getConfigurationKeys(Config.GROUP)
+				.stream()
+				.filter(key ->
+					key.startsWith(String.join(".", Config.GROUP, getConfigUUID(), REGION_PREFIX)))
+				.map(key -> key.substring(Config.GROUP.length() + 1))
+				.forEach(key -> {
+					// Treat the ConfigChanged events as our own writes, since the tile counter is reset below
+					savedValues.put(key, "");
+					configManager.unsetConfiguration(Config.GROUP, key);
+				});
+		}
+		adjustTileCounter(-totalTileCount);
 		loadPoints();
 	}
 
@@ -440,7 +508,6 @@ public class LavaPlugin extends Plugin
 		}
 
 		int playerPlane = getPlaneIncludingBridge(playerPos);
-		long currentTotalXp = client.getOverallExperience();
 
 		// If we have no last tile, we probably just spawned in, so make sure we walk on our current tile
 		if ((lastTile == null
@@ -451,15 +518,9 @@ public class LavaPlugin extends Plugin
 			handleWalkedToTile(playerPos);
 			lastTile = playerPos;
 			lastPlane = getPlaneIncludingBridge(lastTile);
-			updateTileCounter();
 			log.debug("player moved");
 			log.debug("last tile={}  distance={}", lastTile, lastTile == null ? "null" : lastTile.distanceTo(playerPos));
 		}
-		else if (totalXp != currentTotalXp)
-		{
-			updateTileCounter();
-			totalXp = currentTotalXp;
-		}
 	}
 
 	private List<String> removeRegionPrefixes(List<String> regions)
@@ -477,20 +538,34 @@ public class LavaPlugin extends Plugin
 		return region.substring(region.indexOf('_') + 1);
 	}
 
+	/**
+	 * @return an unmodifiable view of the lava tiles in the region, which is replaced rather than modified
+	 * when the region changes.
+	 */
 	public Collection<LavaTile> getTiles(int regionId)
 	{
-		return getConfiguration(Config.GROUP, getConfigUUID() + "." + REGION_PREFIX + regionId);
+		Collection<LavaTile> tiles = regionCache.get(regionId);
+		if (tiles != null)
+			return tiles;
+
+		return regionCache.computeIfAbsent(regionId, this::getConfiguration);
 	}
 
-	public Collection<LavaTile> getTiles(String regionId)
-	{
-		return getConfiguration(Config.GROUP,  getConfigUUID() + "." + REGION_PREFIX + regionId);
+	private String getRegionKey(int regionId) {
+		return getConfigUUID() + "." + REGION_PREFIX + regionId;
 	}
 
 	private String getConfigUUID() {
-		if (config.perAccountSave())
-			return Long.toHexString(client.getAccountHash());
-		return "global";
+		return configUUID;
+	}
+
+	private void updateConfigUUID() {
+		String uuid = config.perAccountSave() ? Long.toHexString(client.getAccountHash()) : "global";
+		if (!uuid.equals(configUUID)) {
+			configUUID = uuid;
+			regionCache.clear();
+			updateTileCounter();
+		}
 	}
 
 	private String getDouseOptionString() {
@@ -516,19 +591,55 @@ public class LavaPlugin extends Plugin
 		copyConfig(oldHash, newHash);
 	}
 
+	/**
+	 * Schedule a full recount of the tiles for the current account on the executor. Changes made through
+	 * {@link #updateTileMark} are applied directly with {@link #adjustTileCounter} instead.
+	 */
 	private void updateTileCounter()
 	{
-		List<String> regions = configManager.getConfigurationKeys(
-			Config.GROUP + "." + getConfigUUID() + ".region");
+		final int generation = tileCountGeneration.incrementAndGet();
+		tileCountPending = true;
+		executorService.execute(() -> countTiles(generation));
+	}
+
+	private void countTiles(int generation)
+	{
+		final int count = countSavedTiles();
+		clientThread.invoke(() -> {
+			// Discard the result if a newer count has been scheduled since
+			if (generation != tileCountGeneration.get())
+				return;
+
+			log.debug("Updating tile counter");
+			totalTileCount = count;
+			tileCountPending = false;
+		});
+	}
+
+	/**
+	 * @return the number of lava tiles saved for the current account
+	 */
+	@VisibleForTesting
+	int countSavedTiles()
+	{
+		// Include regions which have been cached but not yet written to the config
+		Set<Integer> regionIds = new HashSet<>(regionCache.keySet());
+		for (String region : getSavedRegionKeys())
+			regionIds.add(Integer.parseInt(removeRegionPrefix(region)));
+
 		int totalTiles = 0;
-		for (String region : regions)
-		{
-			Collection<LavaTile> regionTiles = getTiles(removeRegionPrefix(region));
-			totalTiles += regionTiles.size();
-		}
+		for (int regionId : regionIds)
+			totalTiles += getTiles(regionId).size();
+		return totalTiles;
+	}
+
+	private void adjustTileCounter(int delta)
+	{
+		totalTileCount += delta;
 
-		log.debug("Updating tile counter");
-		totalTileCount = totalTiles;
+		// A count in progress may or may not have seen this change, so start over
+		if (tileCountPending)
+			updateTileCounter();
 	}
 
 	private void updateTilesDoused()
@@ -538,48 +649,160 @@ public class LavaPlugin extends Plugin
 		tilesDoused = number == null ? 0 : number;
 	}
 
-	private Collection<LavaTile> getConfiguration(String configGroup, String key)
+	/**
+	 * @return the whole config keys of the regions saved for the current account
+	 */
+	@VisibleForTesting
+	List<String> getSavedRegionKeys()
+	{
+		return configManager.getConfigurationKeys(Config.GROUP + "." + getConfigUUID() + ".region");
+	}
+
+	/**
+	 * @return the saved value of the region for the current account, or null if it has none
+	 */
+	@VisibleForTesting
+	String getRegionConfiguration(int regionId)
+	{
+		return configManager.getConfiguration(Config.GROUP, getRegionKey(regionId));
+	}
+
+	private Collection<LavaTile> getConfiguration(int regionId)
 	{
-		String json = configManager.getConfiguration(configGroup, key);
+		String value = getRegionConfiguration(regionId);
 
-		if (Strings.isNullOrEmpty(json))
+		if (Strings.isNullOrEmpty(value))
 			return Collections.emptyList();
 
-		return GSON.fromJson(json, new TypeToken<List<LavaTile>>() {}.getType());
+		List<LavaTile> tiles = LavaTileCodec.decode(regionId, value);
+		if (tiles == null)
+			return UNREADABLE_REGION;
+		return Collections.unmodifiableSet(new LinkedHashSet<>(tiles));
 	}
 
+	/**
+	 * Schedule loading the lava tiles of the scene's map regions on the executor. The previously loaded tiles
+	 * keep being used until the load completes, and are then replaced all at once on the client thread.
+	 */
 	private void loadPoints()
 	{
-		points.clear();
+		final int generation = pointsGeneration.incrementAndGet();
 
 		int[] regions = client.getMapRegions();
 
 		if (regions == null)
 		{
+			pointsPending = false;
+			points = ScenePoints.EMPTY;
+			tileIndex.clear();
+			gpuPlugin.invalidateLavaTiles();
 			return;
 		}
 
+		// Copy what's needed of the scene, since it may change before the load runs
+		final int[] regionIds = regions.clone();
+		final SceneInstance scene = new SceneInstance(client);
+		pointsPending = true;
+		executorService.execute(() -> loadPoints(generation, regionIds, scene));
+		updateTilesDoused();
+	}
+
+	private void loadPoints(int generation, int[] regions, SceneInstance scene)
+	{
+		final ScenePoints loaded = loadScenePoints(regions, scene);
+		final LavaTileIndex index = new LavaTileIndex();
+		index.rebuild(loaded.all(), scene.baseX, scene.baseY);
+
+		clientThread.invoke(() -> {
+			// Discard the result if a newer load has been scheduled since
+			if (generation != pointsGeneration.get())
+				return;
+
+			pointsPending = false;
+			points = loaded;
+			tileIndex = index;
+			for (MarkedTile marked : recentlyMarkedTiles)
+				updateMarkedMillis(marked, marked.millis);
+			gpuPlugin.invalidateLavaTiles();
+		});
+	}
+
+	/**
+	 * @return the world points of the lava tiles in the regions, translated to the scene
+	 */
+	@VisibleForTesting
+	ScenePoints loadScenePoints(int[] regions, SceneInstance scene)
+	{
+		Map<Integer, ImmutableSet<WorldPoint>> regionPoints = new HashMap<>();
 		for (int regionId : regions)
 		{
 			// load points for region
 			log.debug("Loading points for region {}", regionId);
-			Collection<WorldPoint> worldPoint = translateToWorldPoint(getTiles(regionId));
-			points.addAll(worldPoint);
+			ImmutableSet.Builder<WorldPoint> builder = ImmutableSet.builder();
+			for (LavaTile tile : getTiles(regionId))
+			{
+				WorldPoint worldPoint = WorldPoint.fromRegion(
+					tile.getRegionId(), tile.getRegionX(), tile.getRegionY(), tile.getZ());
+				builder.addAll(scene.toLocalInstance(worldPoint));
+			}
+			regionPoints.put(regionId, builder.build());
 		}
-		updateTileCounter();
-		updateTilesDoused();
+		return ScenePoints.of(regionPoints);
 	}
 
-	private void savePoints(int regionId, Collection<LavaTile> points)
+	/**
+	 * Update the cached tiles for the region and schedule a write to the config. Writes are performed off the
+	 * client thread, and multiple saves to the same region before the write happens are coalesced into one.
+	 */
+	@VisibleForTesting
+	void savePoints(int regionId, Collection<LavaTile> points)
 	{
-		if (points == null || points.isEmpty())
+		// Keep the saved value of regions which couldn't be read, rather than replacing it with the few tiles
+		// marked since
+		if (getTiles(regionId) == UNREADABLE_REGION)
 		{
-			configManager.unsetConfiguration(Config.GROUP, getConfigUUID() + "." + REGION_PREFIX + regionId);
+			log.debug("Not saving region {}, since its saved tiles couldn't be read", regionId);
 			return;
 		}
 
-		String json = GSON.toJson(points);
-		configManager.setConfiguration(Config.GROUP, getConfigUUID() + "." + REGION_PREFIX + regionId, json);
+		Collection<LavaTile> tiles = points == null || points.isEmpty()
+			? Collections.emptyList()
+			: Collections.unmodifiableSet(new LinkedHashSet<>(points));
+
+		regionCache.put(regionId, tiles);
+		pendingSaves.put(getRegionKey(regionId), tiles);
+
+		if (saveScheduled.compareAndSet(false, true))
+			executorService.schedule(this::flushPendingSaves, SAVE_DELAY, TimeUnit.MILLISECONDS);
+	}
+
+	private void flushPendingSaves()
+	{
+		// Clear the flag first, so saves made while flushing schedule another flush
+		saveScheduled.set(false);
+
+		Config.TileEncoding encoding = config.tileEncoding();
+		for (String key : pendingSaves.keySet())
+		{
+			synchronized (saveLock)
+			{
+				Collection<LavaTile> tiles = pendingSaves.remove(key);
+				if (tiles == null)
+					continue;
+
+				if (tiles.isEmpty())
+				{
+					savedValues.put(key, "");
+					configManager.unsetConfiguration(Config.GROUP, key);
+				}
+				else
+				{
+					String value = LavaTileCodec.encode(tiles, encoding);
+					savedValues.put(key, value);
+					configManager.setConfiguration(Config.GROUP, key, value);
+				}
+			}
+		}
 	}
 
 	private void copyConfig(String fromPrefix, String toPrefix) {
@@ -597,6 +820,7 @@ public class LavaPlugin extends Plugin
 					configManager.getConfiguration(Config.GROUP, key));
 			});
 		loadPoints();
+		updateTileCounter();
 	}
 
 	private Collection<WorldPoint> translateToWorldPoint(Collection<LavaTile> points)
@@ -616,44 +840,63 @@ public class LavaPlugin extends Plugin
 			.collect(Collectors.toList());
 	}
 
+	/**
+	 * @return the number of lava tiles in the loaded scene, including tiles repeated within an instance
+	 */
+	public int getLoadedTileCount()
+	{
+		return points.size();
+	}
+
 	public int getTotalTiles()
 	{
 		return totalTileCount;
 	}
 
+	/**
+	 * Rebuild the scene tile index if the scene base has moved since it was last built.
+	 * Should be called once per frame before any calls to {@link #containsTile}.
+	 */
+	public void updateTileIndex() {
+		int baseX = client.getBaseX();
+		int baseY = client.getBaseY();
+		if (tileIndex.getBaseX() != baseX || tileIndex.getBaseY() != baseY)
+			rebuildTileIndex(baseX, baseY);
+	}
+
 	public boolean containsTile(int plane, int tileX, int tileY) {
-		for (final WorldPoint wp : getPoints()) {
-			int sceneX = wp.getX() - client.getBaseX();
-			int sceneY = wp.getY() - client.getBaseY();
-			if (wp.getPlane() == plane && sceneX == tileX && sceneY == tileY)
-				return true;
-		}
-		return false;
+		return tileIndex.contains(plane, tileX, tileY);
 	}
 
-	public MarkedTile getMarkedTile(int plane, int tileX, int tileY) {
+	/**
+	 * @return the time in millis at which the lava tile started animating, 0 if it has finished animating, or
+	 * {@link #NO_LAVA} if the tile isn't lava or hasn't started animating yet.
+	 */
+	public long getLavaStartMillis(int plane, int tileX, int tileY) {
 		if (!containsTile(plane, tileX, tileY))
-			return null;
+			return NO_LAVA;
 
-		MarkedTile marked = recentlyMarkedTiles
-			.stream()
-			.filter(m -> {
-				LocalPoint lp = LocalPoint.fromWorld(client, m.point);
-				return lp != null && lp.getSceneX() == tileX && lp.getSceneY() == tileY;
-			})
-			.findFirst()
-			.orElseGet(() -> {
-				WorldPoint wp = WorldPoint.fromLocal(client,
-					tileX * Perspective.LOCAL_TILE_SIZE,
-					tileY * Perspective.LOCAL_TILE_SIZE,
-					plane);
-				return new MarkedTile(wp, -1_000_000);
-			});
+		long millis = tileIndex.getMarkedMillis(plane, tileX, tileY);
+		if (millis != 0 && millis > System.currentTimeMillis())
+			return NO_LAVA;
+		return millis;
+	}
+
+	/**
+	 * @return the time in millis at which the lava tile starts animating, which may be in the future, 0 if it has
+	 * finished animating, or {@link #NO_LAVA} if the tile isn't lava.
+	 */
+	public long getMarkedMillis(int plane, int tileX, int tileY) {
+		if (!containsTile(plane, tileX, tileY))
+			return NO_LAVA;
+		return tileIndex.getMarkedMillis(plane, tileX, tileY);
+	}
 
-		long elapsedMillis = System.currentTimeMillis() - marked.millis;
-		if (elapsedMillis < 0)
-			return null;
-		return marked;
+	/**
+	 * Mark the lava tile as having finished animating.
+	 */
+	public void settleTile(int plane, int tileX, int tileY) {
+		tileIndex.setMarkedMillis(plane, tileX, tileY, 0);
 	}
 
 	private void handleWalkedToTile(WorldPoint currentPlayerPoint)
@@ -726,13 +969,13 @@ public class LavaPlugin extends Plugin
 			tileBesideYDiff = yDiff;
 		}
 
-		MovementFlag[] tileBesideFlagsArray = getTileMovementFlags(
+		int tileBesideFlags = getTileMovementFlags(
 			new WorldPoint(
 				lastTile.getX() + tileBesideXDiff,
 				lastTile.getY() + tileBesideYDiff,
 				lastTile.getPlane()));
 
-		if (tileBesideFlagsArray.length == 0)
+		if (tileBesideFlags == 0)
 		{
 			fillTile(new WorldPoint(
 				lastTile.getX() + tileBesideXDiff / 2,
@@ -740,7 +983,7 @@ public class LavaPlugin extends Plugin
 				lastTile.getPlane()),
 				MULTI_MARK_DELAY);
 		}
-		else if (containsAnyOf(fullBlock, tileBesideFlagsArray))
+		else if ((tileBesideFlags & FULL_BLOCK) != 0)
 		{
 			if (yModifier == 64)
 			{
@@ -756,31 +999,31 @@ public class LavaPlugin extends Plugin
 				lastTile.getPlane()),
 				MULTI_MARK_DELAY);
 		}
-		else if (containsAnyOf(allDirections, tileBesideFlagsArray))
+		else if ((tileBesideFlags & ALL_DIRECTIONS) != 0)
 		{
-			MovementFlag direction1, direction2;
+			int direction1, direction2;
 			if (yDiff == 256 || yDiff == -128)
 			{
 				// Moving 2 North or 1 South
-				direction1 = MovementFlag.BLOCK_MOVEMENT_SOUTH;
+				direction1 = CollisionDataFlag.BLOCK_MOVEMENT_SOUTH;
 			}
 			else
 			{
 				// Moving 2 South or 1 North
-				direction1 = MovementFlag.BLOCK_MOVEMENT_NORTH;
+				direction1 = CollisionDataFlag.BLOCK_MOVEMENT_NORTH;
 			}
 			if (xDiff == 256 || xDiff == -128)
 			{
 				// Moving 2 East or 1 West
-				direction2 = MovementFlag.BLOCK_MOVEMENT_WEST;
+				direction2 = CollisionDataFlag.BLOCK_MOVEMENT_WEST;
 			}
 			else
 			{
 				// Moving 2 West or 1 East
-				direction2 = MovementFlag.BLOCK_MOVEMENT_EAST;
+				direction2 = CollisionDataFlag.BLOCK_MOVEMENT_EAST;
 			}
 
-			if (containsAnyOf(tileBesideFlagsArray, new MovementFlag[]{direction1, direction2}))
+			if ((tileBesideFlags & (direction1 | direction2)) != 0)
 			{
 				// Interrupted
 				if (yModifier == 64)
@@ -824,19 +1067,17 @@ public class LavaPlugin extends Plugin
 			southPoint = new WorldPoint(lastTile.getX(), lastTile.getY() + yDiff, lastTile.getPlane());
 		}
 
-		MovementFlag[] northTile = getTileMovementFlags(northPoint);
-		MovementFlag[] southTile = getTileMovementFlags(southPoint);
+		int northTile = getTileMovementFlags(northPoint);
+		int southTile = getTileMovementFlags(southPoint);
 
 		if (xDiff + yDiff == 0)
 		{
 			// Diagonal tilts north west
-			if (containsAnyOf(fullBlock, northTile)
-				|| containsAnyOf(northTile, new MovementFlag[]{MovementFlag.BLOCK_MOVEMENT_SOUTH, MovementFlag.BLOCK_MOVEMENT_WEST}))
+			if ((northTile & (FULL_BLOCK | CollisionDataFlag.BLOCK_MOVEMENT_SOUTH | CollisionDataFlag.BLOCK_MOVEMENT_WEST)) != 0)
 			{
 				fillTile(southPoint, MULTI_MARK_DELAY);
 			}
-			else if (containsAnyOf(fullBlock, southTile)
-				|| containsAnyOf(southTile, new MovementFlag[]{MovementFlag.BLOCK_MOVEMENT_NORTH, MovementFlag.BLOCK_MOVEMENT_EAST}))
+			else if ((southTile & (FULL_BLOCK | CollisionDataFlag.BLOCK_MOVEMENT_NORTH | CollisionDataFlag.BLOCK_MOVEMENT_EAST)) != 0)
 			{
 				fillTile(northPoint, MULTI_MARK_DELAY);
 			}
@@ -844,50 +1085,35 @@ public class LavaPlugin extends Plugin
 		else
 		{
 			// Diagonal tilts north east
-			if (containsAnyOf(fullBlock, northTile)
-				|| containsAnyOf(northTile, new MovementFlag[]{MovementFlag.BLOCK_MOVEMENT_SOUTH, MovementFlag.BLOCK_MOVEMENT_EAST}))
+			if ((northTile & (FULL_BLOCK | CollisionDataFlag.BLOCK_MOVEMENT_SOUTH | CollisionDataFlag.BLOCK_MOVEMENT_EAST)) != 0)
 			{
 				fillTile(southPoint, MULTI_MARK_DELAY);
 			}
-			else if (containsAnyOf(fullBlock, southTile)
-				|| containsAnyOf(southTile, new MovementFlag[]{MovementFlag.BLOCK_MOVEMENT_NORTH, MovementFlag.BLOCK_MOVEMENT_WEST}))
+			else if ((southTile & (FULL_BLOCK | CollisionDataFlag.BLOCK_MOVEMENT_NORTH | CollisionDataFlag.BLOCK_MOVEMENT_WEST)) != 0)
 			{
 				fillTile(northPoint, MULTI_MARK_DELAY);
 			}
 		}
 	}
 
-	private MovementFlag[] getTileMovementFlags(WorldPoint pointBeside)
+	/**
+	 * @return the movement related collision flags of the tile, or 0 if the tile is outside the current scene.
+	 */
+	@VisibleForTesting
+	int getTileMovementFlags(WorldPoint pointBeside)
 	{
 		CollisionData[] collisionData = client.getCollisionMaps();
 		assert collisionData != null;
-		int[][] collisionDataFlags = collisionData[client.getPlane()].getFlags();
+		int plane = client.getPlane();
 
-		LocalPoint lp = LocalPoint.fromWorld(client, pointBeside);
-		if (lp == null)
-			return new MovementFlag[0];
-
-		Set<MovementFlag> tilesBesideFlagsSet = MovementFlag.getSetFlags(collisionDataFlags[lp.getSceneX()][lp.getSceneY()]);
-		MovementFlag[] tileBesideFlagsArray = new MovementFlag[tilesBesideFlagsSet.size()];
-		tilesBesideFlagsSet.toArray(tileBesideFlagsArray);
+		int sceneX = pointBeside.getX() - client.getBaseX();
+		int sceneY = pointBeside.getY() - client.getBaseY();
+		if (pointBeside.getPlane() != plane ||
+			sceneX < 0 || sceneX >= SCENE_SIZE ||
+			sceneY < 0 || sceneY >= SCENE_SIZE)
+			return 0;
 
-		return tileBesideFlagsArray;
-	}
-
-	private boolean containsAnyOf(MovementFlag[] comparisonFlags, MovementFlag[] flagsToCompare)
-	{
-		if (comparisonFlags.length == 0 || flagsToCompare.length == 0)
-		{
-			return false;
-		}
-		for (MovementFlag flag : flagsToCompare)
-		{
-			if (Arrays.asList(comparisonFlags).contains(flag))
-			{
-				return true;
-			}
-		}
-		return false;
+		return collisionData[plane].getFlags()[sceneX][sceneY] & ALL_MOVEMENT_FLAGS;
 	}
 
 	private boolean regionIsOnTutorialIsland(int regionId)
@@ -924,16 +1150,26 @@ public class LavaPlugin extends Plugin
 		LavaTile point = new LavaTile(regionId, worldPoint.getRegionX(), worldPoint.getRegionY(), plane);
 		log.debug("Updating point: {} - {}", point, worldPoint);
 
-		List<LavaTile> lavaTiles = new ArrayList<>(getTiles(regionId));
+		Collection<LavaTile> savedTiles = getTiles(regionId);
+		if (savedTiles == UNREADABLE_REGION)
+			return;
+
+		Set<LavaTile> lavaTiles = new LinkedHashSet<>(savedTiles);
+		MarkedTile marked = null;
 
 		if (markedValue) {
-			if (!lavaTiles.contains(point)) {
-				lavaTiles.add(point);
-				while (recentlyMarkedTiles.size() > 25)
-					recentlyMarkedTiles.removeFirst();
-				recentlyMarkedTiles.addLast(new MarkedTile(worldPoint, delay));
-			}
+			if (!lavaTiles.add(point))
+				return;
+
+			adjustTileCounter(1);
+			while (recentlyMarkedTiles.size() > 25)
+				updateMarkedMillis(recentlyMarkedTiles.removeFirst(), 0);
+			marked = new MarkedTile(point, delay);
+			recentlyMarkedTiles.addLast(marked);
 		} else {
+			if (!lavaTiles.contains(point))
+				return;
+
 			if (!force) {
 				// Check if the player has any unspent douse points
 				if (getRemainingDousePoints() > 0) {
@@ -945,10 +1181,153 @@ public class LavaPlugin extends Plugin
 				}
 			}
 			lavaTiles.remove(point);
+			adjustTileCounter(-1);
 		}
 
 		savePoints(regionId, lavaTiles);
-		loadPoints();
+		updateLoadedPoint(point, markedValue);
+		if (marked != null)
+			updateMarkedMillis(marked, marked.millis);
+	}
+
+	/**
+	 * Set the animation start time of a recently marked tile in the scene tile index. When clearing it, the tile
+	 * is left alone if it has since been marked again.
+	 */
+	private void updateMarkedMillis(MarkedTile marked, long millis)
+	{
+		for (WorldPoint wp : translateToWorldPoint(Collections.singletonList(marked.tile)))
+		{
+			int sceneX = wp.getX() - tileIndex.getBaseX();
+			int sceneY = wp.getY() - tileIndex.getBaseY();
+			if (millis == 0 && tileIndex.getMarkedMillis(wp.getPlane(), sceneX, sceneY) != marked.millis)
+				continue;
+			tileIndex.setMarkedMillis(wp.getPlane(), sceneX, sceneY, millis);
+		}
+	}
+
+	private void rebuildTileIndex(int baseX, int baseY)
+	{
+		tileIndex.rebuild(points.all(), baseX, baseY);
+		for (MarkedTile marked : recentlyMarkedTiles)
+			updateMarkedMillis(marked, marked.millis);
+		gpuPlugin.invalidateLavaTiles();
+	}
+
+	/**
+	 * Add or remove a single tile from the loaded points and the scene tile index, without reloading the scene.
+	 */
+	private void updateLoadedPoint(LavaTile tile, boolean markedValue)
+	{
+		Collection<WorldPoint> worldPoints = translateToWorldPoint(Collections.singletonList(tile));
+
+		// Only the points of the tile's own region are copied
+		ImmutableSet.Builder<WorldPoint> regionPoints = ImmutableSet.builder();
+		for (WorldPoint wp : points.getRegion(tile.getRegionId()))
+			if (!worldPoints.contains(wp))
+				regionPoints.add(wp);
+		if (markedValue)
+			regionPoints.addAll(worldPoints);
+		points = points.withRegion(tile.getRegionId(), regionPoints.build());
+
+		for (WorldPoint wp : worldPoints)
+		{
+			int sceneX = wp.getX() - tileIndex.getBaseX();
+			int sceneY = wp.getY() - tileIndex.getBaseY();
+			tileIndex.set(wp.getPlane(), sceneX, sceneY, markedValue);
+			gpuPlugin.invalidateLavaTile(wp.getPlane(), sceneX, sceneY);
+		}
+
+		// A load in progress may or may not have seen this change, so start over
+		if (pointsPending)
+			loadPoints();
+	}
+
+	/**
+	 * Copy of the scene state needed to translate world points to the loaded instance, mirroring
+	 * {@link WorldPoint#toLocalInstance}, so that tiles can be loaded off the client thread.
+	 */
+	@VisibleForTesting
+	static class SceneInstance
+	{
+		private final int baseX;
+		private final int baseY;
+		// null when not in an instance
+		private final int[][][] instanceTemplateChunks;
+
+		SceneInstance(Client client)
+		{
+			baseX = client.getBaseX();
+			baseY = client.getBaseY();
+
+			int[][][] chunks = client.isInInstancedRegion() ? client.getInstanceTemplateChunks() : null;
+			if (chunks != null)
+			{
+				chunks = chunks.clone();
+				for (int z = 0; z < chunks.length; z++)
+				{
+					chunks[z] = chunks[z].clone();
+					for (int x = 0; x < chunks[z].length; x++)
+						chunks[z][x] = chunks[z][x].clone();
+				}
+			}
+			instanceTemplateChunks = chunks;
+		}
+
+		private Collection<WorldPoint> toLocalInstance(WorldPoint worldPoint)
+		{
+			if (instanceTemplateChunks == null)
+				return Collections.singletonList(worldPoint);
+
+			// Find the instance chunks copied from the template chunk. There may be more than one, and they may be
+			// on a different plane than the template.
+			List<WorldPoint> worldPoints = new ArrayList<>();
+			for (int z = 0; z < instanceTemplateChunks.length; z++)
+			{
+				for (int x = 0; x < instanceTemplateChunks[z].length; x++)
+				{
+					for (int y = 0; y < instanceTemplateChunks[z][x].length; y++)
+					{
+						int chunkData = instanceTemplateChunks[z][x][y];
+						int rotation = chunkData >> 1 & 0x3;
+						int templateChunkY = (chunkData >> 3 & 0x7FF) * CHUNK_SIZE;
+						int templateChunkX = (chunkData >> 14 & 0x3FF) * CHUNK_SIZE;
+						int templateChunkPlane = chunkData >> 24 & 0x3;
+						if (worldPoint.getX() < templateChunkX || worldPoint.getX() >= templateChunkX + CHUNK_SIZE ||
+							worldPoint.getY() < templateChunkY || worldPoint.getY() >= templateChunkY + CHUNK_SIZE ||
+							worldPoint.getPlane() != templateChunkPlane)
+							continue;
+
+						int chunkX = baseX + x * CHUNK_SIZE;
+						int chunkY = baseY + y * CHUNK_SIZE;
+						int localX = worldPoint.getX() & (CHUNK_SIZE - 1);
+						int localY = worldPoint.getY() & (CHUNK_SIZE - 1);
+						int rotatedX, rotatedY;
+						switch (rotation)
+						{
+							case 1:
+								rotatedX = localY;
+								rotatedY = CHUNK_SIZE - 1 - localX;
+								break;
+							case 2:
+								rotatedX = CHUNK_SIZE - 1 - localX;
+								rotatedY = CHUNK_SIZE - 1 - localY;
+								break;
+							case 3:
+								rotatedX = CHUNK_SIZE - 1 - localY;
+								rotatedY = localX;
+								break;
+							default:
+								rotatedX = localX;
+								rotatedY = localY;
+								break;
+						}
+						worldPoints.add(new WorldPoint(chunkX + rotatedX, chunkY + rotatedY, z));
+					}
+				}
+			}
+			return worldPoints;
+		}
 	}
 
 	private void postMessage(String message) {
@@ -977,14 +1356,15 @@ public class LavaPlugin extends Plugin
 		private final int flag;
 
 		/**
-		 * @param collisionData The tile collision flags.
-		 * @return The set of {@link MovementFlag}s that have been set.
+		 * @param flags The movement flags to combine.
+		 * @return The collision flag bitmask with all of the given flags set.
 		 */
-		public static Set<MovementFlag> getSetFlags(int collisionData)
+		public static int mask(MovementFlag... flags)
 		{
-			return Arrays.stream(values())
-				.filter(movementFlag -> (movementFlag.flag & collisionData) != 0)
-				.collect(Collectors.toSet());
+			int mask = 0;
+			for (MovementFlag flag : flags)
+				mask |= flag.flag;
+			return mask;
 		}
 	}
 
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Converts the lava tiles of a single region to and from the string stored in the config.
+ * <p>
+ * Besides the original JSON format, two base64 encoded binary formats are supported, both starting with a
+ * format byte. Tiles are addressed by a 14-bit index of {@code z << 12 | regionX << 6 | regionY}, and the region
+ * ID is taken from the config key rather than being stored with every tile.
+ * <ul>
+ *     <li>{@link Config.TileEncoding#BITMAP}: one bit per tile in the 64x64x4 region, 2 KB regardless of tile count</li>
+ *     <li>{@link Config.TileEncoding#PACKED}: a sorted list of tile indices, 2 bytes per tile</li>
+ * </ul>
+ */
+@Slf4j
+class LavaTileCodec
+{
+	private static final Gson GSON = new Gson();
+
+	private static final byte FORMAT_BITMAP = 1;
+	private static final byte FORMAT_PACKED = 2;
+
+	private static final int REGION_SIZE = 64;
+	private static final int MAX_Z = 4;
+	private static final int TILES_PER_REGION = MAX_Z * REGION_SIZE * REGION_SIZE;
+
+	static String encode(Collection<LavaTile> tiles, Config.TileEncoding encoding)
+	{
+		switch (encoding)
+		{
+			case BITMAP:
+				return encodeBitmap(tiles);
+			case PACKED:
+				return encodePacked(tiles);
+			default:
+				return GSON.toJson(tiles);
+		}
+	}
+
+	/**
+	 * @return the tiles of the region, or null if the value can't be decoded, for example because it is corrupt or
+	 * was written in a format added by a newer version of the plugin
+	 */
+	static List<LavaTile> decode(int regionId, String value)
+	{
+		if (Strings.isNullOrEmpty(value))
+		{
+			return Collections.emptyList();
+		}
+
+		try
+		{
+			// Tiles saved before the binary formats were added are stored as a JSON array
+			if (value.charAt(0) == '[')
+			{
+				List<LavaTile> tiles = GSON.fromJson(value, new TypeToken<List<LavaTile>>() {}.getType());
+				return tiles == null ? Collections.emptyList() : tiles;
+			}
+
+			ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(value));
+			byte format = buffer.get();
+			switch (format)
+			{
+				case FORMAT_BITMAP:
+					return decodeBitmap(regionId, buffer);
+				case FORMAT_PACKED:
+					return decodePacked(regionId, buffer);
+				default:
+					log.warn("Unknown lava tile format {} for region {}", format, regionId);
+					return null;
+			}
+		}
+		catch (IllegalArgumentException | BufferUnderflowException | JsonParseException e)
+		{
+			log.warn("Unable to decode the lava tiles of region {}", regionId, e);
+			return null;
+		}
+	}
+
+	private static String encodeBitmap(Collection<LavaTile> tiles)
+	{
+		byte[] bytes = new byte[1 + TILES_PER_REGION / 8];
+		bytes[0] = FORMAT_BITMAP;
+		for (LavaTile tile : tiles)
+		{
+			int index = index(tile);
+			bytes[1 + (index >> 3)] |= 1 << (index & 7);
+		}
+		return Base64.getEncoder().encodeToString(bytes);
+	}
+
+	private static List<LavaTile> decodeBitmap(int regionId, ByteBuffer buffer)
+	{
+		List<LavaTile> tiles = new ArrayList<>();
+		for (int i = 0; buffer.hasRemaining(); i += 8)
+		{
+			int bits = buffer.get() & 0xff;
+			for (; bits != 0; bits &= bits - 1)
+			{
+				tiles.add(fromIndex(regionId, i + Integer.numberOfTrailingZeros(bits)));
+			}
+		}
+		return tiles;
+	}
+
+	private static String encodePacked(Collection<LavaTile> tiles)
+	{
+		short[] indices = new short[tiles.size()];
+		int count = 0;
+		for (LavaTile tile : tiles)
+		{
+			indices[count++] = (short) index(tile);
+		}
+		Arrays.sort(indices);
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 + count * Short.BYTES);
+		buffer.put(FORMAT_PACKED);
+		for (int i = 0; i < count; i++)
+		{
+			// Skip duplicates, which can only come from a malformed collection
+			if (i == 0 || indices[i] != indices[i - 1])
+			{
+				buffer.putShort(indices[i]);
+			}
+		}
+		return Base64.getEncoder().encodeToString(Arrays.copyOf(buffer.array(), buffer.position()));
+	}
+
+	private static List<LavaTile> decodePacked(int regionId, ByteBuffer buffer)
+	{
+		List<LavaTile> tiles = new ArrayList<>(buffer.remaining() / Short.BYTES);
+		// A trailing odd byte means the value was truncated, and underflows here
+		while (buffer.hasRemaining())
+		{
+			tiles.add(fromIndex(regionId, buffer.getShort()));
+		}
+		return tiles;
+	}
+
+	private static int index(LavaTile tile)
+	{
+		return (tile.getZ() & (MAX_Z - 1)) << 12
+			| (tile.getRegionX() & (REGION_SIZE - 1)) << 6
+			| tile.getRegionY() & (REGION_SIZE - 1);
+	}
+
+	private static LavaTile fromIndex(int regionId, int index)
+	{
+		return new LavaTile(regionId, index >> 6 & (REGION_SIZE - 1), index & (REGION_SIZE - 1), index >> 12 & (MAX_Z - 1));
+	}
+}
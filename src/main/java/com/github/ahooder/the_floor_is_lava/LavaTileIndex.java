@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import java.util.Arrays;
+import net.runelite.api.Constants;
+import net.runelite.api.coords.WorldPoint;
+
+/**
+ * Scene aligned bitset of lava tiles, one bit per plane/x/y in the currently loaded scene, along with the time at
+ * which recently marked tiles started animating.
+ */
+class LavaTileIndex
+{
+	private static final int SCENE_SIZE = Constants.SCENE_SIZE;
+	private static final int PLANE_SIZE = SCENE_SIZE * SCENE_SIZE;
+
+	private final long[] bits = new long[(Constants.MAX_Z * PLANE_SIZE + 63) >> 6];
+
+	/**
+	 * animation start time of each tile in millis, or 0 if the tile isn't animating
+	 */
+	private final long[] markedMillis = new long[Constants.MAX_Z * PLANE_SIZE];
+
+	private int baseX = -1;
+	private int baseY = -1;
+
+	int getBaseX()
+	{
+		return baseX;
+	}
+
+	int getBaseY()
+	{
+		return baseY;
+	}
+
+	void rebuild(Iterable<WorldPoint> points, int baseX, int baseY)
+	{
+		this.baseX = baseX;
+		this.baseY = baseY;
+		Arrays.fill(bits, 0);
+		Arrays.fill(markedMillis, 0);
+
+		for (WorldPoint wp : points)
+		{
+			set(wp.getPlane(), wp.getX() - baseX, wp.getY() - baseY, true);
+		}
+	}
+
+	void clear()
+	{
+		baseX = baseY = -1;
+		Arrays.fill(bits, 0);
+		Arrays.fill(markedMillis, 0);
+	}
+
+	void set(int plane, int sceneX, int sceneY, boolean value)
+	{
+		if (!inScene(plane, sceneX, sceneY))
+		{
+			return;
+		}
+
+		int index = index(plane, sceneX, sceneY);
+		if (value)
+		{
+			bits[index >> 6] |= 1L << index;
+		}
+		else
+		{
+			bits[index >> 6] &= ~(1L << index);
+		}
+	}
+
+	boolean contains(int plane, int sceneX, int sceneY)
+	{
+		if (!inScene(plane, sceneX, sceneY))
+		{
+			return false;
+		}
+
+		int index = index(plane, sceneX, sceneY);
+		return (bits[index >> 6] & 1L << index) != 0;
+	}
+
+	void setMarkedMillis(int plane, int sceneX, int sceneY, long millis)
+	{
+		if (inScene(plane, sceneX, sceneY))
+		{
+			markedMillis[index(plane, sceneX, sceneY)] = millis;
+		}
+	}
+
+	long getMarkedMillis(int plane, int sceneX, int sceneY)
+	{
+		if (!inScene(plane, sceneX, sceneY))
+		{
+			return 0;
+		}
+
+		return markedMillis[index(plane, sceneX, sceneY)];
+	}
+
+	private static boolean inScene(int plane, int sceneX, int sceneY)
+	{
+		return plane >= 0 && plane < Constants.MAX_Z
+			&& sceneX >= 0 && sceneX < SCENE_SIZE
+			&& sceneY >= 0 && sceneY < SCENE_SIZE;
+	}
+
+	private static int index(int plane, int sceneX, int sceneY)
+	{
+		return plane * PLANE_SIZE + sceneX * SCENE_SIZE + sceneY;
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.util.Map;
+import java.util.Set;
+import net.runelite.api.coords.WorldPoint;
+
+/**
+ * Immutable snapshot of the lava tiles in the loaded scene as world points, grouped by the saved region they were
+ * loaded from. Changing the tiles of one region only copies the points of that region.
+ */
+final class ScenePoints
+{
+	static final ScenePoints EMPTY = new ScenePoints(ImmutableMap.of(), 0);
+
+	private final ImmutableMap<Integer, ImmutableSet<WorldPoint>> regions;
+	private final int size;
+
+	private ScenePoints(ImmutableMap<Integer, ImmutableSet<WorldPoint>> regions, int size)
+	{
+		this.regions = regions;
+		this.size = size;
+	}
+
+	static ScenePoints of(Map<Integer, ImmutableSet<WorldPoint>> regions)
+	{
+		int size = 0;
+		for (Set<WorldPoint> points : regions.values())
+		{
+			size += points.size();
+		}
+		return new ScenePoints(ImmutableMap.copyOf(regions), size);
+	}
+
+	/**
+	 * @return the points loaded from the saved region, or an empty set if the region isn't loaded
+	 */
+	Set<WorldPoint> getRegion(int regionId)
+	{
+		ImmutableSet<WorldPoint> points = regions.get(regionId);
+		return points == null ? ImmutableSet.of() : points;
+	}
+
+	/**
+	 * @return a snapshot with the points of the saved region replaced
+	 */
+	ScenePoints withRegion(int regionId, ImmutableSet<WorldPoint> points)
+	{
+		ImmutableMap.Builder<Integer, ImmutableSet<WorldPoint>> builder = ImmutableMap.builder();
+		for (Map.Entry<Integer, ImmutableSet<WorldPoint>> region : regions.entrySet())
+		{
+			if (region.getKey() != regionId)
+			{
+				builder.put(region);
+			}
+		}
+		if (!points.isEmpty())
+		{
+			builder.put(regionId, points);
+		}
+		return new ScenePoints(builder.build(), size - getRegion(regionId).size() + points.size());
+	}
+
+	Iterable<WorldPoint> all()
+	{
+		return Iterables.concat(regions.values());
+	}
+
+	int size()
+	{
+		return size;
+	}
+}
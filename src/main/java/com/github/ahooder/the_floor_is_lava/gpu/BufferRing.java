@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tracks which regions of a set of ring buffers the GPU may still be reading from. Each frame writes into the next
+ * region, and a fence placed once the frame's commands have been submitted guards the region until the GPU is
+ * done with it.
+ */
+@Slf4j
+class BufferRing
+{
+	private static final long WAIT_TIMEOUT_NANOS = 1_000_000_000L;
+
+	private final FenceSync sync;
+	private final long[] fences;
+	private int current = -1;
+
+	BufferRing(FenceSync sync, int regionCount)
+	{
+		this.sync = sync;
+		this.fences = new long[regionCount];
+	}
+
+	int getRegionCount()
+	{
+		return fences.length;
+	}
+
+	/**
+	 * @return the region acquired by the last call to {@link #acquire}, or -1 if none is held
+	 */
+	int getCurrent()
+	{
+		return current;
+	}
+
+	/**
+	 * Advance to the next region, waiting for the GPU to finish reading it if necessary.
+	 *
+	 * @return the index of the region which may now be written to
+	 */
+	int acquire()
+	{
+		int next = current < 0 ? 0 : (current + 1) % fences.length;
+		await(next);
+		current = next;
+		return current;
+	}
+
+	/**
+	 * Guard the current region with a fence after the commands reading from it have been submitted.
+	 */
+	void release()
+	{
+		if (current < 0)
+		{
+			throw new IllegalStateException("no region has been acquired");
+		}
+
+		if (fences[current] != 0)
+		{
+			sync.delete(fences[current]);
+		}
+		fences[current] = sync.fence();
+	}
+
+	/**
+	 * Wait for the GPU to finish reading all regions, after which the buffers may be reallocated.
+	 */
+	void reset()
+	{
+		for (int i = 0; i < fences.length; i++)
+		{
+			await(i);
+		}
+		current = -1;
+	}
+
+	private void await(int region)
+	{
+		long fence = fences[region];
+		if (fence == 0)
+		{
+			return;
+		}
+
+		if (!sync.await(fence, WAIT_TIMEOUT_NANOS))
+		{
+			log.warn("Timed out waiting for buffer region {}", region);
+		}
+		sync.delete(fence);
+		fences[region] = 0;
+	}
+}
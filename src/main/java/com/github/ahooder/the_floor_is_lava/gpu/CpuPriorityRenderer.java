@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.inject.Singleton;
+import net.runelite.api.Perspective;
+
+/**
+ * Java port of the face sort in priority_render.glsl, for when compute shaders are unavailable. Models are recorded
+ * with the same 8 int layout as the compute shader's model buffers, and are sorted and transformed in place in the
+ * vertex and uv buffers, since without compute shaders each model's input is stored at its output offset.
+ * <p>
+ * The integer and float math mirrors the shaders, including the packing of face ids and distances, so the output
+ * can be compared against the compute shaders' output.
+ */
+@Singleton
+class CpuPriorityRenderer
+{
+	private static final float PI = 3.1415926535897932384626433832795f;
+
+	/**
+	 * number of models a single fork join task sorts before it splits
+	 */
+	private static final int MODELS_PER_TASK = 32;
+
+	private int centerX;
+	private int centerY;
+	private int zoom;
+	private int cameraX;
+	private int cameraY;
+	private int cameraZ;
+
+	// The shaders compute these per vertex. UNIT is defined as PI / 1024.0f without parentheses, so they compute
+	// (angle * PI) / 1024.
+	private float yawSin;
+	private float yawCos;
+	private float pitchSin;
+	private float pitchCos;
+	private int fixedYawSin;
+	private int fixedYawCos;
+	private int fixedPitchSin;
+	private int fixedPitchCos;
+
+	private static class Scratch
+	{
+		final int[] vertices = new int[GpuPlugin.MAX_TRIANGLE * 3 * 4];
+		final float[] uvs = new float[GpuPlugin.MAX_TRIANGLE * 3 * 4];
+		final int[] priorities = new int[GpuPlugin.MAX_TRIANGLE];
+		final int[] distances = new int[GpuPlugin.MAX_TRIANGLE];
+		final int[] adjustedPriorities = new int[GpuPlugin.MAX_TRIANGLE];
+		final int[] dfs = new int[GpuPlugin.MAX_TRIANGLE];
+		final int[] totalNum = new int[12];
+		final int[] totalDistance = new int[12];
+		final int[] totalMappedNum = new int[18];
+		final int[] mappedOffset = new int[18];
+	}
+
+	private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	/**
+	 * Set the values the shaders read from the uniform buffer.
+	 */
+	void setCamera(int cameraYaw, int cameraPitch, int centerX, int centerY, int zoom, int cameraX, int cameraY, int cameraZ)
+	{
+		this.centerX = centerX;
+		this.centerY = centerY;
+		this.zoom = zoom;
+		this.cameraX = cameraX;
+		this.cameraY = cameraY;
+		this.cameraZ = cameraZ;
+
+		yawSin = (float) Math.sin(cameraYaw * PI / 1024.0f);
+		yawCos = (float) Math.cos(cameraYaw * PI / 1024.0f);
+		pitchSin = (float) Math.sin(cameraPitch * PI / 1024.0f);
+		pitchCos = (float) Math.cos(cameraPitch * PI / 1024.0f);
+		fixedYawSin = (int) (65536.0f * yawSin);
+		fixedYawCos = (int) (65536.0f * yawCos);
+		fixedPitchSin = (int) (65536.0f * pitchSin);
+		fixedPitchCos = (int) (65536.0f * pitchCos);
+	}
+
+	/**
+	 * Sort the faces of each model in the model buffers, from the start of each buffer up to its position.
+	 */
+	void render(IntBuffer smallModels, IntBuffer largeModels, IntBuffer vertexBuffer, FloatBuffer uvBuffer)
+	{
+		final int smallCount = smallModels.position() / 8;
+		final int largeCount = largeModels.position() / 8;
+		ForkJoinPool.commonPool().invoke(new SortTask(smallModels, largeModels, smallCount, 0, smallCount + largeCount,
+			vertexBuffer, uvBuffer));
+	}
+
+	private class SortTask extends RecursiveAction
+	{
+		private final IntBuffer smallModels;
+		private final IntBuffer largeModels;
+		private final int smallCount;
+		private final int start;
+		private final int end;
+		private final IntBuffer vertexBuffer;
+		private final FloatBuffer uvBuffer;
+
+		SortTask(IntBuffer smallModels, IntBuffer largeModels, int smallCount, int start, int end,
+			IntBuffer vertexBuffer, FloatBuffer uvBuffer)
+		{
+			this.smallModels = smallModels;
+			this.largeModels = largeModels;
+			this.smallCount = smallCount;
+			this.start = start;
+			this.end = end;
+			this.vertexBuffer = vertexBuffer;
+			this.uvBuffer = uvBuffer;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start > MODELS_PER_TASK)
+			{
+				int mid = (start + end) >>> 1;
+				invokeAll(
+					new SortTask(smallModels, largeModels, smallCount, start, mid, vertexBuffer, uvBuffer),
+					new SortTask(smallModels, largeModels, smallCount, mid, end, vertexBuffer, uvBuffer));
+				return;
+			}
+
+			Scratch s = scratch.get();
+			for (int i = start; i < end; i++)
+			{
+				IntBuffer models = i < smallCount ? smallModels : largeModels;
+				int entry = (i < smallCount ? i : i - smallCount) * 8;
+				sortModel(s, models, entry, vertexBuffer, uvBuffer);
+			}
+		}
+	}
+
+	private void sortModel(Scratch s, IntBuffer models, int entry, IntBuffer vertexBuffer, FloatBuffer uvBuffer)
+	{
+		final int offset = models.get(entry);
+		final int uvOffset = models.get(entry + 1);
+		final int size = models.get(entry + 2);
+		final int outOffset = models.get(entry + 3);
+		final int flags = models.get(entry + 4);
+		final int x = models.get(entry + 5);
+		final int y = models.get(entry + 6);
+		final int z = models.get(entry + 7);
+
+		final int radius = (flags & 0x7fffffff) >> 12;
+		final int orientation = flags & 0x7ff;
+
+		final int[] v = s.vertices;
+		final float[] uv = s.uvs;
+
+		// The output overlaps the input, so work on a copy
+		for (int i = 0; i < size * 3 * 4; i++)
+		{
+			v[i] = vertexBuffer.get(offset * 4 + i);
+		}
+		if (uvOffset >= 0)
+		{
+			for (int i = 0; i < size * 3 * 4; i++)
+			{
+				uv[i] = uvBuffer.get(uvOffset * 4 + i);
+			}
+		}
+
+		final int sin = Perspective.SINE[orientation];
+		final int cos = Perspective.COSINE[orientation];
+
+		// get_face
+		for (int face = 0; face < size; face++)
+		{
+			for (int vertex = 0; vertex < 3; vertex++)
+			{
+				int i = (face * 3 + vertex) * 4;
+				int vx = v[i];
+				int vz = v[i + 2];
+				v[i] = vz * sin + vx * cos >> 16;
+				v[i + 2] = vz * cos - vx * sin >> 16;
+			}
+
+			int a = face * 12;
+			s.priorities[face] = (v[a + 3] >> 16) & 0xff;
+			s.distances[face] = radius == 0 ? 0 : faceDistance(v, a, a + 4, a + 8) + radius;
+		}
+
+		// add_face_prio_distance
+		final int[] totalNum = s.totalNum;
+		final int[] totalDistance = s.totalDistance;
+		final int[] totalMappedNum = s.totalMappedNum;
+		Arrays.fill(totalNum, 0);
+		Arrays.fill(totalDistance, 0);
+		Arrays.fill(totalMappedNum, 0);
+		int min10 = 1600;
+
+		for (int face = 0; face < size; face++)
+		{
+			int a = face * 12;
+			if (faceVisible(v, a, a + 4, a + 8, x, y, z))
+			{
+				int priority = s.priorities[face];
+				if (priority >= totalNum.length)
+				{
+					// out of bounds in the shaders too, where it is undefined
+					continue;
+				}
+				totalNum[priority]++;
+				totalDistance[priority] += s.distances[face];
+				if (priority == 10)
+				{
+					min10 = Math.min(min10, s.distances[face]);
+				}
+			}
+		}
+
+		// map_face_priority
+		int avg1 = 0;
+		int avg2 = 0;
+		int avg3 = 0;
+
+		if (totalNum[1] > 0 || totalNum[2] > 0)
+		{
+			avg1 = (totalDistance[1] + totalDistance[2]) / (totalNum[1] + totalNum[2]);
+		}
+
+		if (totalNum[3] > 0 || totalNum[4] > 0)
+		{
+			avg2 = (totalDistance[3] + totalDistance[4]) / (totalNum[3] + totalNum[4]);
+		}
+
+		if (totalNum[6] > 0 || totalNum[8] > 0)
+		{
+			avg3 = (totalDistance[6] + totalDistance[8]) / (totalNum[6] + totalNum[8]);
+		}
+
+		for (int face = 0; face < size; face++)
+		{
+			int adjPrio = priorityMap(s.priorities[face], s.distances[face], min10, avg1, avg2, avg3);
+			s.adjustedPriorities[face] = adjPrio;
+			totalMappedNum[adjPrio]++;
+		}
+
+		// insert_dfs. The order of faces within a priority doesn't affect the output, since sort_and_insert
+		// compares every pair of faces, so they are inserted in face order rather than in atomic order.
+		final int[] mappedOffset = s.mappedOffset;
+		for (int i = 0, total = 0; i < 18; i++)
+		{
+			mappedOffset[i] = total;
+			total += totalMappedNum[i];
+		}
+		for (int face = 0; face < size; face++)
+		{
+			s.dfs[mappedOffset[s.adjustedPriorities[face]]++] = (face << 16) | s.distances[face];
+		}
+
+		// sort_and_insert
+		for (int face = 0; face < size; face++)
+		{
+			final int thisPriority = s.adjustedPriorities[face];
+			final int thisDistance = s.distances[face];
+			final int priorityStart = mappedOffset[thisPriority] - totalMappedNum[thisPriority];
+			final int priorityEnd = mappedOffset[thisPriority];
+
+			int myOffset = priorityStart;
+			for (int i = priorityStart; i < priorityEnd; i++)
+			{
+				int d1 = s.dfs[i];
+				int theirId = d1 >> 16;
+				int theirDistance = d1 & 0xffff;
+
+				// the closest faces draw last, so have the highest index
+				// if two faces have the same distance, the one with the
+				// higher id draws last
+				if (theirDistance > thisDistance
+					|| (theirDistance == thisDistance && theirId < face))
+				{
+					++myOffset;
+				}
+			}
+
+			final int out = (outOffset + myOffset * 3) * 4;
+			final int in = face * 12;
+			for (int vertex = 0; vertex < 3; vertex++)
+			{
+				int o = out + vertex * 4;
+				int i = in + vertex * 4;
+				vertexBuffer.put(o, x + v[i]);
+				vertexBuffer.put(o + 1, y + v[i + 1]);
+				vertexBuffer.put(o + 2, z + v[i + 2]);
+				vertexBuffer.put(o + 3, v[i + 3]);
+
+				if (uvOffset < 0)
+				{
+					uvBuffer.put(o, 0f);
+					uvBuffer.put(o + 1, 0f);
+					uvBuffer.put(o + 2, 0f);
+					uvBuffer.put(o + 3, 0f);
+				}
+				else
+				{
+					uvBuffer.put(o, uv[i]);
+					uvBuffer.put(o + 1, uv[i + 1]);
+					uvBuffer.put(o + 2, uv[i + 2]);
+					uvBuffer.put(o + 3, uv[i + 3]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * priority_map from priority_render.glsl
+	 */
+	private static int priorityMap(int p, int distance, int min10, int avg1, int avg2, int avg3)
+	{
+		// (10, 11)  0  1  2  (10, 11)  3  4  (10, 11)  5  6  7  8  9  (10, 11)
+		//   0   1   2  3  4    5   6   7  8    9  10  11 12 13 14 15   16  17
+		switch (p)
+		{
+			case 0:
+				return 2;
+			case 1:
+				return 3;
+			case 2:
+				return 4;
+			case 3:
+				return 7;
+			case 4:
+				return 8;
+			case 5:
+				return 11;
+			case 6:
+				return 12;
+			case 7:
+				return 13;
+			case 8:
+				return 14;
+			case 9:
+				return 15;
+			case 10:
+				if (distance > avg1)
+				{
+					return 0;
+				}
+				else if (distance > avg2)
+				{
+					return 5;
+				}
+				else if (distance > avg3)
+				{
+					return 9;
+				}
+				else
+				{
+					return 16;
+				}
+			case 11:
+				if (distance > avg1 && min10 > avg1)
+				{
+					return 1;
+				}
+				else if (distance > avg2 && (min10 > avg1 || min10 > avg2))
+				{
+					return 6;
+				}
+				else if (distance > avg3 && (min10 > avg1 || min10 > avg2 || min10 > avg3))
+				{
+					return 10;
+				}
+				else
+				{
+					return 17;
+				}
+			default:
+				// this can't happen unless an invalid priority is sent. just assume 0.
+				return 0;
+		}
+	}
+
+	/**
+	 * face_distance from common.glsl
+	 */
+	private int faceDistance(int[] v, int a, int b, int c)
+	{
+		int dvA = distance(v, a);
+		int dvB = distance(v, b);
+		int dvC = distance(v, c);
+		return (dvA + dvB + dvC) / 3;
+	}
+
+	private int distance(int[] v, int i)
+	{
+		int j = v[i + 2] * fixedYawCos - v[i] * fixedYawSin >> 16;
+		return v[i + 1] * fixedPitchSin + j * fixedPitchCos >> 16;
+	}
+
+	/**
+	 * face_visible from common.glsl
+	 */
+	private boolean faceVisible(int[] v, int a, int b, int c, int x, int y, int z)
+	{
+		final int dx = x - cameraX;
+		final int dy = y - cameraY;
+		final int dz = z - cameraZ;
+
+		float sAx = toScreenX(v[a] + dx, v[a + 1] + dy, v[a + 2] + dz);
+		float sAy = toScreenY(v[a] + dx, v[a + 1] + dy, v[a + 2] + dz);
+		float sBx = toScreenX(v[b] + dx, v[b + 1] + dy, v[b + 2] + dz);
+		float sBy = toScreenY(v[b] + dx, v[b + 1] + dy, v[b + 2] + dz);
+		float sCx = toScreenX(v[c] + dx, v[c + 1] + dy, v[c + 2] + dz);
+		float sCy = toScreenY(v[c] + dx, v[c + 1] + dy, v[c + 2] + dz);
+
+		return (sAx - sBx) * (sCy - sBy) - (sCx - sBx) * (sAy - sBy) > 0;
+	}
+
+	/**
+	 * x component of toScreen from to_screen.glsl
+	 */
+	private float toScreenX(int x, int y, int z)
+	{
+		float rotatedX = (z * yawSin) + (x * yawCos);
+		float rotatedZ = (z * yawCos) - (x * yawSin);
+		float var12 = (y * pitchSin) + (rotatedZ * pitchCos);
+		return rotatedX * zoom / var12 + centerX;
+	}
+
+	/**
+	 * y component of toScreen from to_screen.glsl
+	 */
+	private float toScreenY(int x, int y, int z)
+	{
+		float rotatedZ = (z * yawCos) - (x * yawSin);
+		float var13 = (y * pitchCos) - (rotatedZ * pitchSin);
+		float var12 = (y * pitchSin) + (rotatedZ * pitchCos);
+		return var13 * zoom / var12 + centerY;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+/**
+ * Tracks which parts of a frame changed since the previous frame, by comparing fixed size tiles against a copy of
+ * the previous frame. Changed tiles are merged into rectangles along each row of tiles.
+ */
+class DirtyRegionTracker
+{
+	static final int TILE_SIZE = 64;
+
+	private int[] previous = new int[0];
+	private int width;
+	private int height;
+	private boolean invalidated = true;
+
+	/**
+	 * x, y, width and height of each dirty rectangle
+	 */
+	private int[] rects = new int[4 * 16];
+	private int rectCount;
+
+	/**
+	 * Mark the whole next frame as dirty.
+	 */
+	void invalidate()
+	{
+		invalidated = true;
+	}
+
+	/**
+	 * Compare the frame with the previous frame and collect the rectangles which changed.
+	 *
+	 * @return the number of dirty rectangles
+	 */
+	int update(int[] pixels, int width, int height)
+	{
+		rectCount = 0;
+
+		if (invalidated || width != this.width || height != this.height)
+		{
+			invalidated = false;
+			this.width = width;
+			this.height = height;
+
+			if (previous.length < width * height)
+			{
+				previous = new int[width * height];
+			}
+			System.arraycopy(pixels, 0, previous, 0, width * height);
+
+			if (width > 0 && height > 0)
+			{
+				addRect(0, 0, width, height);
+			}
+			return rectCount;
+		}
+
+		for (int tileY = 0; tileY < height; tileY += TILE_SIZE)
+		{
+			final int tileHeight = Math.min(TILE_SIZE, height - tileY);
+			int runStart = -1;
+			for (int tileX = 0; tileX < width; tileX += TILE_SIZE)
+			{
+				final int tileWidth = Math.min(TILE_SIZE, width - tileX);
+				if (updateTile(pixels, tileX, tileY, tileWidth, tileHeight))
+				{
+					if (runStart < 0)
+					{
+						runStart = tileX;
+					}
+				}
+				else if (runStart >= 0)
+				{
+					addRect(runStart, tileY, tileX - runStart, tileHeight);
+					runStart = -1;
+				}
+			}
+
+			if (runStart >= 0)
+			{
+				addRect(runStart, tileY, width - runStart, tileHeight);
+			}
+		}
+
+		return rectCount;
+	}
+
+	int getX(int rect)
+	{
+		return rects[rect * 4];
+	}
+
+	int getY(int rect)
+	{
+		return rects[rect * 4 + 1];
+	}
+
+	int getWidth(int rect)
+	{
+		return rects[rect * 4 + 2];
+	}
+
+	int getHeight(int rect)
+	{
+		return rects[rect * 4 + 3];
+	}
+
+	/**
+	 * @return true if the tile differs from the previous frame, in which case the previous frame is updated
+	 */
+	private boolean updateTile(int[] pixels, int x, int y, int w, int h)
+	{
+		for (int row = 0; row < h; row++)
+		{
+			final int start = (y + row) * width + x;
+			for (int i = start, end = start + w; i < end; i++)
+			{
+				if (pixels[i] != previous[i])
+				{
+					for (int r = row; r < h; r++)
+					{
+						final int rowStart = (y + r) * width + x;
+						System.arraycopy(pixels, rowStart, previous, rowStart, w);
+					}
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void addRect(int x, int y, int w, int h)
+	{
+		if (rectCount * 4 == rects.length)
+		{
+			int[] newRects = new int[rects.length * 2];
+			System.arraycopy(rects, 0, newRects, 0, rects.length);
+			rects = newRects;
+		}
+
+		final int i = rectCount++ * 4;
+		rects[i] = x;
+		rects[i + 1] = y;
+		rects[i + 2] = w;
+		rects[i + 3] = h;
+	}
+}
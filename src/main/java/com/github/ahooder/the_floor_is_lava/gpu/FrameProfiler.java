@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.inject.Singleton;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.lwjgl.opengl.GL43C;
+
+/**
+ * Per-frame timings of the stages of the GPU plugin, kept for the last {@link #HISTORY} frames so their percentiles
+ * can be shown. Stages may nest and may be entered several times per frame, in which case their times are summed.
+ * Recording a frame doesn't allocate.
+ * <p>
+ * GPU times are measured with timestamp queries rather than GL_TIME_ELAPSED, since elapsed time queries can't be
+ * nested. Results are read back {@link #QUERY_FRAMES} frames later to avoid stalling on the GPU.
+ */
+@Singleton
+public class FrameProfiler
+{
+	@RequiredArgsConstructor
+	public enum Stage
+	{
+		FRAME("Frame", false),
+		DRAW_SCENE("drawScene", false),
+		DRAW_SCENE_PAINT("drawScenePaint", false),
+		DRAW_LAVA("drawLava", false),
+		SCENE_UPLOAD("postDrawScene upload", true),
+		COMPUTE("Compute dispatch", true),
+		DRAW("draw", true),
+		UI_UPLOAD("UI upload", true);
+
+		@Getter
+		private final String name;
+
+		/**
+		 * whether the stage issues GL commands worth timing on the GPU
+		 */
+		@Getter
+		private final boolean gpu;
+	}
+
+	private static final Stage[] STAGES = Stage.values();
+	private static final int HISTORY = 256;
+	private static final int QUERY_FRAMES = 3;
+	private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+	@Getter
+	private boolean enabled;
+	@Getter
+	private boolean gpuTimers;
+
+	private boolean requestedEnabled;
+	private boolean requestedGpuTimers;
+
+	private final long[] starts = new long[STAGES.length];
+	private final long[] frameNanos = new long[STAGES.length];
+	private long lastFrameEnd;
+
+	private final long[][] cpuHistory = new long[STAGES.length][HISTORY];
+	private int cpuHistoryIndex;
+	private int cpuHistorySize;
+
+	private final long[][] gpuHistory = new long[STAGES.length][HISTORY];
+	private int gpuHistoryIndex;
+	private int gpuHistorySize;
+
+	/**
+	 * begin and end timestamp queries of each stage, for each frame in flight
+	 */
+	private int[] queries;
+	private final boolean[][] queriesIssued = new boolean[QUERY_FRAMES][STAGES.length];
+	private final boolean[] queryStarted = new boolean[STAGES.length];
+	private int queryFrame;
+
+	private final long[] sorted = new long[HISTORY];
+
+	/**
+	 * Request the profiler to be enabled or disabled. This takes effect at the end of the current frame, so a frame
+	 * is never partially recorded.
+	 */
+	void configure(boolean enabled, boolean gpuTimers)
+	{
+		requestedEnabled = enabled;
+		requestedGpuTimers = enabled && gpuTimers;
+	}
+
+	void begin(Stage stage)
+	{
+		if (!enabled)
+		{
+			return;
+		}
+
+		final int i = stage.ordinal();
+		starts[i] = System.nanoTime();
+
+		// Stages entered more than once per frame only have their first entry timed on the GPU
+		if (gpuTimers && stage.gpu && !queriesIssued[queryFrame][i])
+		{
+			GL43C.glQueryCounter(queries[queryIndex(queryFrame, i, 0)], GL43C.GL_TIMESTAMP);
+			queryStarted[i] = true;
+		}
+	}
+
+	void end(Stage stage)
+	{
+		if (!enabled)
+		{
+			return;
+		}
+
+		final int i = stage.ordinal();
+		frameNanos[i] += System.nanoTime() - starts[i];
+
+		if (queryStarted[i])
+		{
+			GL43C.glQueryCounter(queries[queryIndex(queryFrame, i, 1)], GL43C.GL_TIMESTAMP);
+			queriesIssued[queryFrame][i] = true;
+			queryStarted[i] = false;
+		}
+	}
+
+	/**
+	 * Record the stage times of the frame which just finished. Must be called with the GL context current.
+	 */
+	void endFrame()
+	{
+		if (enabled)
+		{
+			final long now = System.nanoTime();
+			frameNanos[Stage.FRAME.ordinal()] = lastFrameEnd == 0 ? 0 : now - lastFrameEnd;
+			lastFrameEnd = now;
+
+			for (int i = 0; i < STAGES.length; i++)
+			{
+				cpuHistory[i][cpuHistoryIndex] = frameNanos[i];
+			}
+			Arrays.fill(frameNanos, 0);
+			cpuHistoryIndex = (cpuHistoryIndex + 1) % HISTORY;
+			cpuHistorySize = Math.min(cpuHistorySize + 1, HISTORY);
+
+			if (gpuTimers)
+			{
+				queryFrame = (queryFrame + 1) % QUERY_FRAMES;
+				readQueries(queryFrame);
+			}
+		}
+
+		if (requestedEnabled != enabled || requestedGpuTimers != gpuTimers)
+		{
+			applyConfiguration();
+		}
+	}
+
+	/**
+	 * Read the queries issued {@link #QUERY_FRAMES} - 1 frames ago, which are about to be reused.
+	 */
+	private void readQueries(int frame)
+	{
+		boolean any = false;
+		for (int i = 0; i < STAGES.length; i++)
+		{
+			long nanos = 0;
+			if (queriesIssued[frame][i])
+			{
+				long start = GL43C.glGetQueryObjecti64(queries[queryIndex(frame, i, 0)], GL43C.GL_QUERY_RESULT);
+				long end = GL43C.glGetQueryObjecti64(queries[queryIndex(frame, i, 1)], GL43C.GL_QUERY_RESULT);
+				nanos = end - start;
+				queriesIssued[frame][i] = false;
+				any = true;
+			}
+			gpuHistory[i][gpuHistoryIndex] = nanos;
+		}
+
+		if (any)
+		{
+			gpuHistoryIndex = (gpuHistoryIndex + 1) % HISTORY;
+			gpuHistorySize = Math.min(gpuHistorySize + 1, HISTORY);
+		}
+	}
+
+	private void applyConfiguration()
+	{
+		if (requestedGpuTimers && queries == null)
+		{
+			queries = new int[QUERY_FRAMES * STAGES.length * 2];
+			GL43C.glGenQueries(queries);
+		}
+		else if (!requestedGpuTimers)
+		{
+			deleteQueries();
+		}
+
+		if (!requestedEnabled)
+		{
+			reset();
+		}
+
+		enabled = requestedEnabled;
+		gpuTimers = requestedGpuTimers;
+	}
+
+	/**
+	 * Release the GL queries and forget all recorded frames. Must be called with the GL context current.
+	 */
+	void shutdown()
+	{
+		deleteQueries();
+		reset();
+		enabled = requestedEnabled = false;
+		gpuTimers = requestedGpuTimers = false;
+	}
+
+	private void deleteQueries()
+	{
+		if (queries != null)
+		{
+			GL43C.glDeleteQueries(queries);
+			queries = null;
+		}
+
+		for (boolean[] issued : queriesIssued)
+		{
+			Arrays.fill(issued, false);
+		}
+		Arrays.fill(queryStarted, false);
+		queryFrame = 0;
+		gpuHistoryIndex = gpuHistorySize = 0;
+	}
+
+	private void reset()
+	{
+		Arrays.fill(frameNanos, 0);
+		lastFrameEnd = 0;
+		cpuHistoryIndex = cpuHistorySize = 0;
+		gpuHistoryIndex = gpuHistorySize = 0;
+	}
+
+	private static int queryIndex(int frame, int stage, int end)
+	{
+		return (frame * STAGES.length + stage) * 2 + end;
+	}
+
+	/**
+	 * @param gpu        whether to use the GPU times rather than the CPU times of the stage
+	 * @param percentile between 0 and 1
+	 * @return the time in nanoseconds the stage took at the given percentile of the recorded frames
+	 */
+	public long getPercentile(Stage stage, boolean gpu, double percentile)
+	{
+		final int size = gpu ? gpuHistorySize : cpuHistorySize;
+		if (size == 0)
+		{
+			return 0;
+		}
+
+		System.arraycopy(gpu ? gpuHistory[stage.ordinal()] : cpuHistory[stage.ordinal()], 0, sorted, 0, size);
+		Arrays.sort(sorted, 0, size);
+		return sorted[(int) Math.round((size - 1) * percentile)];
+	}
+
+	public int getFrameCount()
+	{
+		return cpuHistorySize;
+	}
+
+	/**
+	 * Write the percentiles of all stages as JSON.
+	 */
+	void dump(File file) throws IOException
+	{
+		JsonObject stages = new JsonObject();
+		for (Stage stage : STAGES)
+		{
+			JsonObject times = new JsonObject();
+			times.add("cpu", percentiles(stage, false));
+			if (gpuTimers && stage.gpu)
+			{
+				times.add("gpu", percentiles(stage, true));
+			}
+			stages.add(stage.name, times);
+		}
+
+		JsonObject json = new JsonObject();
+		json.addProperty("frames", cpuHistorySize);
+		json.addProperty("gpuTimers", gpuTimers);
+		json.add("stages", stages);
+
+		try (Writer writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))
+		{
+			GSON.toJson(json, writer);
+		}
+	}
+
+	private JsonObject percentiles(Stage stage, boolean gpu)
+	{
+		JsonObject json = new JsonObject();
+		json.addProperty("p50Ms", getPercentile(stage, gpu, .5) / 1e6);
+		json.addProperty("p99Ms", getPercentile(stage, gpu, .99) / 1e6);
+		json.addProperty("maxMs", getPercentile(stage, gpu, 1) / 1e6);
+		return json;
+	}
+}
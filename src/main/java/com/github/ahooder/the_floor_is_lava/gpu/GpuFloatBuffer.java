@@ -30,7 +30,35 @@ import java.nio.FloatBuffer;
 
 class GpuFloatBuffer
 {
-	private FloatBuffer buffer = allocateDirect(65536);
+	private FloatBuffer buffer;
+
+	/**
+	 * persistently mapped memory being written to for the current frame, if any
+	 */
+	private FloatBuffer mapped;
+	private FloatBuffer unmapped;
+
+	GpuFloatBuffer()
+	{
+		this(allocateDirect(65536));
+	}
+
+	private GpuFloatBuffer(FloatBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return a buffer sharing this buffer's memory, which writes independently of this buffer starting at the
+	 * given position. It can not grow, so the memory it writes to must already be reserved.
+	 */
+	GpuFloatBuffer view(int position)
+	{
+		GpuFloatBuffer view = new GpuFloatBuffer(buffer.duplicate());
+		view.buffer.limit(view.buffer.capacity());
+		view.buffer.position(position);
+		return view;
+	}
 
 	void put(float texture, float u, float v, float pad)
 	{
@@ -71,6 +99,46 @@ class GpuFloatBuffer
 		return buffer;
 	}
 
+	/**
+	 * Write directly into the given mapped memory until {@link #unmap} is called.
+	 */
+	void map(FloatBuffer target)
+	{
+		if (mapped == null)
+		{
+			unmapped = buffer;
+		}
+		mapped = target;
+		buffer = target;
+		buffer.clear();
+	}
+
+	/**
+	 * @return true if everything written since {@link #map} is still in the mapped memory, false if it had to be
+	 * moved to a larger buffer
+	 */
+	boolean isMapped()
+	{
+		return mapped != null && buffer == mapped;
+	}
+
+	void unmap()
+	{
+		if (mapped == null)
+		{
+			return;
+		}
+
+		// Keep the larger buffer if the mapped memory overflowed
+		if (buffer == mapped)
+		{
+			buffer = unmapped;
+		}
+		buffer.clear();
+		mapped = null;
+		unmapped = null;
+	}
+
 	static FloatBuffer allocateDirect(int size)
 	{
 		return ByteBuffer.allocateDirect(size * Float.BYTES)
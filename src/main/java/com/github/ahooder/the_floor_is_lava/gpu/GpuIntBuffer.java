@@ -30,7 +30,35 @@ import java.nio.IntBuffer;
 
 class GpuIntBuffer
 {
-	private IntBuffer buffer = allocateDirect(65536);
+	private IntBuffer buffer;
+
+	/**
+	 * persistently mapped memory being written to for the current frame, if any
+	 */
+	private IntBuffer mapped;
+	private IntBuffer unmapped;
+
+	GpuIntBuffer()
+	{
+		this(allocateDirect(65536));
+	}
+
+	private GpuIntBuffer(IntBuffer buffer)
+	{
+		this.buffer = buffer;
+	}
+
+	/**
+	 * @return a buffer sharing this buffer's memory, which writes independently of this buffer starting at the
+	 * given position. It can not grow, so the memory it writes to must already be reserved.
+	 */
+	GpuIntBuffer view(int position)
+	{
+		GpuIntBuffer view = new GpuIntBuffer(buffer.duplicate());
+		view.buffer.limit(view.buffer.capacity());
+		view.buffer.position(position);
+		return view;
+	}
 
 	void put(int x, int y, int z)
 	{
@@ -76,6 +104,46 @@ class GpuIntBuffer
 		return buffer;
 	}
 
+	/**
+	 * Write directly into the given mapped memory until {@link #unmap} is called.
+	 */
+	void map(IntBuffer target)
+	{
+		if (mapped == null)
+		{
+			unmapped = buffer;
+		}
+		mapped = target;
+		buffer = target;
+		buffer.clear();
+	}
+
+	/**
+	 * @return true if everything written since {@link #map} is still in the mapped memory, false if it had to be
+	 * moved to a larger buffer
+	 */
+	boolean isMapped()
+	{
+		return mapped != null && buffer == mapped;
+	}
+
+	void unmap()
+	{
+		if (mapped == null)
+		{
+			return;
+		}
+
+		// Keep the larger buffer if the mapped memory overflowed
+		if (buffer == mapped)
+		{
+			buffer = unmapped;
+		}
+		buffer.clear();
+		mapped = null;
+		unmapped = null;
+	}
+
 	static IntBuffer allocateDirect(int size)
 	{
 		return ByteBuffer.allocateDirect(size * Integer.BYTES)
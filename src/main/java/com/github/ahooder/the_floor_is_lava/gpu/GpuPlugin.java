@@ -26,7 +26,6 @@ package com.github.ahooder.the_floor_is_lava.gpu;
 
 import com.github.ahooder.the_floor_is_lava.Config;
 import com.github.ahooder.the_floor_is_lava.LavaPlugin;
-import com.github.ahooder.the_floor_is_lava.LavaPlugin.MarkedTile;
 import com.github.ahooder.the_floor_is_lava.gpu.config.AntiAliasingMode;
 import com.github.ahooder.the_floor_is_lava.gpu.config.UIScalingMode;
 import com.github.ahooder.the_floor_is_lava.gpu.template.Template;
@@ -38,15 +37,22 @@ import java.awt.Image;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.BufferProvider;
+import net.runelite.api.ChatMessageType;
 import net.runelite.api.Client;
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
 import static net.runelite.api.Constants.TILE_FLAG_BRIDGE;
 import net.runelite.api.DynamicObject;
 import net.runelite.api.GameState;
@@ -59,8 +65,10 @@ import net.runelite.api.SceneTileModel;
 import net.runelite.api.SceneTilePaint;
 import net.runelite.api.Texture;
 import net.runelite.api.TextureProvider;
+import net.runelite.api.events.CommandExecuted;
 import net.runelite.api.events.GameStateChanged;
 import net.runelite.api.hooks.DrawCallbacks;
+import net.runelite.client.RuneLite;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.events.ConfigChanged;
@@ -85,9 +93,29 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	static final int MAX_TRIANGLE = 4096;
 	static final int SMALL_TRIANGLE_COUNT = 512;
 	private static final int FLAG_SCENE_BUFFER = Integer.MIN_VALUE;
+	// Number of lava slots reserved in the scene buffer on top of the lava tiles loaded at upload time
+	private static final int LAVA_SLOT_HEADROOM = 512;
+	// Texture metadata bits of lava vertices animated by the vertex shader, see vert.glsl
+	private static final int LAVA_TEXTURE_SCROLL = 1;
+	private static final int LAVA_ANIMATED = 2;
+	private static final int LAVA_FADE = 4;
+	private static final int LAVA_SETTLE_CYCLE_SHIFT = 3;
+	private static final int LAVA_SETTLE_CYCLE_MASK = 0xfffff;
+	private static final int GAME_CYCLE_MILLIS = 20;
+	// Lava look and animation, shared with the lava compute kernels through LavaTileBuffer.defines()
+	static final int LAVA_TEXTURE_ID = 31;
+	static final int LAVA_TEXTURE_COLOR = 127; // Max brightness textured tile
+	static final int LAVA_DEPTH = 64;
+	static final int LAVA_FALLING_SPEED = 128;
+	static final int LAVA_TOP_COLOR = JagexColor.packHSL(0, 7, 0);
+	static final int LAVA_BOTTOM_COLOR = JagexColor.packHSL(0, 7, 15);
+	// Triple buffering, so the CPU can write a frame while the GPU is still working on the previous two
+	private static final int PERSISTENT_BUFFER_REGIONS = 3;
 	private static final int DEFAULT_DISTANCE = 25;
 	public static final int MAX_DISTANCE = 90;
 	public static final int MAX_FOG_DEPTH = 100;
+	private static final String PROFILE_DUMP_COMMAND = "lavaprofile";
+	private static final File PROGRAM_BINARY_CACHE_DIR = new File(RuneLite.CACHE_DIR, "the-floor-is-lava-programs");
 
 	@Inject
 	private Client client;
@@ -113,6 +141,12 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	@Inject
 	private LavaPlugin lavaPlugin;
 
+	@Inject
+	private FrameProfiler frameProfiler;
+
+	@Inject
+	private CpuPriorityRenderer cpuPriorityRenderer;
+
 	enum ComputeMode
 	{
 		NONE,
@@ -122,6 +156,27 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 
 	private ComputeMode computeMode = ComputeMode.NONE;
 
+	/**
+	 * whether models are recorded and sorted by the {@link CpuPriorityRenderer} this frame, instead of having the
+	 * client sort their faces
+	 */
+	private boolean sortFacesOnCpu;
+
+	/**
+	 * whether lava tiles are generated by the lava compute program this frame, instead of on the CPU
+	 */
+	private boolean generateLavaOnGpu;
+
+	/**
+	 * whether settled lava tiles are merged into regions by the {@link LavaMesher} this frame
+	 */
+	private boolean mergeLavaTiles;
+
+	/**
+	 * incremented for every scene draw, to draw each merged lava region only once
+	 */
+	private int lavaFrame;
+
 	private Canvas canvas;
 	private AWTContext awtContext;
 	private Callback debugCallback;
@@ -146,6 +201,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	static final Shader UNORDERED_COMPUTE_PROGRAM = new Shader()
 		.add(GL43C.GL_COMPUTE_SHADER, "comp_unordered.glsl");
 
+	static final Shader LAVA_COMPUTE_PROGRAM = new Shader()
+		.add(GL43C.GL_COMPUTE_SHADER, "comp_lava.glsl");
+
 	static final Shader UI_PROGRAM = new Shader()
 		.add(GL43C.GL_VERTEX_SHADER, "vertui.glsl")
 		.add(GL43C.GL_FRAGMENT_SHADER, "fragui.glsl");
@@ -154,12 +212,17 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	private int glComputeProgram;
 	private int glSmallComputeProgram;
 	private int glUnorderedComputeProgram;
+	private int glLavaComputeProgram;
 	private int glUiProgram;
 
 	private int vaoHandle;
 
 	private int interfaceTexture;
 	private int interfacePbo;
+	private final DirtyRegionTracker interfaceDirtyRegions = new DirtyRegionTracker();
+
+	private int screenshotPbo = -1;
+	private int screenshotPboSize;
 
 	private int vaoUiHandle;
 	private int vboUiHandle;
@@ -179,6 +242,24 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	private final GLBuffer tmpModelBufferUnordered = new GLBuffer(); // scene model buffer, unordered
 	private final GLBuffer tmpOutBuffer = new GLBuffer(); // target vertex buffer for compute shaders
 	private final GLBuffer tmpOutUvBuffer = new GLBuffer(); // target uv buffer for compute shaders
+	private final GLBuffer tmpModelBufferLava = new GLBuffer(); // lava tile buffer
+	private final GLBuffer lavaHeightBuffer = new GLBuffer(); // scene tile heights for the lava compute program
+	private final GLBuffer lavaStartBuffer = new GLBuffer(); // lava tile start times for the lava compute program
+
+	// Persistently mapped alternatives to the temporary buffers, used instead of them when available
+	private final PersistentBuffer persistentVertexBuffer = new PersistentBuffer();
+	private final PersistentBuffer persistentUvBuffer = new PersistentBuffer();
+	private final PersistentBuffer persistentModelBufferLarge = new PersistentBuffer();
+	private final PersistentBuffer persistentModelBufferSmall = new PersistentBuffer();
+	private final PersistentBuffer persistentModelBufferUnordered = new PersistentBuffer();
+
+	/**
+	 * tracks which regions of the persistent buffers are still in use by the GPU, or null if persistent buffers
+	 * aren't being used
+	 */
+	private BufferRing bufferRing;
+	private boolean persistentBuffersMapped;
+	private int storageBufferAlignment;
 
 	private int textureArrayId;
 
@@ -190,6 +271,14 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	private GpuIntBuffer modelBufferUnordered;
 	private GpuIntBuffer modelBufferSmall;
 	private GpuIntBuffer modelBuffer;
+	private GpuIntBuffer modelBufferLava;
+
+	private final LavaGeometryCache lavaGeometryCache = new LavaGeometryCache();
+	private final List<LavaGeometryCache.Entry> pendingLavaSlots = new ArrayList<>();
+	private final IntBuffer lavaSlotVertexBuffer = GpuIntBuffer.allocateDirect(SceneUploader.LAVA_SLOT_VERTICES * 4);
+	private final FloatBuffer lavaSlotUvBuffer = GpuFloatBuffer.allocateDirect(SceneUploader.LAVA_SLOT_VERTICES * 4);
+	private final LavaTileBuffer lavaTileBuffer = new LavaTileBuffer();
+	private final LavaMesher lavaMesher = new LavaMesher();
 
 	private int unorderedModels;
 
@@ -203,6 +292,11 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	 */
 	private int largeModels;
 
+	/**
+	 * number of lava tiles in lava buffer
+	 */
+	private int lavaModels;
+
 	/**
 	 * offset in the target buffer for model
 	 */
@@ -254,6 +348,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	private int uniBlockSmall;
 	private int uniBlockLarge;
 	private int uniBlockMain;
+	private int uniBlockLava;
+	private int uniLavaTileCount;
+	private int uniLavaTime;
 	private int uniSmoothBanding;
 	private int uniTextureLightMode;
 	private int uniTick;
@@ -264,7 +361,7 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	{
 		fboSceneHandle = rboSceneHandle = -1; // AA FBO
 		targetBufferOffset = 0;
-		unorderedModels = smallModels = largeModels = 0;
+		unorderedModels = smallModels = largeModels = lavaModels = 0;
 		drawingModel = false;
 
 		AWTContext.loadNatives();
@@ -338,6 +435,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		modelBufferUnordered = new GpuIntBuffer();
 		modelBufferSmall = new GpuIntBuffer();
 		modelBuffer = new GpuIntBuffer();
+		modelBufferLava = new GpuIntBuffer();
+		lavaTileBuffer.invalidate();
 
 		setupSyncMode();
 
@@ -354,6 +453,11 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		initUniformBuffer();
 		initBuffers();
 
+		if (computeMode == ComputeMode.OPENGL && config.persistentBuffers())
+		{
+			initPersistentBuffers(caps);
+		}
+
 		client.setDrawCallbacks(this);
 		client.setGpu(true);
 
@@ -366,6 +470,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 
 		textureArrayId = -1;
 
+		frameProfiler.configure(config.frameProfiler(), config.gpuTimers());
+
 		if (client.getGameState() == GameState.LOGGED_IN)
 		{
 			uploadScene();
@@ -384,6 +490,7 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		if (lwjglInitted)
 		{
 			openCLManager.cleanup();
+			frameProfiler.shutdown();
 
 			if (textureArrayId != -1)
 			{
@@ -393,6 +500,7 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 
 			destroyGlBuffer(uniformBuffer);
 
+			shutdownPersistentBuffers();
 			shutdownBuffers();
 			shutdownInterfaceTexture();
 			shutdownProgram();
@@ -418,6 +526,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		modelBufferSmall = null;
 		modelBuffer = null;
 		modelBufferUnordered = null;
+		modelBufferLava = null;
+
+		sceneUploader.modelCache.clear();
 
 		lastAnisotropicFilteringLevel = -1;
 
@@ -437,6 +548,31 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 				log.debug("Rebuilding sync mode");
 				clientThread.invokeLater(this::setupSyncMode);
 			}
+			else if (configChanged.getKey().equals("frameProfiler")
+				|| configChanged.getKey().equals("gpuTimers"))
+			{
+				clientThread.invokeLater(() -> frameProfiler.configure(config.frameProfiler(), config.gpuTimers()));
+			}
+		}
+	}
+
+	@Subscribe
+	public void onCommandExecuted(CommandExecuted commandExecuted)
+	{
+		if (!commandExecuted.getCommand().equalsIgnoreCase(PROFILE_DUMP_COMMAND) || !frameProfiler.isEnabled())
+		{
+			return;
+		}
+
+		File file = new File(RuneLite.LOGS_DIR, "the-floor-is-lava-profile-" + System.currentTimeMillis() + ".json");
+		try
+		{
+			frameProfiler.dump(file);
+			client.addChatMessage(ChatMessageType.GAMEMESSAGE, "", "Frame profile written to " + file, null);
+		}
+		catch (IOException ex)
+		{
+			log.warn("Unable to write frame profile to {}", file, ex);
 		}
 	}
 
@@ -474,38 +610,37 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		checkGLErrors();
 	}
 
-	private Template createTemplate(int threadCount, int facesPerThread)
+	static Template createTemplate(int threadCount, int facesPerThread)
 	{
 		String versionHeader = OSType.getOSType() == OSType.Linux ? LINUX_VERSION_HEADER : WINDOWS_VERSION_HEADER;
 		Template template = new Template();
-		template.add(key ->
-		{
-			if ("version_header".equals(key))
-			{
-				return versionHeader;
-			}
-			if ("thread_config".equals(key))
-			{
-				return "#define THREAD_COUNT " + threadCount + "\n" +
-					"#define FACES_PER_THREAD " + facesPerThread + "\n";
-			}
-			return null;
-		});
+		template.define("version_header", versionHeader);
+		template.define("thread_config",
+			"#define THREAD_COUNT " + threadCount + "\n" +
+				"#define FACES_PER_THREAD " + facesPerThread + "\n");
+		template.define("lava_config", LavaTileBuffer.defines());
 		template.addInclude(GpuPlugin.class);
 		return template;
 	}
 
 	private void initProgram() throws ShaderException
 	{
+		ProgramBinaryCache binaryCache = null;
+		if (ProgramBinaryCache.isSupported(GL.getCapabilities()))
+		{
+			binaryCache = new ProgramBinaryCache(PROGRAM_BINARY_CACHE_DIR);
+		}
+
 		Template template = createTemplate(-1, -1);
-		glProgram = PROGRAM.compile(template);
-		glUiProgram = UI_PROGRAM.compile(template);
+		glProgram = PROGRAM.compile(template, binaryCache);
+		glUiProgram = UI_PROGRAM.compile(template, binaryCache);
 
 		if (computeMode == ComputeMode.OPENGL)
 		{
-			glComputeProgram = COMPUTE_PROGRAM.compile(createTemplate(1024, 4));
-			glSmallComputeProgram = SMALL_COMPUTE_PROGRAM.compile(createTemplate(512, 1));
-			glUnorderedComputeProgram = UNORDERED_COMPUTE_PROGRAM.compile(template);
+			glComputeProgram = COMPUTE_PROGRAM.compile(createTemplate(1024, 4), binaryCache);
+			glSmallComputeProgram = SMALL_COMPUTE_PROGRAM.compile(createTemplate(512, 1), binaryCache);
+			glUnorderedComputeProgram = UNORDERED_COMPUTE_PROGRAM.compile(template, binaryCache);
+			glLavaComputeProgram = LAVA_COMPUTE_PROGRAM.compile(template, binaryCache);
 		}
 		else if (computeMode == ComputeMode.OPENCL)
 		{
@@ -542,6 +677,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			uniBlockSmall = GL43C.glGetUniformBlockIndex(glSmallComputeProgram, "uniforms");
 			uniBlockLarge = GL43C.glGetUniformBlockIndex(glComputeProgram, "uniforms");
 			uniBlockMain = GL43C.glGetUniformBlockIndex(glProgram, "uniforms");
+			uniBlockLava = GL43C.glGetUniformBlockIndex(glLavaComputeProgram, "uniforms");
+			uniLavaTileCount = GL43C.glGetUniformLocation(glLavaComputeProgram, "lavaTileCount");
+			uniLavaTime = GL43C.glGetUniformLocation(glLavaComputeProgram, "lavaTime");
 		}
 	}
 
@@ -559,6 +697,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		GL43C.glDeleteProgram(glUnorderedComputeProgram);
 		glUnorderedComputeProgram = -1;
 
+		GL43C.glDeleteProgram(glLavaComputeProgram);
+		glLavaComputeProgram = -1;
+
 		GL43C.glDeleteProgram(glUiProgram);
 		glUiProgram = -1;
 	}
@@ -621,6 +762,130 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		initGlBuffer(tmpModelBufferUnordered);
 		initGlBuffer(tmpOutBuffer);
 		initGlBuffer(tmpOutUvBuffer);
+		initGlBuffer(tmpModelBufferLava);
+		initGlBuffer(lavaHeightBuffer);
+		initGlBuffer(lavaStartBuffer);
+	}
+
+	private void initPersistentBuffers(GLCapabilities caps)
+	{
+		if (!caps.OpenGL44 && !caps.GL_ARB_buffer_storage)
+		{
+			log.info("disabling persistent buffers because GL_ARB_buffer_storage is not available");
+			return;
+		}
+
+		storageBufferAlignment = GL43C.glGetInteger(GL43C.GL_SHADER_STORAGE_BUFFER_OFFSET_ALIGNMENT);
+		bufferRing = new BufferRing(new GLFenceSync(), PERSISTENT_BUFFER_REGIONS);
+
+		if (!allocatePersistentBuffer(persistentVertexBuffer, vertexBuffer.getBuffer().capacity())
+			|| !allocatePersistentBuffer(persistentUvBuffer, uvBuffer.getBuffer().capacity())
+			|| !allocatePersistentBuffer(persistentModelBufferLarge, modelBuffer.getBuffer().capacity())
+			|| !allocatePersistentBuffer(persistentModelBufferSmall, modelBufferSmall.getBuffer().capacity())
+			|| !allocatePersistentBuffer(persistentModelBufferUnordered, modelBufferUnordered.getBuffer().capacity()))
+		{
+			log.warn("disabling persistent buffers because they could not be mapped");
+			shutdownPersistentBuffers();
+		}
+	}
+
+	/**
+	 * @param capacity the number of ints or floats each region should hold
+	 */
+	private boolean allocatePersistentBuffer(PersistentBuffer persistentBuffer, int capacity)
+	{
+		return persistentBuffer.allocate(capacity * Integer.BYTES, PERSISTENT_BUFFER_REGIONS, storageBufferAlignment);
+	}
+
+	private void shutdownPersistentBuffers()
+	{
+		if (bufferRing == null)
+		{
+			return;
+		}
+
+		unmapPersistentBuffers();
+		bufferRing.reset();
+		bufferRing = null;
+
+		persistentVertexBuffer.destroy();
+		persistentUvBuffer.destroy();
+		persistentModelBufferLarge.destroy();
+		persistentModelBufferSmall.destroy();
+		persistentModelBufferUnordered.destroy();
+	}
+
+	/**
+	 * Point the temporary buffers at the next free region of the persistent buffers, so the scene is written
+	 * directly into GPU visible memory.
+	 */
+	private void mapPersistentBuffers()
+	{
+		if (bufferRing == null)
+		{
+			return;
+		}
+
+		int region = bufferRing.acquire();
+		vertexBuffer.map(persistentVertexBuffer.intRegion(region));
+		uvBuffer.map(persistentUvBuffer.floatRegion(region));
+		modelBuffer.map(persistentModelBufferLarge.intRegion(region));
+		modelBufferSmall.map(persistentModelBufferSmall.intRegion(region));
+		modelBufferUnordered.map(persistentModelBufferUnordered.intRegion(region));
+		persistentBuffersMapped = true;
+	}
+
+	/**
+	 * Fence off the region written this frame, and grow the persistent buffers which overflowed.
+	 */
+	private void unmapPersistentBuffers()
+	{
+		if (!persistentBuffersMapped)
+		{
+			return;
+		}
+
+		bufferRing.release();
+		persistentBuffersMapped = false;
+
+		boolean overflowed = !vertexBuffer.isMapped() || !uvBuffer.isMapped() || !modelBuffer.isMapped()
+			|| !modelBufferSmall.isMapped() || !modelBufferUnordered.isMapped();
+
+		vertexBuffer.unmap();
+		uvBuffer.unmap();
+		modelBuffer.unmap();
+		modelBufferSmall.unmap();
+		modelBufferUnordered.unmap();
+
+		if (!overflowed)
+		{
+			return;
+		}
+
+		// The buffers which overflowed have moved to larger heap buffers, so size the regions to match
+		log.debug("Growing persistent buffers");
+		bufferRing.reset();
+		if (!allocatePersistentBuffer(persistentVertexBuffer, vertexBuffer.getBuffer().capacity())
+			|| !allocatePersistentBuffer(persistentUvBuffer, uvBuffer.getBuffer().capacity())
+			|| !allocatePersistentBuffer(persistentModelBufferLarge, modelBuffer.getBuffer().capacity())
+			|| !allocatePersistentBuffer(persistentModelBufferSmall, modelBufferSmall.getBuffer().capacity())
+			|| !allocatePersistentBuffer(persistentModelBufferUnordered, modelBufferUnordered.getBuffer().capacity()))
+		{
+			log.warn("disabling persistent buffers because they could not be mapped");
+			shutdownPersistentBuffers();
+		}
+	}
+
+	private void bindStorageBuffer(int index, GLBuffer glBuffer, PersistentBuffer persistentBuffer)
+	{
+		if (persistentBuffer.inUse)
+		{
+			persistentBuffer.bindRange(GL43C.GL_SHADER_STORAGE_BUFFER, index, bufferRing.getCurrent());
+		}
+		else
+		{
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, index, glBuffer.glBufferId);
+		}
 	}
 
 	private void initGlBuffer(GLBuffer glBuffer)
@@ -640,6 +905,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		destroyGlBuffer(tmpModelBufferUnordered);
 		destroyGlBuffer(tmpOutBuffer);
 		destroyGlBuffer(tmpOutUvBuffer);
+		destroyGlBuffer(tmpModelBufferLava);
+		destroyGlBuffer(lavaHeightBuffer);
+		destroyGlBuffer(lavaStartBuffer);
 	}
 
 	private void destroyGlBuffer(GLBuffer glBuffer)
@@ -673,6 +941,13 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 
 	private void shutdownInterfaceTexture()
 	{
+		if (screenshotPbo != -1)
+		{
+			GL43C.glDeleteBuffers(screenshotPbo);
+			screenshotPbo = -1;
+			screenshotPboSize = 0;
+		}
+
 		GL43C.glDeleteBuffers(interfacePbo);
 		GL43C.glDeleteTextures(interfaceTexture);
 		interfaceTexture = -1;
@@ -732,6 +1007,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	@Override
 	public void drawScene(int cameraX, int cameraY, int cameraZ, int cameraPitch, int cameraYaw, int plane)
 	{
+		frameProfiler.begin(FrameProfiler.Stage.DRAW_SCENE);
+
 		yaw = client.getCameraYaw();
 		pitch = client.getCameraPitch();
 		viewportOffsetX = client.getViewportXOffset();
@@ -740,6 +1017,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		final Scene scene = client.getScene();
 		scene.setDrawDistance(getDrawDistance());
 
+		lavaPlugin.updateTileIndex();
+
 		// Only reset the target buffer offset right before drawing the scene. That way if there are frames
 		// after this that don't involve a scene draw, like during LOADING/HOPPING/CONNECTION_LOST, we can
 		// still redraw the previous frame's scene to emulate the client behavior of not painting over the
@@ -769,14 +1048,40 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		GL43C.glBindBufferBase(GL43C.GL_UNIFORM_BUFFER, 0, uniformBuffer.glBufferId);
 		uniformBuf.clear();
 
+		sortFacesOnCpu = computeMode == ComputeMode.NONE && config.cpuFaceSorting();
+		generateLavaOnGpu = computeMode != ComputeMode.NONE && config.gpuLavaGeneration();
+		mergeLavaTiles = !generateLavaOnGpu && config.mergeLavaTiles();
+		++lavaFrame;
+		if (sortFacesOnCpu)
+		{
+			cpuPriorityRenderer.setCamera(yaw, pitch, client.getCenterX(), client.getCenterY(), client.getScale(),
+				cameraX, cameraY, cameraZ);
+		}
+
+		mapPersistentBuffers();
+
+		frameProfiler.end(FrameProfiler.Stage.DRAW_SCENE);
+
 		checkGLErrors();
 	}
 
 	@Override
 	public void postDrawScene()
 	{
+		frameProfiler.begin(FrameProfiler.Stage.SCENE_UPLOAD);
+
 		if (computeMode == ComputeMode.NONE)
 		{
+			if (sortFacesOnCpu)
+			{
+				frameProfiler.end(FrameProfiler.Stage.SCENE_UPLOAD);
+				frameProfiler.begin(FrameProfiler.Stage.COMPUTE);
+				cpuPriorityRenderer.render(modelBufferSmall.getBuffer(), modelBuffer.getBuffer(),
+					vertexBuffer.getBuffer(), uvBuffer.getBuffer());
+				frameProfiler.end(FrameProfiler.Stage.COMPUTE);
+				frameProfiler.begin(FrameProfiler.Stage.SCENE_UPLOAD);
+			}
+
 			// Upload buffers
 			vertexBuffer.flip();
 			uvBuffer.flip();
@@ -787,6 +1092,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			updateBuffer(tmpVertexBuffer, GL43C.GL_ARRAY_BUFFER, vertexBuffer, GL43C.GL_DYNAMIC_DRAW, 0L);
 			updateBuffer(tmpUvBuffer, GL43C.GL_ARRAY_BUFFER, uvBuffer, GL43C.GL_DYNAMIC_DRAW, 0L);
 
+			frameProfiler.end(FrameProfiler.Stage.SCENE_UPLOAD);
+
 			checkGLErrors();
 			return;
 		}
@@ -797,21 +1104,38 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		modelBuffer.flip();
 		modelBufferSmall.flip();
 		modelBufferUnordered.flip();
+		modelBufferLava.flip();
 
 		IntBuffer vertexBuffer = this.vertexBuffer.getBuffer();
 		FloatBuffer uvBuffer = this.uvBuffer.getBuffer();
 		IntBuffer modelBuffer = this.modelBuffer.getBuffer();
 		IntBuffer modelBufferSmall = this.modelBufferSmall.getBuffer();
 		IntBuffer modelBufferUnordered = this.modelBufferUnordered.getBuffer();
+		IntBuffer modelBufferLava = this.modelBufferLava.getBuffer();
+
+		uploadLavaSlots();
+		int lavaTime = uploadLavaTiles(modelBufferLava);
+
+		// Buffers still in persistently mapped memory have already been written to the GPU
+		persistentVertexBuffer.inUse = this.vertexBuffer.isMapped();
+		persistentUvBuffer.inUse = this.uvBuffer.isMapped();
+		persistentModelBufferLarge.inUse = this.modelBuffer.isMapped();
+		persistentModelBufferSmall.inUse = this.modelBufferSmall.isMapped();
+		persistentModelBufferUnordered.inUse = this.modelBufferUnordered.isMapped();
 
 		// temp buffers
-		updateBuffer(tmpVertexBuffer, GL43C.GL_ARRAY_BUFFER, vertexBuffer, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
-		updateBuffer(tmpUvBuffer, GL43C.GL_ARRAY_BUFFER, uvBuffer, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
+		if (!persistentVertexBuffer.inUse)
+			updateBuffer(tmpVertexBuffer, GL43C.GL_ARRAY_BUFFER, vertexBuffer, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
+		if (!persistentUvBuffer.inUse)
+			updateBuffer(tmpUvBuffer, GL43C.GL_ARRAY_BUFFER, uvBuffer, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
 
 		// model buffers
-		updateBuffer(tmpModelBufferLarge, GL43C.GL_ARRAY_BUFFER, modelBuffer, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
-		updateBuffer(tmpModelBufferSmall, GL43C.GL_ARRAY_BUFFER, modelBufferSmall, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
-		updateBuffer(tmpModelBufferUnordered, GL43C.GL_ARRAY_BUFFER, modelBufferUnordered, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
+		if (!persistentModelBufferLarge.inUse)
+			updateBuffer(tmpModelBufferLarge, GL43C.GL_ARRAY_BUFFER, modelBuffer, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
+		if (!persistentModelBufferSmall.inUse)
+			updateBuffer(tmpModelBufferSmall, GL43C.GL_ARRAY_BUFFER, modelBufferSmall, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
+		if (!persistentModelBufferUnordered.inUse)
+			updateBuffer(tmpModelBufferUnordered, GL43C.GL_ARRAY_BUFFER, modelBufferUnordered, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
 
 		// Output buffers
 		updateBuffer(tmpOutBuffer,
@@ -825,6 +1149,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			GL43C.GL_STREAM_DRAW,
 			CL_MEM_WRITE_ONLY);
 
+		frameProfiler.end(FrameProfiler.Stage.SCENE_UPLOAD);
+		frameProfiler.begin(FrameProfiler.Stage.COMPUTE);
+
 		if (computeMode == ComputeMode.OPENCL)
 		{
 			// The docs for clEnqueueAcquireGLObjects say all pending GL operations must be completed before calling
@@ -833,13 +1160,16 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			// GL43C.glFinish();
 
 			openCLManager.compute(
-				unorderedModels, smallModels, largeModels,
+				unorderedModels, smallModels, largeModels, lavaModels,
 				sceneVertexBuffer, sceneUvBuffer,
 				tmpVertexBuffer, tmpUvBuffer,
 				tmpModelBufferUnordered, tmpModelBufferSmall, tmpModelBufferLarge,
+				tmpModelBufferLava, lavaHeightBuffer, lavaStartBuffer, lavaTime,
 				tmpOutBuffer, tmpOutUvBuffer,
 				uniformBuffer);
 
+			frameProfiler.end(FrameProfiler.Stage.COMPUTE);
+
 			checkGLErrors();
 			return;
 		}
@@ -856,76 +1186,148 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		// unordered
 		GL43C.glUseProgram(glUnorderedComputeProgram);
 
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 0, tmpModelBufferUnordered.glBufferId);
+		bindStorageBuffer(0, tmpModelBufferUnordered, persistentModelBufferUnordered);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 1, sceneVertexBuffer.glBufferId);
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 2, tmpVertexBuffer.glBufferId);
+		bindStorageBuffer(2, tmpVertexBuffer, persistentVertexBuffer);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 3, tmpOutBuffer.glBufferId);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 4, tmpOutUvBuffer.glBufferId);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 5, sceneUvBuffer.glBufferId);
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 6, tmpUvBuffer.glBufferId);
+		bindStorageBuffer(6, tmpUvBuffer, persistentUvBuffer);
 
 		GL43C.glDispatchCompute(unorderedModels, 1, 1);
 
 		// small
 		GL43C.glUseProgram(glSmallComputeProgram);
 
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 0, tmpModelBufferSmall.glBufferId);
+		bindStorageBuffer(0, tmpModelBufferSmall, persistentModelBufferSmall);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 1, sceneVertexBuffer.glBufferId);
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 2, tmpVertexBuffer.glBufferId);
+		bindStorageBuffer(2, tmpVertexBuffer, persistentVertexBuffer);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 3, tmpOutBuffer.glBufferId);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 4, tmpOutUvBuffer.glBufferId);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 5, sceneUvBuffer.glBufferId);
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 6, tmpUvBuffer.glBufferId);
+		bindStorageBuffer(6, tmpUvBuffer, persistentUvBuffer);
 
 		GL43C.glDispatchCompute(smallModels, 1, 1);
 
 		// large
 		GL43C.glUseProgram(glComputeProgram);
 
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 0, tmpModelBufferLarge.glBufferId);
+		bindStorageBuffer(0, tmpModelBufferLarge, persistentModelBufferLarge);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 1, sceneVertexBuffer.glBufferId);
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 2, tmpVertexBuffer.glBufferId);
+		bindStorageBuffer(2, tmpVertexBuffer, persistentVertexBuffer);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 3, tmpOutBuffer.glBufferId);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 4, tmpOutUvBuffer.glBufferId);
 		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 5, sceneUvBuffer.glBufferId);
-		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 6, tmpUvBuffer.glBufferId);
+		bindStorageBuffer(6, tmpUvBuffer, persistentUvBuffer);
 
 		GL43C.glDispatchCompute(largeModels, 1, 1);
 
+		// lava
+		if (lavaModels > 0)
+		{
+			GL43C.glUniformBlockBinding(glLavaComputeProgram, uniBlockLava, 0);
+			GL43C.glUseProgram(glLavaComputeProgram);
+			GL43C.glUniform1i(uniLavaTileCount, lavaModels);
+			GL43C.glUniform1i(uniLavaTime, lavaTime);
+
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 3, tmpOutBuffer.glBufferId);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 4, tmpOutUvBuffer.glBufferId);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 7, tmpModelBufferLava.glBufferId);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 8, lavaHeightBuffer.glBufferId);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 9, lavaStartBuffer.glBufferId);
+
+			GL43C.glDispatchCompute((lavaModels + LavaTileBuffer.WORK_GROUP_SIZE - 1) / LavaTileBuffer.WORK_GROUP_SIZE, 1, 1);
+		}
+
+		unmapPersistentBuffers();
+
+		frameProfiler.end(FrameProfiler.Stage.COMPUTE);
+
 		checkGLErrors();
 	}
 
-	private boolean drawLava(int plane, int tileX, int tileY) {
-		MarkedTile marked = lavaPlugin.getMarkedTile(plane, tileX, tileY);
-		if (marked == null)
+	private boolean drawLava(int plane, int tileX, int tileY)
+	{
+		frameProfiler.begin(FrameProfiler.Stage.DRAW_LAVA);
+		boolean drawn = drawLavaTile(plane, tileX, tileY);
+		frameProfiler.end(FrameProfiler.Stage.DRAW_LAVA);
+		return drawn;
+	}
+
+	private boolean drawLavaTile(int plane, int tileX, int tileY) {
+		if (generateLavaOnGpu)
+			return pushGpuLava(plane, tileX, tileY);
+
+		if (mergeLavaTiles) {
+			if (lavaMesher.isDirty())
+				lavaMesher.rebuild(this::isMergeableLava, client.getTileHeights());
+
+			LavaMesher.Region region = lavaMesher.get(plane, tileX, tileY);
+			if (region != null) {
+				if (region.drawnFrame != lavaFrame) {
+					region.drawnFrame = lavaFrame;
+					pushLavaRegion(region);
+				}
+				return true;
+			}
+		}
+
+		LavaGeometryCache.Entry cached = lavaGeometryCache.get(plane, tileX, tileY);
+		if (cached != null && cached.settleCycle != 0 && client.getGameCycle() - cached.settleCycle >= 0) {
+			// Regenerate animated geometry once it has come to rest, to get rid of the collapsed animation walls
+			lavaGeometryCache.put(plane, tileX, tileY, null);
+			cached = null;
+		}
+
+		if (cached != null) {
+			if (cached.uploaded) {
+				pushSceneLava(tileX, tileY, cached);
+				return true;
+			}
+
+			// Animated geometry is short-lived and larger than a slot, so it's only ever drawn from the temp buffers
+			if (cached.slot < 0 && cached.settleCycle == 0 && computeMode != ComputeMode.NONE
+				&& lavaGeometryCache.allocateSlot(cached))
+				pendingLavaSlots.add(cached);
+
+			vertexBuffer.ensureCapacity(cached.vertices.length);
+			uvBuffer.ensureCapacity(cached.uvs.length);
+			vertexBuffer.getBuffer().put(cached.vertices);
+			uvBuffer.getBuffer().put(cached.uvs);
+			pushLava(tileX, tileY, cached.faceCount, cached.lavaHeight, cached.radius);
+			return true;
+		}
+
+		long startMillis = lavaPlugin.getLavaStartMillis(plane, tileX, tileY);
+		if (startMillis == LavaPlugin.NO_LAVA)
 			return false;
 
-		long elapsedMillis = System.currentTimeMillis() - marked.millis;
+		long currentMillis = System.currentTimeMillis();
+		long elapsedMillis = currentMillis - startMillis;
 
 		byte[][][] tileSettings = client.getTileSettings();
 		boolean isBridge = plane == 1 && (tileSettings[1][tileX][tileY] & TILE_FLAG_BRIDGE) != 0;
 
 		final int[][][] tileHeights = client.getTileHeights();
 
-		final int localX = tileX * Perspective.LOCAL_TILE_SIZE;
-		final int localY = tileY * Perspective.LOCAL_TILE_SIZE;
+		int texColor = LAVA_TEXTURE_COLOR;
+		int textureId = LAVA_TEXTURE_ID;
+		float textureMetadata = Float.intBitsToFloat(LAVA_TEXTURE_SCROLL);
 
-		int texColor = 127; // Max brightness textured tile
-		int textureId = 31; // Lava texture
-		float textureMetadata = Float.intBitsToFloat(1);
-
-		int depth = 64;
+		int depth = LAVA_DEPTH;
 		int lavaHue = 0;
 		int lavaSaturation = 7;
-		int topColor = JagexColor.packHSL(lavaHue, lavaSaturation, 0);
-		int botColor = JagexColor.packHSL(lavaHue, lavaSaturation, 15);
-		int fallingSpeed = 128;
+		int topColor = LAVA_TOP_COLOR;
+		int botColor = LAVA_BOTTOM_COLOR;
+		int fallingSpeed = LAVA_FALLING_SPEED;
 
 		int faceCount = 2;
 
 		// 8 potential wall quads + 1 bottom quad = 18 triangles
 		vertexBuffer.ensureCapacity(18 * 3 * 16);
 		uvBuffer.ensureCapacity(18 * 3 * 16);
+		final int vertexStart = vertexBuffer.getBuffer().position();
+		final int uvStart = uvBuffer.getBuffer().position();
 
 		int swtop = tileHeights[plane][tileX][tileY];
 		int setop = tileHeights[plane][tileX + 1][tileY];
@@ -941,6 +1343,20 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		int minHeight = lavaHeight;
 		lavaHeight = (int) Math.max(maxHeight, Math.min(minHeight, maxHeight + fallingSpeed * elapsedMillis / 1000.f));
 
+		boolean settled = lavaHeight == minHeight;
+
+		// Falling lava is emitted at rest, and lifted back up by the vertex shader until the game cycle at which it
+		// settles. The surface of a bridge doesn't fall, so bridges are still animated here.
+		boolean animated = !settled && !isBridge;
+		int settleCycle = 0;
+		if (animated) {
+			long settleMillis = startMillis + (minHeight - maxHeight) * 1000L / fallingSpeed;
+			settleCycle = client.getGameCycle() + (int) ((settleMillis - currentMillis) / GAME_CYCLE_MILLIS) + 1;
+			if (settleCycle == 0)
+				settleCycle = 1;
+			lavaHeight = minHeight;
+		}
+
 		int fade = Math.max(0, Math.min(15, (lavaHeight - maxHeight - minHeight) * 15 / (minHeight - maxHeight)));
 		int midColor = JagexColor.packHSL(lavaHue, lavaSaturation, fade);
 
@@ -978,6 +1394,12 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		vertexBuffer.put(nwx, nwbot, nwy, texColor);
 
 		float tex = textureId + 1f;
+		float animatedMetadata = 0;
+		if (animated) {
+			int metadata = LAVA_ANIMATED | (settleCycle & LAVA_SETTLE_CYCLE_MASK) << LAVA_SETTLE_CYCLE_SHIFT;
+			textureMetadata = Float.intBitsToFloat(LAVA_TEXTURE_SCROLL | metadata);
+			animatedMetadata = Float.intBitsToFloat(metadata);
+		}
 		uvBuffer.put(tex, 1.0f, 1.0f, textureMetadata);
 		uvBuffer.put(tex, 0.0f, 1.0f, textureMetadata);
 		uvBuffer.put(tex, 1.0f, 0.0f, textureMetadata);
@@ -986,10 +1408,13 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		uvBuffer.put(tex, 1.0f, 0.0f, textureMetadata);
 		uvBuffer.put(tex, 0.0f, 1.0f, textureMetadata);
 
-		// TODO: fix correct back to front ordering when compute shaders are disabled
+		// TODO: fix correct back to front ordering when compute shaders and CPU face sorting are disabled
 
-		if (lavaHeight == minHeight) {
-			lavaPlugin.recentlyMarkedTiles.removeFirstOccurrence(marked);
+		if (settled) {
+			if (startMillis != 0) {
+				lavaPlugin.settleTile(plane, tileX, tileY);
+				lavaMesher.invalidate();
+			}
 		} else {
 			// Draw walls beneath while animating
 
@@ -1036,8 +1461,13 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			faceCount += 2;
 		}
 
+		// Walls towards neighbours that are marked but haven't started animating yet will disappear without the
+		// tile itself being changed, so such tiles can't be cached
+		boolean pendingNeighbour = false;
+
 		// Add western wall
-		if (lavaPlugin.getMarkedTile(plane, tileX - 1, tileY) == null) {
+		if (lavaPlugin.getLavaStartMillis(plane, tileX - 1, tileY) == LavaPlugin.NO_LAVA) {
+			pendingNeighbour |= lavaPlugin.containsTile(plane, tileX - 1, tileY);
 			vertexBuffer.put(nwx, nwtop, nwy, topColor);
 			vertexBuffer.put(swx, swtop, swy, topColor);
 			vertexBuffer.put(swx, swbot, swy, botColor);
@@ -1049,7 +1479,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		}
 
 		// Add northern wall
-		if (lavaPlugin.getMarkedTile(plane, tileX, tileY + 1) == null) {
+		if (lavaPlugin.getLavaStartMillis(plane, tileX, tileY + 1) == LavaPlugin.NO_LAVA) {
+			pendingNeighbour |= lavaPlugin.containsTile(plane, tileX, tileY + 1);
 			vertexBuffer.put(nex, netop, ney, topColor);
 			vertexBuffer.put(nwx, nwtop, nwy, topColor);
 			vertexBuffer.put(nwx, nwbot, nwy, botColor);
@@ -1061,7 +1492,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		}
 
 		// Add eastern wall
-		if (lavaPlugin.getMarkedTile(plane, tileX + 1, tileY) == null) {
+		if (lavaPlugin.getLavaStartMillis(plane, tileX + 1, tileY) == LavaPlugin.NO_LAVA) {
+			pendingNeighbour |= lavaPlugin.containsTile(plane, tileX + 1, tileY);
 			vertexBuffer.put(sex, setop, sey, topColor);
 			vertexBuffer.put(nex, netop, ney, topColor);
 			vertexBuffer.put(nex, nebot, ney, botColor);
@@ -1073,7 +1505,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		}
 
 		// Add southern wall
-		if (lavaPlugin.getMarkedTile(plane, tileX, tileY - 1) == null) {
+		if (lavaPlugin.getLavaStartMillis(plane, tileX, tileY - 1) == LavaPlugin.NO_LAVA) {
+			pendingNeighbour |= lavaPlugin.containsTile(plane, tileX, tileY - 1);
 			vertexBuffer.put(swx, swtop, swy, topColor);
 			vertexBuffer.put(sex, setop, sey, topColor);
 			vertexBuffer.put(sex, sebot, sey, botColor);
@@ -1084,16 +1517,239 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			faceCount += 2;
 		}
 
+		if (animated) {
+			// The tops of the animation walls fall and fade with the surface, while their bottoms stay put
+			float fadingMetadata = Float.intBitsToFloat(Float.floatToRawIntBits(animatedMetadata) | LAVA_FADE);
+			for (int i = 0; i < 4 * 3; i++) {
+				uvBuffer.put(0, maxHeight, lavaHeight, fadingMetadata);
+				uvBuffer.put(0, 0, 0, 0);
+			}
+
+			// The bottoms of the walls towards neighbours fall with the surface
+			for (int i = 0; i < faceCount - 10; i += 2) {
+				uvBuffer.put(0, 0, 0, 0);
+				uvBuffer.put(0, 0, 0, 0);
+				uvBuffer.put(0, 0, 0, animatedMetadata);
+				uvBuffer.put(0, 0, 0, animatedMetadata);
+				uvBuffer.put(0, 0, 0, animatedMetadata);
+				uvBuffer.put(0, 0, 0, 0);
+			}
+		} else {
+			// Pad UVs for non-textured wall faces
+			for (int i = 0; i < (faceCount - 2) * 3; i++)
+				uvBuffer.put(0, 0, 0, 0);
+		}
+
+		int relMaxHeight = Math.min(Math.min(swtop, setop), Math.min(nwtop, netop));
+		int radius = (int) Math.sqrt(relMaxHeight * relMaxHeight + 32768);
+
+		if ((settled || animated) && !pendingNeighbour) {
+			int[] vertices = new int[faceCount * 3 * 4];
+			float[] uvs = new float[faceCount * 3 * 4];
+			IntBuffer vb = vertexBuffer.getBuffer();
+			FloatBuffer ub = uvBuffer.getBuffer();
+			for (int i = 0; i < vertices.length; i++) {
+				vertices[i] = vb.get(vertexStart + i);
+				uvs[i] = ub.get(uvStart + i);
+			}
+			LavaGeometryCache.Entry entry = new LavaGeometryCache.Entry(vertices, uvs, faceCount, lavaHeight, radius,
+				settleCycle);
+			lavaGeometryCache.put(plane, tileX, tileY, entry);
+			if (settled && computeMode != ComputeMode.NONE && lavaGeometryCache.allocateSlot(entry))
+				pendingLavaSlots.add(entry);
+		}
+
+		pushLava(tileX, tileY, faceCount, lavaHeight, radius);
+
+		return true;
+	}
+
+	/**
+	 * @return whether the lava tile can be merged into a region with its neighbours. Only tiles which are flat and
+	 * won't change anymore are merged.
+	 */
+	private boolean isMergeableLava(int plane, int tileX, int tileY) {
+		long startMillis = lavaPlugin.getLavaStartMillis(plane, tileX, tileY);
+		if (startMillis == LavaPlugin.NO_LAVA)
+			return false;
+
+		if (plane == 1 && (client.getTileSettings()[1][tileX][tileY] & TILE_FLAG_BRIDGE) != 0)
+			return false;
+
+		int[][] tileHeights = client.getTileHeights()[plane];
+		int height = tileHeights[tileX][tileY];
+		if (tileHeights[tileX + 1][tileY] != height || tileHeights[tileX][tileY + 1] != height
+			|| tileHeights[tileX + 1][tileY + 1] != height)
+			return false;
+
+		int fallDistance = (plane > 0 ? height + 32 : LAVA_DEPTH) - height;
+		if (fallDistance <= 0)
+			return false;
+
+		if (startMillis != 0 && (System.currentTimeMillis() - startMillis) * LAVA_FALLING_SPEED < fallDistance * 1000L)
+			return false;
+
+		// The walls towards tiles that are marked but haven't started animating yet will disappear
+		return !isPendingLava(plane, tileX - 1, tileY) && !isPendingLava(plane, tileX + 1, tileY)
+			&& !isPendingLava(plane, tileX, tileY - 1) && !isPendingLava(plane, tileX, tileY + 1);
+	}
+
+	private boolean isPendingLava(int plane, int tileX, int tileY) {
+		return lavaPlugin.containsTile(plane, tileX, tileY)
+			&& lavaPlugin.getLavaStartMillis(plane, tileX, tileY) == LavaPlugin.NO_LAVA;
+	}
+
+	/**
+	 * Queue a region of merged lava tiles for drawing, building its geometry the first time it's drawn.
+	 */
+	private void pushLavaRegion(LavaMesher.Region region) {
+		if (region.vertices == null) {
+			buildLavaRegion(region);
+		} else {
+			vertexBuffer.ensureCapacity(region.vertices.length);
+			uvBuffer.ensureCapacity(region.uvs.length);
+			vertexBuffer.getBuffer().put(region.vertices);
+			uvBuffer.getBuffer().put(region.uvs);
+		}
+
+		pushLava(region.x, region.y, region.faceCount, region.lavaHeight, region.radius);
+	}
+
+	/**
+	 * Write the geometry of a merged lava region to the temporary vertex and UV buffers, and keep a copy of it in
+	 * the region. The region is drawn as a single surface quad, with the lava texture repeating once per tile, and
+	 * a wall along each run of edge tiles bordering tiles without lava.
+	 */
+	private void buildLavaRegion(LavaMesher.Region region) {
+		final int plane = region.plane;
+		final int height = client.getTileHeights()[plane][region.x][region.y];
+		final int lavaHeight = plane > 0 ? height + 32 : LAVA_DEPTH;
+		final int top = height - lavaHeight;
+		final int width = region.width * Perspective.LOCAL_TILE_SIZE;
+		final int length = region.height * Perspective.LOCAL_TILE_SIZE;
+
+		// A surface quad, and at most one wall quad for every other tile along the perimeter
+		int maxFaces = 2 + 2 * (region.width + region.height + 2);
+		vertexBuffer.ensureCapacity(maxFaces * 3 * 4);
+		uvBuffer.ensureCapacity(maxFaces * 3 * 4);
+		final int vertexStart = vertexBuffer.getBuffer().position();
+		final int uvStart = uvBuffer.getBuffer().position();
+
+		vertexBuffer.put(width, 0, length, LAVA_TEXTURE_COLOR);
+		vertexBuffer.put(0, 0, length, LAVA_TEXTURE_COLOR);
+		vertexBuffer.put(width, 0, 0, LAVA_TEXTURE_COLOR);
+
+		vertexBuffer.put(0, 0, 0, LAVA_TEXTURE_COLOR);
+		vertexBuffer.put(width, 0, 0, LAVA_TEXTURE_COLOR);
+		vertexBuffer.put(0, 0, length, LAVA_TEXTURE_COLOR);
+
+		// The fragment shader wraps the lava texture horizontally, since the texture array clamps it
+		float tex = LAVA_TEXTURE_ID + 1f;
+		float textureMetadata = Float.intBitsToFloat(LAVA_TEXTURE_SCROLL);
+		uvBuffer.put(tex, region.width, region.height, textureMetadata);
+		uvBuffer.put(tex, 0, region.height, textureMetadata);
+		uvBuffer.put(tex, region.width, 0, textureMetadata);
+
+		uvBuffer.put(tex, 0, 0, textureMetadata);
+		uvBuffer.put(tex, region.width, 0, textureMetadata);
+		uvBuffer.put(tex, 0, region.height, textureMetadata);
+
+		int faceCount = 2;
+
+		// Walk each edge, merging the walls of consecutive tiles that border tiles without lava
+		for (int side = 0; side < 4; side++) {
+			boolean vertical = side == 0 || side == 2;
+			int edgeLength = vertical ? region.height : region.width;
+			int runStart = -1;
+			for (int i = 0; i <= edgeLength; i++) {
+				boolean wall = false;
+				if (i < edgeLength) {
+					int neighbourX, neighbourY;
+					switch (side) {
+						case 0: // west
+							neighbourX = region.x - 1;
+							neighbourY = region.y + i;
+							break;
+						case 1: // north
+							neighbourX = region.x + i;
+							neighbourY = region.y + region.height;
+							break;
+						case 2: // east
+							neighbourX = region.x + region.width;
+							neighbourY = region.y + i;
+							break;
+						default: // south
+							neighbourX = region.x + i;
+							neighbourY = region.y - 1;
+							break;
+					}
+					wall = lavaPlugin.getLavaStartMillis(plane, neighbourX, neighbourY) == LavaPlugin.NO_LAVA;
+				}
+
+				if (wall && runStart < 0) {
+					runStart = i;
+				} else if (!wall && runStart >= 0) {
+					int a = runStart * Perspective.LOCAL_TILE_SIZE;
+					int b = i * Perspective.LOCAL_TILE_SIZE;
+					switch (side) {
+						case 0:
+							putLavaWall(0, b, 0, a, top);
+							break;
+						case 1:
+							putLavaWall(b, length, a, length, top);
+							break;
+						case 2:
+							putLavaWall(width, a, width, b, top);
+							break;
+						default:
+							putLavaWall(a, 0, b, 0, top);
+							break;
+					}
+					faceCount += 2;
+					runStart = -1;
+				}
+			}
+		}
+
 		// Pad UVs for non-textured wall faces
 		for (int i = 0; i < (faceCount - 2) * 3; i++)
 			uvBuffer.put(0, 0, 0, 0);
 
-		if (computeMode != ComputeMode.NONE) {
-			GpuIntBuffer b = modelBufferSmall;
-			++smallModels;
+		int[] vertices = new int[faceCount * 3 * 4];
+		float[] uvs = new float[faceCount * 3 * 4];
+		IntBuffer vb = vertexBuffer.getBuffer();
+		FloatBuffer ub = uvBuffer.getBuffer();
+		for (int i = 0; i < vertices.length; i++) {
+			vertices[i] = vb.get(vertexStart + i);
+			uvs[i] = ub.get(uvStart + i);
+		}
 
-			int relMaxHeight = Math.min(Math.min(swtop, setop), Math.min(nwtop, netop));
-			int radius = (int) Math.sqrt(relMaxHeight * relMaxHeight + 32768);
+		region.vertices = vertices;
+		region.uvs = uvs;
+		region.faceCount = faceCount;
+		region.lavaHeight = lavaHeight;
+		region.radius = (int) Math.sqrt((double) top * top + (double) width * width + (double) length * length);
+	}
+
+	/**
+	 * Write a lava wall quad from the surface up to the given height, between two points on the edge of a region.
+	 */
+	private void putLavaWall(int x1, int z1, int x0, int z0, int top) {
+		vertexBuffer.put(x1, top, z1, LAVA_TOP_COLOR);
+		vertexBuffer.put(x0, top, z0, LAVA_TOP_COLOR);
+		vertexBuffer.put(x0, 0, z0, LAVA_BOTTOM_COLOR);
+
+		vertexBuffer.put(x0, 0, z0, LAVA_BOTTOM_COLOR);
+		vertexBuffer.put(x1, 0, z1, LAVA_BOTTOM_COLOR);
+		vertexBuffer.put(x1, top, z1, LAVA_TOP_COLOR);
+	}
+
+	/**
+	 * Queue lava geometry that has already been written to the temporary vertex and UV buffers for drawing.
+	 */
+	private void pushLava(int tileX, int tileY, int faceCount, int lavaHeight, int radius) {
+		if (computeMode != ComputeMode.NONE) {
+			GpuIntBuffer b = bufferForTriangles(faceCount);
 
 			b.ensureCapacity(8);
 			IntBuffer buffer = b.getBuffer();
@@ -1102,24 +1758,174 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			buffer.put(faceCount);
 			buffer.put(targetBufferOffset);
 			buffer.put(radius << 12);
-			buffer.put(localX).put(lavaHeight).put(localY);
+			buffer.put(tileX * Perspective.LOCAL_TILE_SIZE).put(lavaHeight).put(tileY * Perspective.LOCAL_TILE_SIZE);
 
 			tempOffset += faceCount * 3;
 			tempUvOffset += faceCount * 3;
 		}
+		else if (sortFacesOnCpu) {
+			GpuIntBuffer b = bufferForTriangles(faceCount);
+
+			// The geometry is already at its target offset
+			b.ensureCapacity(8);
+			IntBuffer buffer = b.getBuffer();
+			buffer.put(targetBufferOffset);
+			buffer.put(targetBufferOffset);
+			buffer.put(faceCount);
+			buffer.put(targetBufferOffset);
+			buffer.put(radius << 12);
+			buffer.put(tileX * Perspective.LOCAL_TILE_SIZE).put(lavaHeight).put(tileY * Perspective.LOCAL_TILE_SIZE);
+		}
 
 		targetBufferOffset += faceCount * 3;
+	}
+
+	/**
+	 * Queue a lava tile to be generated by the lava compute program. Its geometry is only known once the program
+	 * runs, so room for the maximum number of faces is reserved in the target buffer.
+	 */
+	private boolean pushGpuLava(int plane, int tileX, int tileY) {
+		if (lavaPlugin.getLavaStartMillis(plane, tileX, tileY) == LavaPlugin.NO_LAVA)
+			return false;
+
+		byte[][][] tileSettings = client.getTileSettings();
+		boolean isBridge = plane == 1 && (tileSettings[1][tileX][tileY] & TILE_FLAG_BRIDGE) != 0;
+
+		GpuIntBuffer b = modelBufferLava;
+		++lavaModels;
+
+		b.ensureCapacity(4);
+		IntBuffer buffer = b.getBuffer();
+		buffer.put(tileX);
+		buffer.put(tileY);
+		buffer.put(plane | (isBridge ? LavaTileBuffer.FLAG_BRIDGE : 0));
+		buffer.put(targetBufferOffset);
 
+		targetBufferOffset += LavaTileBuffer.MAX_FACES * 3;
 		return true;
 	}
 
+	/**
+	 * Upload the lava tiles queued this frame, along with the per tile state the lava compute program reads if it
+	 * has changed.
+	 *
+	 * @return the time to pass to the lava compute program
+	 */
+	private int uploadLavaTiles(IntBuffer modelBufferLava)
+	{
+		if (lavaModels == 0)
+		{
+			return 0;
+		}
+
+		long millis = System.currentTimeMillis();
+
+		updateBuffer(tmpModelBufferLava, GL43C.GL_ARRAY_BUFFER, modelBufferLava, GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
+
+		IntBuffer heights = lavaTileBuffer.pollTileHeights();
+		if (heights != null)
+		{
+			updateBuffer(lavaHeightBuffer, GL43C.GL_ARRAY_BUFFER, heights, GL43C.GL_STATIC_DRAW, CL_MEM_READ_ONLY);
+		}
+
+		if (lavaTileBuffer.update(lavaPlugin, millis))
+		{
+			updateBuffer(lavaStartBuffer, GL43C.GL_ARRAY_BUFFER, lavaTileBuffer.getStarts(), GL43C.GL_DYNAMIC_DRAW, CL_MEM_READ_ONLY);
+		}
+
+		return lavaTileBuffer.getTime(millis);
+	}
+
+	/**
+	 * Queue settled lava geometry which has been written to its slot in the scene buffer for drawing.
+	 */
+	private void pushSceneLava(int tileX, int tileY, LavaGeometryCache.Entry entry) {
+		GpuIntBuffer b = modelBufferSmall;
+		++smallModels;
+
+		int slotOffset = entry.slot * SceneUploader.LAVA_SLOT_VERTICES;
+
+		b.ensureCapacity(8);
+		IntBuffer buffer = b.getBuffer();
+		buffer.put(sceneUploader.lavaOffset + slotOffset);
+		buffer.put(sceneUploader.lavaUvOffset + slotOffset);
+		buffer.put(entry.faceCount);
+		buffer.put(targetBufferOffset);
+		buffer.put(FLAG_SCENE_BUFFER | (entry.radius << 12));
+		buffer.put(tileX * Perspective.LOCAL_TILE_SIZE).put(entry.lavaHeight).put(tileY * Perspective.LOCAL_TILE_SIZE);
+
+		targetBufferOffset += entry.faceCount * 3;
+	}
+
+	/**
+	 * Write the geometry of lava tiles which settled this frame into their slots in the scene buffer.
+	 */
+	private void uploadLavaSlots()
+	{
+		if (pendingLavaSlots.isEmpty())
+		{
+			return;
+		}
+
+		for (LavaGeometryCache.Entry entry : pendingLavaSlots)
+		{
+			// The tile may have changed again since it was queued
+			if (entry.slot < 0)
+			{
+				continue;
+			}
+
+			long offset = (long) entry.slot * SceneUploader.LAVA_SLOT_VERTICES;
+
+			lavaSlotVertexBuffer.clear();
+			lavaSlotVertexBuffer.put(entry.vertices).flip();
+			GL43C.glBindBuffer(GL43C.GL_ARRAY_BUFFER, sceneVertexBuffer.glBufferId);
+			GL43C.glBufferSubData(GL43C.GL_ARRAY_BUFFER, (sceneUploader.lavaOffset + offset) * 16, lavaSlotVertexBuffer);
+
+			lavaSlotUvBuffer.clear();
+			lavaSlotUvBuffer.put(entry.uvs).flip();
+			GL43C.glBindBuffer(GL43C.GL_ARRAY_BUFFER, sceneUvBuffer.glBufferId);
+			GL43C.glBufferSubData(GL43C.GL_ARRAY_BUFFER, (sceneUploader.lavaUvOffset + offset) * 16, lavaSlotUvBuffer);
+
+			entry.uploaded = true;
+		}
+
+		GL43C.glBindBuffer(GL43C.GL_ARRAY_BUFFER, 0);
+		pendingLavaSlots.clear();
+	}
+
+	/**
+	 * Drop the cached lava geometry of a scene tile and its neighbours, after it has been marked or doused.
+	 */
+	public void invalidateLavaTile(int plane, int sceneX, int sceneY)
+	{
+		lavaGeometryCache.invalidate(plane, sceneX, sceneY);
+		lavaTileBuffer.invalidate();
+		lavaMesher.invalidate();
+	}
+
+	/**
+	 * Drop all cached lava geometry, after the lava tiles in the scene have been reloaded.
+	 */
+	public void invalidateLavaTiles()
+	{
+		lavaGeometryCache.clear();
+		lavaTileBuffer.invalidate();
+		lavaMesher.invalidate();
+	}
+
 	@Override
 	public void drawScenePaint(int orientation, int pitchSin, int pitchCos, int yawSin, int yawCos, int x, int y, int z,
 		SceneTilePaint paint, int tileZ, int tileX, int tileY,
 		int zoom, int centerX, int centerY)
 	{
+		frameProfiler.begin(FrameProfiler.Stage.DRAW_SCENE_PAINT);
+
 		if (drawLava(tileZ, tileX, tileY))
+		{
+			frameProfiler.end(FrameProfiler.Stage.DRAW_SCENE_PAINT);
 			return;
+		}
 
 		if (computeMode == ComputeMode.NONE)
 		{
@@ -1151,6 +1957,8 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 
 			targetBufferOffset += 2 * 3;
 		}
+
+		frameProfiler.end(FrameProfiler.Stage.DRAW_SCENE_PAINT);
 	}
 
 	@Override
@@ -1204,6 +2012,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			GL43C.glBindTexture(GL43C.GL_TEXTURE_2D, interfaceTexture);
 			GL43C.glTexImage2D(GL43C.GL_TEXTURE_2D, 0, GL43C.GL_RGBA, canvasWidth, canvasHeight, 0, GL43C.GL_BGRA, GL43C.GL_UNSIGNED_BYTE, 0);
 			GL43C.glBindTexture(GL43C.GL_TEXTURE_2D, 0);
+
+			// The new texture has no contents yet
+			interfaceDirtyRegions.invalidate();
 		}
 
 		final BufferProvider bufferProvider = client.getBufferProvider();
@@ -1211,13 +2022,43 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		final int width = bufferProvider.getWidth();
 		final int height = bufferProvider.getHeight();
 
+		// Only the parts of the interface which changed since the last frame are copied and uploaded
+		final int rectCount = interfaceDirtyRegions.update(pixels, width, height);
+		if (rectCount == 0)
+		{
+			return;
+		}
+
 		GL43C.glBindBuffer(GL43C.GL_PIXEL_UNPACK_BUFFER, interfacePbo);
-		GL43C.glMapBuffer(GL43C.GL_PIXEL_UNPACK_BUFFER, GL43C.GL_WRITE_ONLY)
-			.asIntBuffer()
-			.put(pixels, 0, width * height);
+		IntBuffer mapped = GL43C.glMapBufferRange(GL43C.GL_PIXEL_UNPACK_BUFFER, 0, width * height * 4L,
+			GL43C.GL_MAP_WRITE_BIT | GL43C.GL_MAP_INVALIDATE_BUFFER_BIT)
+			.asIntBuffer();
+		for (int i = 0; i < rectCount; i++)
+		{
+			final int x = interfaceDirtyRegions.getX(i);
+			final int y = interfaceDirtyRegions.getY(i);
+			final int w = interfaceDirtyRegions.getWidth(i);
+			final int h = interfaceDirtyRegions.getHeight(i);
+			for (int row = y; row < y + h; row++)
+			{
+				final int offset = row * width + x;
+				mapped.position(offset);
+				mapped.put(pixels, offset, w);
+			}
+		}
 		GL43C.glUnmapBuffer(GL43C.GL_PIXEL_UNPACK_BUFFER);
+
 		GL43C.glBindTexture(GL43C.GL_TEXTURE_2D, interfaceTexture);
-		GL43C.glTexSubImage2D(GL43C.GL_TEXTURE_2D, 0, 0, 0, width, height, GL43C.GL_BGRA, GL43C.GL_UNSIGNED_INT_8_8_8_8_REV, 0);
+		GL43C.glPixelStorei(GL43C.GL_UNPACK_ROW_LENGTH, width);
+		for (int i = 0; i < rectCount; i++)
+		{
+			final int x = interfaceDirtyRegions.getX(i);
+			final int y = interfaceDirtyRegions.getY(i);
+			GL43C.glTexSubImage2D(GL43C.GL_TEXTURE_2D, 0, x, y,
+				interfaceDirtyRegions.getWidth(i), interfaceDirtyRegions.getHeight(i),
+				GL43C.GL_BGRA, GL43C.GL_UNSIGNED_INT_8_8_8_8_REV, (y * (long) width + x) * 4L);
+		}
+		GL43C.glPixelStorei(GL43C.GL_UNPACK_ROW_LENGTH, 0);
 		GL43C.glBindBuffer(GL43C.GL_PIXEL_UNPACK_BUFFER, 0);
 		GL43C.glBindTexture(GL43C.GL_TEXTURE_2D, 0);
 	}
@@ -1225,13 +2066,17 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 	@Override
 	public void draw(int overlayColor)
 	{
+		frameProfiler.begin(FrameProfiler.Stage.DRAW);
+
 		final int canvasHeight = client.getCanvasHeight();
 		final int canvasWidth = client.getCanvasWidth();
 
 		final int viewportHeight = client.getViewportHeight();
 		final int viewportWidth = client.getViewportWidth();
 
+		frameProfiler.begin(FrameProfiler.Stage.UI_UPLOAD);
 		prepareInterfaceTexture(canvasWidth, canvasHeight);
+		frameProfiler.end(FrameProfiler.Stage.UI_UPLOAD);
 
 		// Setup anti-aliasing
 		final AntiAliasingMode antiAliasingMode = config.antiAliasingMode();
@@ -1436,13 +2281,17 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			GL43C.glBindFramebuffer(GL43C.GL_READ_FRAMEBUFFER, awtContext.getFramebuffer(false));
 		}
 
+		// In case the scene was never finished this frame
+		unmapPersistentBuffers();
+
 		vertexBuffer.clear();
 		uvBuffer.clear();
 		modelBuffer.clear();
 		modelBufferSmall.clear();
 		modelBufferUnordered.clear();
+		modelBufferLava.clear();
 
-		smallModels = largeModels = unorderedModels = 0;
+		smallModels = largeModels = unorderedModels = lavaModels = 0;
 		tempOffset = 0;
 		tempUvOffset = 0;
 
@@ -1455,6 +2304,9 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 
 		GL43C.glBindFramebuffer(GL43C.GL_FRAMEBUFFER, awtContext.getFramebuffer(false));
 
+		frameProfiler.end(FrameProfiler.Stage.DRAW);
+		frameProfiler.endFrame();
+
 		checkGLErrors();
 	}
 
@@ -1541,27 +2393,45 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			graphics.dispose();
 		}
 
-		ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * 4)
-			.order(ByteOrder.nativeOrder());
+		// Read into a pixel pack buffer, so only the transfer itself has to be waited on when mapping it, rather
+		// than the driver copying through client memory
+		final int size = width * height * 4;
+		if (screenshotPbo == -1)
+		{
+			screenshotPbo = GL43C.glGenBuffers();
+		}
+		GL43C.glBindBuffer(GL43C.GL_PIXEL_PACK_BUFFER, screenshotPbo);
+		if (size > screenshotPboSize)
+		{
+			GL43C.glBufferData(GL43C.GL_PIXEL_PACK_BUFFER, size, GL43C.GL_STREAM_READ);
+			screenshotPboSize = size;
+		}
 
+		// BGRA packed into native ints matches the layout of TYPE_INT_RGB, which ignores the alpha byte
 		GL43C.glReadBuffer(awtContext.getBufferMode());
-		GL43C.glReadPixels(0, 0, width, height, GL43C.GL_RGBA, GL43C.GL_UNSIGNED_BYTE, buffer);
+		GL43C.glReadPixels(0, 0, width, height, GL43C.GL_BGRA, GL43C.GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
 
 		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 
-		for (int y = 0; y < height; ++y)
+		ByteBuffer mapped = GL43C.glMapBufferRange(GL43C.GL_PIXEL_PACK_BUFFER, 0, size, GL43C.GL_MAP_READ_BIT);
+		if (mapped == null)
 		{
-			for (int x = 0; x < width; ++x)
-			{
-				int r = buffer.get() & 0xff;
-				int g = buffer.get() & 0xff;
-				int b = buffer.get() & 0xff;
-				buffer.get(); // alpha
+			log.warn("Unable to map screenshot buffer");
+		}
+		else
+		{
+			IntBuffer buffer = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
 
-				pixels[(height - y - 1) * width + x] = (r << 16) | (g << 8) | b;
+			// The framebuffer's rows start from the bottom
+			for (int y = 0; y < height; ++y)
+			{
+				buffer.get(pixels, (height - y - 1) * width, width);
 			}
+
+			GL43C.glUnmapBuffer(GL43C.GL_PIXEL_PACK_BUFFER);
 		}
+		GL43C.glBindBuffer(GL43C.GL_PIXEL_PACK_BUFFER, 0);
 
 		return image;
 	}
@@ -1595,7 +2465,15 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 		vertexBuffer.clear();
 		uvBuffer.clear();
 
-		sceneUploader.upload(client.getScene(), vertexBuffer, uvBuffer);
+		int lavaSlots = 0;
+		if (computeMode != ComputeMode.NONE)
+			lavaSlots = Math.min(lavaPlugin.getLoadedTileCount() + LAVA_SLOT_HEADROOM, MAX_Z * SCENE_SIZE * SCENE_SIZE);
+
+		sceneUploader.modelCache.setBudget(config.modelCacheSize() * 1024L * 1024L);
+		sceneUploader.upload(client.getScene(), vertexBuffer, uvBuffer, lavaSlots, config.parallelSceneUpload());
+		lavaGeometryCache.resetSlots(lavaSlots);
+		pendingLavaSlots.clear();
+		lavaTileBuffer.setTileHeights(client.getTileHeights());
 
 		vertexBuffer.flip();
 		uvBuffer.flip();
@@ -1692,7 +2570,7 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			lavaPlugin.containsTile(plane, tileX, tileY))
 			return;
 
-		if (computeMode == ComputeMode.NONE)
+		if (computeMode == ComputeMode.NONE && !sortFacesOnCpu)
 		{
 			modelOrientation = orientation;
 
@@ -1700,6 +2578,49 @@ public class GpuPlugin extends Plugin implements DrawCallbacks
 			renderable.draw(orientation, pitchSin, pitchCos, yawSin, yawCos, x, y, z, hash);
 			drawingModel = false;
 		}
+		else if (computeMode == ComputeMode.NONE)
+		{
+			// Without compute shaders everything is written to the vertex buffer at its target offset, and the model
+			// is sorted in place by the CPU priority renderer in postDrawScene
+			if (model != renderable)
+			{
+				renderable.setModelHeight(model.getModelHeight());
+			}
+
+			if (!isVisible(model, pitchSin, pitchCos, yawSin, yawCos, x, y, z))
+			{
+				return;
+			}
+
+			model.calculateExtreme(orientation);
+			client.checkClickbox(model, orientation, pitchSin, pitchCos, yawSin, yawCos, x, y, z, hash);
+
+			boolean hasUv = model.getFaceTextures() != null;
+
+			int len = sceneUploader.pushModel(model, vertexBuffer, uvBuffer);
+			if (!hasUv)
+			{
+				// Keep the uv buffer in step with the vertex buffer
+				uvBuffer.ensureCapacity(len * 4);
+				for (int i = 0; i < len; i++)
+				{
+					uvBuffer.put(0, 0, 0, 0);
+				}
+			}
+
+			GpuIntBuffer b = bufferForTriangles(len / 3);
+
+			b.ensureCapacity(8);
+			IntBuffer buffer = b.getBuffer();
+			buffer.put(targetBufferOffset);
+			buffer.put(hasUv ? targetBufferOffset : -1);
+			buffer.put(len / 3);
+			buffer.put(targetBufferOffset);
+			buffer.put((model.getRadius() << 12) | orientation);
+			buffer.put(x + client.getCameraX2()).put(y + client.getCameraY2()).put(z + client.getCameraZ2());
+
+			targetBufferOffset += len;
+		}
 		// Model may be in the scene buffer
 		else if (renderable instanceof Model && ((Model) renderable).getSceneId() == sceneUploader.sceneId)
 		{
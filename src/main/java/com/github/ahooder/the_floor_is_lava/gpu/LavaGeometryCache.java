@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.util.Arrays;
+import net.runelite.api.Constants;
+
+/**
+ * Vertex and UV data of settled lava tiles, keyed by scene tile, so their geometry doesn't have to be regenerated
+ * every frame. Entries may additionally own one of the lava slots reserved in the scene buffer by
+ * {@link SceneUploader}, in which case the geometry only has to be uploaded once.
+ */
+class LavaGeometryCache
+{
+	private static final int SCENE_SIZE = Constants.SCENE_SIZE;
+	private static final int PLANE_SIZE = SCENE_SIZE * SCENE_SIZE;
+
+	static class Entry
+	{
+		final int[] vertices;
+		final float[] uvs;
+		final int faceCount;
+		final int lavaHeight;
+		final int radius;
+
+		/**
+		 * game cycle at which the geometry, which is animated by the vertex shader, comes to rest, or 0 if it isn't
+		 * animated
+		 */
+		final int settleCycle;
+
+		/**
+		 * index of the scene buffer slot holding this geometry, or -1 if it has none
+		 */
+		int slot = -1;
+
+		/**
+		 * whether the geometry has been written to its scene buffer slot
+		 */
+		boolean uploaded;
+
+		Entry(int[] vertices, float[] uvs, int faceCount, int lavaHeight, int radius, int settleCycle)
+		{
+			this.vertices = vertices;
+			this.uvs = uvs;
+			this.faceCount = faceCount;
+			this.lavaHeight = lavaHeight;
+			this.radius = radius;
+			this.settleCycle = settleCycle;
+		}
+	}
+
+	private final Entry[] entries = new Entry[Constants.MAX_Z * PLANE_SIZE];
+
+	private int[] freeSlots = new int[0];
+	private int freeSlotCount;
+
+	Entry get(int plane, int sceneX, int sceneY)
+	{
+		if (!inScene(plane, sceneX, sceneY))
+		{
+			return null;
+		}
+
+		return entries[index(plane, sceneX, sceneY)];
+	}
+
+	void put(int plane, int sceneX, int sceneY, Entry entry)
+	{
+		if (inScene(plane, sceneX, sceneY))
+		{
+			int index = index(plane, sceneX, sceneY);
+			releaseSlot(entries[index]);
+			entries[index] = entry;
+		}
+	}
+
+	/**
+	 * Drop the cached geometry of the tile and its four neighbours, since the walls of a tile depend on its
+	 * neighbours.
+	 */
+	void invalidate(int plane, int sceneX, int sceneY)
+	{
+		put(plane, sceneX, sceneY, null);
+		put(plane, sceneX - 1, sceneY, null);
+		put(plane, sceneX + 1, sceneY, null);
+		put(plane, sceneX, sceneY - 1, null);
+		put(plane, sceneX, sceneY + 1, null);
+	}
+
+	void clear()
+	{
+		for (Entry entry : entries)
+		{
+			releaseSlot(entry);
+		}
+		Arrays.fill(entries, null);
+	}
+
+	/**
+	 * Drop all entries and make the given number of scene buffer slots available.
+	 */
+	void resetSlots(int slotCount)
+	{
+		clear();
+		freeSlots = new int[slotCount];
+		for (int i = 0; i < slotCount; i++)
+		{
+			freeSlots[i] = slotCount - 1 - i;
+		}
+		freeSlotCount = slotCount;
+	}
+
+	/**
+	 * @return true if a scene buffer slot was assigned to the entry, or false if all slots are in use or the
+	 * geometry doesn't fit in a slot
+	 */
+	boolean allocateSlot(Entry entry)
+	{
+		if (freeSlotCount == 0 || entry.faceCount * 3 > SceneUploader.LAVA_SLOT_VERTICES)
+		{
+			return false;
+		}
+
+		entry.slot = freeSlots[--freeSlotCount];
+		entry.uploaded = false;
+		return true;
+	}
+
+	private void releaseSlot(Entry entry)
+	{
+		if (entry != null && entry.slot >= 0)
+		{
+			freeSlots[freeSlotCount++] = entry.slot;
+			entry.slot = -1;
+			entry.uploaded = false;
+		}
+	}
+
+	private static boolean inScene(int plane, int sceneX, int sceneY)
+	{
+		return plane >= 0 && plane < Constants.MAX_Z &&
+			sceneX >= 0 && sceneX < SCENE_SIZE &&
+			sceneY >= 0 && sceneY < SCENE_SIZE;
+	}
+
+	private static int index(int plane, int sceneX, int sceneY)
+	{
+		return plane * PLANE_SIZE + sceneX * SCENE_SIZE + sceneY;
+	}
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.util.Arrays;
+import net.runelite.api.Constants;
+
+/**
+ * Greedily merges rectangles of flat, settled lava tiles at the same height into regions, which are drawn as a
+ * single surface quad with a repeating texture and merged perimeter walls, instead of tile by tile.
+ */
+class LavaMesher
+{
+	private static final int SCENE_SIZE = Constants.SCENE_SIZE;
+	private static final int PLANE_SIZE = SCENE_SIZE * SCENE_SIZE;
+
+	@FunctionalInterface
+	interface TileFilter
+	{
+		boolean test(int plane, int sceneX, int sceneY);
+	}
+
+	static class Region
+	{
+		final int plane;
+		final int x;
+		final int y;
+		final int width;
+		final int height;
+
+		/**
+		 * geometry of the region, or null if it hasn't been built yet
+		 */
+		int[] vertices;
+		float[] uvs;
+		int faceCount;
+		int lavaHeight;
+		int radius;
+
+		/**
+		 * the last frame in which the region was drawn, so it's only drawn for the first of its tiles
+		 */
+		int drawnFrame = -1;
+
+		Region(int plane, int x, int y, int width, int height)
+		{
+			this.plane = plane;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	private final Region[] regions = new Region[Constants.MAX_Z * PLANE_SIZE];
+	private final boolean[] mergeable = new boolean[PLANE_SIZE];
+	private final boolean[] used = new boolean[PLANE_SIZE];
+
+	private boolean dirty = true;
+
+	/**
+	 * @return the region the tile has been merged into, or null if it's drawn on its own
+	 */
+	Region get(int plane, int sceneX, int sceneY)
+	{
+		return regions[plane * PLANE_SIZE + sceneX * SCENE_SIZE + sceneY];
+	}
+
+	boolean isDirty()
+	{
+		return dirty;
+	}
+
+	/**
+	 * Mark the regions as stale, after lava tiles have been added, removed or have settled.
+	 */
+	void invalidate()
+	{
+		dirty = true;
+	}
+
+	/**
+	 * Rebuild the regions from the tiles accepted by the filter. Only tiles with the same height at their
+	 * south-western corner are merged, so the filter should only accept tiles which are flat.
+	 */
+	void rebuild(TileFilter filter, int[][][] tileHeights)
+	{
+		Arrays.fill(regions, null);
+
+		for (int z = 0; z < Constants.MAX_Z; ++z)
+		{
+			for (int x = 0; x < SCENE_SIZE; ++x)
+			{
+				for (int y = 0; y < SCENE_SIZE; ++y)
+				{
+					mergeable[x * SCENE_SIZE + y] = filter.test(z, x, y);
+				}
+			}
+			Arrays.fill(used, false);
+
+			int[][] heights = tileHeights[z];
+			for (int x = 0; x < SCENE_SIZE; ++x)
+			{
+				for (int y = 0; y < SCENE_SIZE; ++y)
+				{
+					if (!canMerge(x, y, heights, heights[x][y]))
+					{
+						continue;
+					}
+
+					int height = heights[x][y];
+
+					// Grow northwards as far as possible, then eastwards while the whole column can be merged
+					int endY = y + 1;
+					while (endY < SCENE_SIZE && canMerge(x, endY, heights, height))
+					{
+						++endY;
+					}
+
+					int endX = x + 1;
+					while (endX < SCENE_SIZE && canMergeColumn(endX, y, endY, heights, height))
+					{
+						++endX;
+					}
+
+					Region region = null;
+					if ((endX - x) * (endY - y) > 1)
+					{
+						region = new Region(z, x, y, endX - x, endY - y);
+					}
+
+					for (int rx = x; rx < endX; ++rx)
+					{
+						for (int ry = y; ry < endY; ++ry)
+						{
+							used[rx * SCENE_SIZE + ry] = true;
+							regions[z * PLANE_SIZE + rx * SCENE_SIZE + ry] = region;
+						}
+					}
+				}
+			}
+		}
+
+		dirty = false;
+	}
+
+	private boolean canMerge(int x, int y, int[][] heights, int height)
+	{
+		int index = x * SCENE_SIZE + y;
+		return mergeable[index] && !used[index] && heights[x][y] == height;
+	}
+
+	private boolean canMergeColumn(int x, int startY, int endY, int[][] heights, int height)
+	{
+		for (int y = startY; y < endY; ++y)
+		{
+			if (!canMerge(x, y, heights, height))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+}
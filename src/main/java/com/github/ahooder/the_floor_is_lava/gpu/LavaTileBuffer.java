@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import com.github.ahooder.the_floor_is_lava.LavaPlugin;
+import java.nio.IntBuffer;
+import net.runelite.api.Constants;
+import net.runelite.api.Perspective;
+
+/**
+ * Per scene tile state from which the lava compute kernels generate lava geometry: the tile heights of the scene,
+ * and the time at which each lava tile started animating. Start times are stored relative to the time the buffer
+ * was last rebuilt, so they fit in an int.
+ */
+class LavaTileBuffer
+{
+	private static final int SCENE_SIZE = Constants.SCENE_SIZE;
+
+	/**
+	 * the number of faces reserved in the target buffer for each lava tile
+	 */
+	static final int MAX_FACES = 18;
+
+	static final int WORK_GROUP_SIZE = 64;
+
+	static final int FLAG_PLANE = 0x3;
+	static final int FLAG_BRIDGE = 0x4;
+
+	/**
+	 * start time of tiles without lava, which is after any time passed to the kernels
+	 */
+	static final int NONE = Integer.MAX_VALUE;
+
+	/**
+	 * start time of lava tiles which have finished animating, which is before any time passed to the kernels
+	 */
+	static final int SETTLED = Integer.MIN_VALUE;
+
+	/**
+	 * elapsed time the kernels use for settled tiles, long after any tile has finished animating
+	 */
+	private static final int SETTLED_ELAPSED = 1 << 20;
+
+	private final IntBuffer heights = GpuIntBuffer.allocateDirect(Constants.MAX_Z * (SCENE_SIZE + 1) * (SCENE_SIZE + 1));
+	private final IntBuffer starts = GpuIntBuffer.allocateDirect(Constants.MAX_Z * SCENE_SIZE * SCENE_SIZE);
+
+	private long baseMillis;
+	private boolean heightsDirty;
+	private boolean startsDirty = true;
+
+	/**
+	 * @return the defines shared by the lava compute kernels
+	 */
+	static String defines()
+	{
+		return "#define SCENE_SIZE " + SCENE_SIZE + "\n" +
+			"#define LOCAL_TILE_SIZE " + Perspective.LOCAL_TILE_SIZE + "\n" +
+			"#define LAVA_MAX_FACES " + MAX_FACES + "\n" +
+			"#define LAVA_WORK_GROUP_SIZE " + WORK_GROUP_SIZE + "\n" +
+			"#define LAVA_FLAG_PLANE " + FLAG_PLANE + "\n" +
+			"#define LAVA_FLAG_BRIDGE " + FLAG_BRIDGE + "\n" +
+			"#define LAVA_NONE " + NONE + "\n" +
+			// the minimum int can't be written as a literal
+			"#define LAVA_SETTLED (" + (SETTLED + 1) + " - 1)\n" +
+			"#define LAVA_SETTLED_ELAPSED " + SETTLED_ELAPSED + "\n" +
+			"#define LAVA_DEPTH " + GpuPlugin.LAVA_DEPTH + "\n" +
+			"#define LAVA_FALLING_SPEED " + GpuPlugin.LAVA_FALLING_SPEED + "\n" +
+			"#define LAVA_TEXTURE " + (GpuPlugin.LAVA_TEXTURE_ID + 1) + "\n" +
+			"#define LAVA_TEXTURE_COLOR " + GpuPlugin.LAVA_TEXTURE_COLOR + "\n" +
+			"#define LAVA_TOP_COLOR " + GpuPlugin.LAVA_TOP_COLOR + "\n" +
+			"#define LAVA_BOTTOM_COLOR " + GpuPlugin.LAVA_BOTTOM_COLOR + "\n";
+	}
+
+	void setTileHeights(int[][][] tileHeights)
+	{
+		heights.clear();
+		for (int z = 0; z < Constants.MAX_Z; ++z)
+		{
+			for (int x = 0; x <= SCENE_SIZE; ++x)
+			{
+				heights.put(tileHeights[z][x], 0, SCENE_SIZE + 1);
+			}
+		}
+		heights.flip();
+		heightsDirty = true;
+	}
+
+	/**
+	 * Mark the start times as stale, after lava tiles have been added or removed.
+	 */
+	void invalidate()
+	{
+		startsDirty = true;
+	}
+
+	/**
+	 * Rebuild the start times from the lava plugin if they have been invalidated.
+	 *
+	 * @return whether the start times were rebuilt
+	 */
+	boolean update(LavaPlugin lavaPlugin, long millis)
+	{
+		if (!startsDirty)
+		{
+			return false;
+		}
+
+		baseMillis = millis;
+		starts.clear();
+		for (int z = 0; z < Constants.MAX_Z; ++z)
+		{
+			for (int x = 0; x < SCENE_SIZE; ++x)
+			{
+				for (int y = 0; y < SCENE_SIZE; ++y)
+				{
+					starts.put(encodeStart(lavaPlugin.getMarkedMillis(z, x, y)));
+				}
+			}
+		}
+		starts.flip();
+		startsDirty = false;
+		return true;
+	}
+
+	private int encodeStart(long startMillis)
+	{
+		if (startMillis == LavaPlugin.NO_LAVA)
+		{
+			return NONE;
+		}
+
+		long start = startMillis - baseMillis;
+		if (startMillis == 0 || start < -SETTLED_ELAPSED)
+		{
+			return SETTLED;
+		}
+		return (int) Math.min(start, NONE - 1);
+	}
+
+	/**
+	 * @return the time to pass to the kernels, relative to the start times
+	 */
+	int getTime(long millis)
+	{
+		return (int) Math.min(millis - baseMillis, NONE - SETTLED_ELAPSED);
+	}
+
+	/**
+	 * @return the tile heights, if they have changed since they were last retrieved, or null otherwise
+	 */
+	IntBuffer pollTileHeights()
+	{
+		if (!heightsDirty)
+		{
+			return null;
+		}
+
+		heightsDirty = false;
+		return heights;
+	}
+
+	IntBuffer getStarts()
+	{
+		return starts;
+	}
+}
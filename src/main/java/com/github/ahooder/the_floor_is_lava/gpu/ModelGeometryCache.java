@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.runelite.api.Model;
+
+/**
+ * Serialized vertex and UV data of static scene models, kept across scene loads so models which are loaded again,
+ * for example when walking back and forth across a region boundary, can be copied into the scene buffer instead of
+ * being converted again. Models are recreated by the client on every load, so they are keyed by a hash of their
+ * contents rather than their identity. The least recently used entries are evicted to stay within the budget.
+ */
+class ModelGeometryCache
+{
+	static class Entry
+	{
+		final int faceCount;
+		final int vertexCount;
+		final int[] vertices;
+		final float[] uvs;
+
+		Entry(int faceCount, int vertexCount, int[] vertices, float[] uvs)
+		{
+			this.faceCount = faceCount;
+			this.vertexCount = vertexCount;
+			this.vertices = vertices;
+			this.uvs = uvs;
+		}
+
+		long size()
+		{
+			return 64L + vertices.length * 4L + (uvs == null ? 0 : uvs.length * 4L);
+		}
+	}
+
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(256, .75f, true);
+	private long budget;
+	private long size;
+
+	/**
+	 * @param budget maximum number of bytes of geometry to keep, or 0 to disable the cache
+	 */
+	synchronized void setBudget(long budget)
+	{
+		this.budget = budget;
+		evict();
+	}
+
+	boolean isEnabled()
+	{
+		return budget > 0;
+	}
+
+	synchronized Entry get(long key, Model model)
+	{
+		Entry entry = entries.get(key);
+		if (entry == null || entry.faceCount != model.getFaceCount() || entry.vertexCount != model.getVerticesCount())
+		{
+			return null;
+		}
+		return entry;
+	}
+
+	synchronized void put(long key, Entry entry)
+	{
+		Entry previous = entries.put(key, entry);
+		if (previous != null)
+		{
+			size -= previous.size();
+		}
+		size += entry.size();
+		evict();
+	}
+
+	synchronized void clear()
+	{
+		entries.clear();
+		size = 0;
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+		while (size > budget && it.hasNext())
+		{
+			size -= it.next().getValue().size();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Hash everything {@link SceneUploader#pushModel} reads from the model. Every element is hashed, since models
+	 * which differ in only a few faces, such as recoloured or retextured copies, must not share an entry. The arrays
+	 * are hashed in independent lanes, so the multiplies of consecutive elements don't wait on each other, see
+	 * ModelCacheBenchmark.
+	 */
+	static long hash(Model model)
+	{
+		long h = 0xcbf29ce484222325L;
+		h = mix(h, model.getFaceCount());
+		h = mix(h, model.getVerticesCount());
+		h = hash(h, model.getVerticesX());
+		h = hash(h, model.getVerticesY());
+		h = hash(h, model.getVerticesZ());
+		h = hash(h, model.getFaceIndices1());
+		h = hash(h, model.getFaceIndices2());
+		h = hash(h, model.getFaceIndices3());
+		h = hash(h, model.getFaceColors1());
+		h = hash(h, model.getFaceColors2());
+		h = hash(h, model.getFaceColors3());
+		h = hash(h, model.getFaceTransparencies());
+		h = hash(h, model.getFaceTextures());
+		h = hash(h, model.getFaceRenderPriorities());
+		h = hash(h, model.getFaceTextureUVCoordinates());
+		h = mix(h, model.getOverrideAmount());
+		h = mix(h, model.getOverrideHue());
+		h = mix(h, model.getOverrideSaturation());
+		h = mix(h, model.getOverrideLuminance());
+		return h;
+	}
+
+	private static long mix(long h, int value)
+	{
+		return (h ^ value) * 0x100000001b3L;
+	}
+
+	/**
+	 * Fold the lanes into the hash, in order, so the same values in different lanes hash differently.
+	 */
+	private static long combine(long h, long h0, long h1, long h2, long h3, int length)
+	{
+		h = (h ^ h0) * 0x100000001b3L;
+		h = (h ^ h1) * 0x100000001b3L;
+		h = (h ^ h2) * 0x100000001b3L;
+		h = (h ^ h3) * 0x100000001b3L;
+		return mix(h, length);
+	}
+
+	private static long hash(long h, int[] values)
+	{
+		if (values == null)
+		{
+			return mix(h, -1);
+		}
+		long h0 = h, h1 = h + 1, h2 = h + 2, h3 = h + 3;
+		int i = 0;
+		for (; i + 4 <= values.length; i += 4)
+		{
+			h0 = mix(h0, values[i]);
+			h1 = mix(h1, values[i + 1]);
+			h2 = mix(h2, values[i + 2]);
+			h3 = mix(h3, values[i + 3]);
+		}
+		for (; i < values.length; i++)
+		{
+			h0 = mix(h0, values[i]);
+		}
+		return combine(h, h0, h1, h2, h3, values.length);
+	}
+
+	private static long hash(long h, short[] values)
+	{
+		if (values == null)
+		{
+			return mix(h, -1);
+		}
+		long h0 = h, h1 = h + 1, h2 = h + 2, h3 = h + 3;
+		int i = 0;
+		for (; i + 4 <= values.length; i += 4)
+		{
+			h0 = mix(h0, values[i]);
+			h1 = mix(h1, values[i + 1]);
+			h2 = mix(h2, values[i + 2]);
+			h3 = mix(h3, values[i + 3]);
+		}
+		for (; i < values.length; i++)
+		{
+			h0 = mix(h0, values[i]);
+		}
+		return combine(h, h0, h1, h2, h3, values.length);
+	}
+
+	private static long hash(long h, byte[] values)
+	{
+		if (values == null)
+		{
+			return mix(h, -1);
+		}
+		long h0 = h, h1 = h + 1, h2 = h + 2, h3 = h + 3;
+		int i = 0;
+		for (; i + 4 <= values.length; i += 4)
+		{
+			h0 = mix(h0, values[i]);
+			h1 = mix(h1, values[i + 1]);
+			h2 = mix(h2, values[i + 2]);
+			h3 = mix(h3, values[i + 3]);
+		}
+		for (; i < values.length; i++)
+		{
+			h0 = mix(h0, values[i]);
+		}
+		return combine(h, h0, h1, h2, h3, values.length);
+	}
+
+	private static long hash(long h, float[] values)
+	{
+		if (values == null)
+		{
+			return mix(h, -1);
+		}
+		long h0 = h, h1 = h + 1, h2 = h + 2, h3 = h + 3;
+		int i = 0;
+		for (; i + 4 <= values.length; i += 4)
+		{
+			h0 = mix(h0, Float.floatToRawIntBits(values[i]));
+			h1 = mix(h1, Float.floatToRawIntBits(values[i + 1]));
+			h2 = mix(h2, Float.floatToRawIntBits(values[i + 2]));
+			h3 = mix(h3, Float.floatToRawIntBits(values[i + 3]));
+		}
+		for (; i < values.length; i++)
+		{
+			h0 = mix(h0, Float.floatToRawIntBits(values[i]));
+		}
+		return combine(h, h0, h1, h2, h3, values.length);
+	}
+}
@@ -101,6 +101,7 @@ class OpenCLManager
 
 	private static final String KERNEL_NAME_UNORDERED = "computeUnordered";
 	private static final String KERNEL_NAME_LARGE = "computeLarge";
+	private static final String KERNEL_NAME_LAVA = "computeLava";
 
 	private static final int MIN_WORK_GROUP_SIZE = 256;
 	private static final int SMALL_SIZE = GpuPlugin.SMALL_TRIANGLE_COUNT;
@@ -126,10 +127,12 @@ class OpenCLManager
 	private cl_program programUnordered;
 	private cl_program programSmall;
 	private cl_program programLarge;
+	private cl_program programLava;
 
 	private cl_kernel kernelUnordered;
 	private cl_kernel kernelSmall;
 	private cl_kernel kernelLarge;
+	private cl_kernel kernelLava;
 
 	void init(AWTContext awtContext)
 	{
@@ -174,6 +177,12 @@ class OpenCLManager
 			programLarge = null;
 		}
 
+		if (programLava != null)
+		{
+			clReleaseProgram(programLava);
+			programLava = null;
+		}
+
 		if (kernelUnordered != null)
 		{
 			clReleaseKernel(kernelUnordered);
@@ -192,6 +201,12 @@ class OpenCLManager
 			kernelLarge = null;
 		}
 
+		if (kernelLava != null)
+		{
+			clReleaseKernel(kernelLava);
+			kernelLava = null;
+		}
+
 		if (commandQueue != null)
 		{
 			clReleaseCommandQueue(commandQueue);
@@ -413,31 +428,42 @@ class OpenCLManager
 		return kernel;
 	}
 
+	static String loadLavaProgram()
+	{
+		return new Template()
+			.addInclude(OpenCLManager.class)
+			.define("lava_config", LavaTileBuffer.defines())
+			.load("comp_lava.cl");
+	}
+
 	private void compilePrograms()
 	{
 		Template templateSmall = new Template()
 			.addInclude(OpenCLManager.class)
-			.add(key -> key.equals("FACE_COUNT") ? ("#define FACE_COUNT " + smallFaceCount) : null);
+			.define("FACE_COUNT", "#define FACE_COUNT " + smallFaceCount);
 		Template templateLarge = new Template()
 			.addInclude(OpenCLManager.class)
-			.add(key -> key.equals("FACE_COUNT") ? ("#define FACE_COUNT " + largeFaceCount) : null);
+			.define("FACE_COUNT", "#define FACE_COUNT " + largeFaceCount);
 
 		String unordered = new Template()
 			.addInclude(OpenCLManager.class)
 			.load("comp_unordered.cl");
 		String small = templateSmall.load("comp.cl");
 		String large = templateLarge.load("comp.cl");
+		String lava = loadLavaProgram();
 
 		programUnordered = compileProgram(unordered);
 		programSmall = compileProgram(small);
 		programLarge = compileProgram(large);
+		programLava = compileProgram(lava);
 
 		kernelUnordered = getKernel(programUnordered, KERNEL_NAME_UNORDERED);
 		kernelSmall = getKernel(programSmall, KERNEL_NAME_LARGE);
 		kernelLarge = getKernel(programLarge, KERNEL_NAME_LARGE);
+		kernelLava = getKernel(programLava, KERNEL_NAME_LAVA);
 	}
 
-	void compute(int unorderedModels, int smallModels, int largeModels,
+	void compute(int unorderedModels, int smallModels, int largeModels, int lavaModels,
 		GLBuffer sceneVertexBuffer,
 		GLBuffer sceneUvBuffer,
 		GLBuffer vertexBuffer,
@@ -445,6 +471,10 @@ class OpenCLManager
 		GLBuffer unorderedBuffer,
 		GLBuffer smallBuffer,
 		GLBuffer largeBuffer,
+		GLBuffer lavaBuffer,
+		GLBuffer lavaHeightBuffer,
+		GLBuffer lavaStartBuffer,
+		int lavaTime,
 		GLBuffer outVertexBuffer,
 		GLBuffer outUvBuffer,
 		GLBuffer uniformBuffer
@@ -456,6 +486,9 @@ class OpenCLManager
 			unorderedBuffer.cl_mem,
 			smallBuffer.cl_mem,
 			largeBuffer.cl_mem,
+			lavaBuffer.cl_mem,
+			lavaHeightBuffer.cl_mem,
+			lavaStartBuffer.cl_mem,
 			vertexBuffer.cl_mem,
 			uvBuffer.cl_mem,
 			outVertexBuffer.cl_mem,
@@ -470,6 +503,7 @@ class OpenCLManager
 		clEnqueueAcquireGLObjects(commandQueue, glBuffers.length, glBuffers, 0, null, acquireGLBuffers);
 
 		cl_event[] computeEvents = {
+			new cl_event(),
 			new cl_event(),
 			new cl_event(),
 			new cl_event()
@@ -523,6 +557,24 @@ class OpenCLManager
 				new long[]{(long) largeModels * (LARGE_SIZE / largeFaceCount)}, new long[]{LARGE_SIZE / largeFaceCount}, 1, new cl_event[]{acquireGLBuffers}, computeEvents[numComputeEvents++]);
 		}
 
+		if (lavaModels > 0)
+		{
+			clSetKernelArg(kernelLava, 0, Sizeof.cl_mem, lavaBuffer.ptr());
+			clSetKernelArg(kernelLava, 1, Sizeof.cl_mem, lavaHeightBuffer.ptr());
+			clSetKernelArg(kernelLava, 2, Sizeof.cl_mem, lavaStartBuffer.ptr());
+			clSetKernelArg(kernelLava, 3, Sizeof.cl_mem, outVertexBuffer.ptr());
+			clSetKernelArg(kernelLava, 4, Sizeof.cl_mem, outUvBuffer.ptr());
+			clSetKernelArg(kernelLava, 5, Sizeof.cl_mem, uniformBuffer.ptr());
+			clSetKernelArg(kernelLava, 6, Sizeof.cl_int, Pointer.to(new int[]{lavaModels}));
+			clSetKernelArg(kernelLava, 7, Sizeof.cl_int, Pointer.to(new int[]{lavaTime}));
+
+			// the global size has to be a multiple of the work group size, the kernel skips the excess work items
+			int groupSize = LavaTileBuffer.WORK_GROUP_SIZE;
+			long globalSize = (long) (lavaModels + groupSize - 1) / groupSize * groupSize;
+			clEnqueueNDRangeKernel(commandQueue, kernelLava, 1, null,
+				new long[]{globalSize}, new long[]{groupSize}, 1, new cl_event[]{acquireGLBuffers}, computeEvents[numComputeEvents++]);
+		}
+
 		if (numComputeEvents == 0)
 		{
 			clEnqueueReleaseGLObjects(commandQueue, glBuffers.length, glBuffers, 0, null, null);
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import lombok.extern.slf4j.Slf4j;
+import org.lwjgl.opengl.GL43C;
+import org.lwjgl.opengl.GL44C;
+
+/**
+ * A buffer split into equally sized regions which stays mapped for its whole lifetime, so each frame's data can be
+ * written directly into GPU visible memory. Which region is safe to write to is tracked by a {@link BufferRing}.
+ */
+@Slf4j
+class PersistentBuffer
+{
+	private static final int FLAGS = GL43C.GL_MAP_WRITE_BIT | GL44C.GL_MAP_PERSISTENT_BIT | GL44C.GL_MAP_COHERENT_BIT;
+
+	int glBufferId = -1;
+
+	/**
+	 * whether the current frame's data was written to the mapped region, rather than being uploaded to the
+	 * fallback buffer
+	 */
+	boolean inUse;
+
+	private int regionSize;
+	private IntBuffer[] intRegions;
+	private FloatBuffer[] floatRegions;
+
+	/**
+	 * @param regionSize minimum size of each region in bytes
+	 * @param alignment required alignment of the region offsets in bytes
+	 * @return false if the buffer couldn't be mapped
+	 */
+	boolean allocate(int regionSize, int regionCount, int alignment)
+	{
+		destroy();
+
+		this.regionSize = (regionSize + alignment - 1) / alignment * alignment;
+		long size = (long) this.regionSize * regionCount;
+
+		glBufferId = GL43C.glGenBuffers();
+		GL43C.glBindBuffer(GL43C.GL_ARRAY_BUFFER, glBufferId);
+		GL44C.glBufferStorage(GL43C.GL_ARRAY_BUFFER, size, FLAGS);
+		ByteBuffer mapped = GL43C.glMapBufferRange(GL43C.GL_ARRAY_BUFFER, 0, size, FLAGS);
+		GL43C.glBindBuffer(GL43C.GL_ARRAY_BUFFER, 0);
+
+		if (mapped == null)
+		{
+			log.warn("Unable to map persistent buffer of {} bytes", size);
+			destroy();
+			return false;
+		}
+
+		intRegions = new IntBuffer[regionCount];
+		floatRegions = new FloatBuffer[regionCount];
+		for (int i = 0; i < regionCount; i++)
+		{
+			ByteBuffer region = mapped.duplicate();
+			region.position(i * this.regionSize);
+			region.limit((i + 1) * this.regionSize);
+			region = region.slice().order(ByteOrder.nativeOrder());
+			intRegions[i] = region.asIntBuffer();
+			floatRegions[i] = region.asFloatBuffer();
+		}
+		return true;
+	}
+
+	IntBuffer intRegion(int region)
+	{
+		IntBuffer buffer = intRegions[region];
+		buffer.clear();
+		return buffer;
+	}
+
+	FloatBuffer floatRegion(int region)
+	{
+		FloatBuffer buffer = floatRegions[region];
+		buffer.clear();
+		return buffer;
+	}
+
+	void bindRange(int target, int index, int region)
+	{
+		GL43C.glBindBufferRange(target, index, glBufferId, (long) region * regionSize, regionSize);
+	}
+
+	void destroy()
+	{
+		if (glBufferId != -1)
+		{
+			GL43C.glBindBuffer(GL43C.GL_ARRAY_BUFFER, glBufferId);
+			GL43C.glUnmapBuffer(GL43C.GL_ARRAY_BUFFER);
+			GL43C.glBindBuffer(GL43C.GL_ARRAY_BUFFER, 0);
+			GL43C.glDeleteBuffers(glBufferId);
+			glBufferId = -1;
+		}
+		intRegions = null;
+		floatRegions = null;
+		inUse = false;
+	}
+}
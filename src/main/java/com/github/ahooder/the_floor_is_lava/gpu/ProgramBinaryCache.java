@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import lombok.extern.slf4j.Slf4j;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.opengl.GL43C;
+import org.lwjgl.opengl.GLCapabilities;
+
+/**
+ * On-disk cache of linked program binaries, keyed by the driver and the program's sources, so programs don't have
+ * to be recompiled every time the plugin starts.
+ */
+@Slf4j
+class ProgramBinaryCache
+{
+	private final File directory;
+	private final String driver;
+
+	ProgramBinaryCache(File directory)
+	{
+		this.directory = directory;
+		this.driver = GL43C.glGetString(GL43C.GL_VENDOR) + '\n' +
+			GL43C.glGetString(GL43C.GL_RENDERER) + '\n' +
+			GL43C.glGetString(GL43C.GL_VERSION);
+	}
+
+	static boolean isSupported(GLCapabilities caps)
+	{
+		return (caps.OpenGL41 || caps.GL_ARB_get_program_binary)
+			&& GL43C.glGetInteger(GL43C.GL_NUM_PROGRAM_BINARY_FORMATS) > 0;
+	}
+
+	String getKey(int[] types, String[] sources)
+	{
+		Hasher hasher = Hashing.sha256().newHasher()
+			.putString(driver, StandardCharsets.UTF_8);
+		for (int i = 0; i < sources.length; i++)
+		{
+			hasher.putInt(types[i])
+				.putInt(sources[i].length())
+				.putString(sources[i], StandardCharsets.UTF_8);
+		}
+		return hasher.hash().toString();
+	}
+
+	/**
+	 * @return true if the program was linked from a cached binary
+	 */
+	boolean load(int program, String key)
+	{
+		File file = getFile(key);
+		if (!file.exists())
+		{
+			return false;
+		}
+
+		try
+		{
+			byte[] data = Files.readAllBytes(file.toPath());
+			ByteBuffer buffer = ByteBuffer.wrap(data);
+			int format = buffer.getInt();
+			ByteBuffer binary = BufferUtils.createByteBuffer(buffer.remaining());
+			binary.put(buffer).flip();
+
+			GL43C.glProgramBinary(program, format, binary);
+			if (GL43C.glGetProgrami(program, GL43C.GL_LINK_STATUS) == GL43C.GL_TRUE)
+			{
+				return true;
+			}
+		}
+		catch (IOException | RuntimeException ex)
+		{
+			log.debug("Unable to read program binary {}", file, ex);
+		}
+
+		// Binaries are rejected after driver updates which don't change the version string
+		log.debug("Discarding program binary {}", file);
+		if (!file.delete())
+		{
+			log.debug("Unable to delete program binary {}", file);
+		}
+		return false;
+	}
+
+	void save(int program, String key)
+	{
+		int length = GL43C.glGetProgrami(program, GL43C.GL_PROGRAM_BINARY_LENGTH);
+		if (length <= 0)
+		{
+			return;
+		}
+
+		int[] format = new int[1];
+		ByteBuffer binary = BufferUtils.createByteBuffer(length);
+		GL43C.glGetProgramBinary(program, null, format, binary);
+
+		ByteBuffer data = ByteBuffer.allocate(4 + binary.remaining());
+		data.putInt(format[0]).put(binary);
+
+		File file = getFile(key);
+		try
+		{
+			if (!directory.exists() && !directory.mkdirs())
+			{
+				throw new IOException("Unable to create " + directory);
+			}
+			Files.write(file.toPath(), data.array());
+		}
+		catch (IOException ex)
+		{
+			log.warn("Unable to write program binary {}", file, ex);
+		}
+	}
+
+	private File getFile(String key)
+	{
+		return new File(directory, key + ".bin");
+	}
+}
@@ -25,6 +25,12 @@
 package com.github.ahooder.the_floor_is_lava.gpu;
 
 import com.google.common.base.Stopwatch;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
@@ -50,11 +56,49 @@ class SceneUploader
 	@Inject
 	private Client client;
 
+	/**
+	 * number of vertices in a lava slot, enough for the lava surface and the walls on all four sides of a settled tile
+	 */
+	static final int LAVA_SLOT_VERTICES = 10 * 3;
+
+	/**
+	 * number of pending writes a single fork join task fills before it splits
+	 */
+	private static final int PARALLEL_WRITE_THRESHOLD = 512;
+
+	final ModelGeometryCache modelCache = new ModelGeometryCache();
+
 	int sceneId = (int) System.nanoTime();
 	private int offset;
 	private int uvoffset;
 
-	void upload(Scene scene, GpuIntBuffer vertexbuffer, GpuFloatBuffer uvBuffer)
+	/**
+	 * end of the buffer ranges the parallel upload's writes may ask to have capacity for, which can be past the end
+	 * of what they actually write
+	 */
+	private int vertexReserve;
+	private int uvReserve;
+
+	/**
+	 * vertex offset of the first lava slot in the scene vertex buffer
+	 */
+	int lavaOffset;
+
+	/**
+	 * offset of the first lava slot in the scene uv buffer
+	 */
+	int lavaUvOffset;
+
+	/**
+	 * number of lava slots reserved after the scene geometry
+	 */
+	int lavaSlots;
+
+	/**
+	 * @param parallel fill the buffers from the fork join pool instead of the calling thread. The buffer contents are
+	 *                 identical either way.
+	 */
+	void upload(Scene scene, GpuIntBuffer vertexbuffer, GpuFloatBuffer uvBuffer, int lavaSlots, boolean parallel)
 	{
 		Stopwatch stopwatch = Stopwatch.createStarted();
 
@@ -64,6 +108,44 @@ class SceneUploader
 		vertexbuffer.clear();
 		uvBuffer.clear();
 
+		if (parallel)
+		{
+			uploadParallel(scene, vertexbuffer, uvBuffer);
+		}
+		else
+		{
+			for (int z = 0; z < Constants.MAX_Z; ++z)
+			{
+				for (int x = 0; x < Constants.SCENE_SIZE; ++x)
+				{
+					for (int y = 0; y < Constants.SCENE_SIZE; ++y)
+					{
+						Tile tile = scene.getTiles()[z][x][y];
+						if (tile != null)
+						{
+							upload(tile, vertexbuffer, uvBuffer);
+						}
+					}
+				}
+			}
+		}
+
+		reserveLavaSlots(lavaSlots, vertexbuffer, uvBuffer);
+
+		stopwatch.stop();
+		log.debug("Scene upload time: {}{}", stopwatch, parallel ? " (parallel)" : "");
+	}
+
+	/**
+	 * Upload the scene in two passes. The first pass walks the tiles in the same order as the sequential upload,
+	 * assigning each paint, tile model and model its offsets from a running sum of the vertex counts, without
+	 * writing anything. The second pass fills the resulting disjoint ranges of the buffers from the fork join pool.
+	 */
+	private void uploadParallel(Scene scene, GpuIntBuffer vertexBuffer, GpuFloatBuffer uvBuffer)
+	{
+		List<PendingWrite> writes = new ArrayList<>();
+		vertexReserve = 0;
+		uvReserve = 0;
 		for (int z = 0; z < Constants.MAX_Z; ++z)
 		{
 			for (int x = 0; x < Constants.SCENE_SIZE; ++x)
@@ -73,14 +155,235 @@ class SceneUploader
 					Tile tile = scene.getTiles()[z][x][y];
 					if (tile != null)
 					{
-						upload(tile, vertexbuffer, uvBuffer);
+						assignOffsets(tile, writes);
 					}
 				}
 			}
 		}
 
-		stopwatch.stop();
-		log.debug("Scene upload time: {}", stopwatch);
+		vertexBuffer.ensureCapacity(Math.max(offset, vertexReserve) * 4);
+		uvBuffer.ensureCapacity(Math.max(uvoffset, uvReserve) * 4);
+
+		ForkJoinPool.commonPool().invoke(new FillTask(writes, 0, writes.size(), vertexBuffer, uvBuffer));
+
+		vertexBuffer.getBuffer().position(offset * 4);
+		uvBuffer.getBuffer().position(uvoffset * 4);
+	}
+
+	private void assignOffsets(Tile tile, List<PendingWrite> writes)
+	{
+		Tile bridge = tile.getBridge();
+		if (bridge != null)
+		{
+			assignOffsets(bridge, writes);
+		}
+
+		SceneTilePaint sceneTilePaint = tile.getSceneTilePaint();
+		if (sceneTilePaint != null)
+		{
+			boolean textured = sceneTilePaint.getTexture() != -1;
+			sceneTilePaint.setBufferOffset(offset);
+			sceneTilePaint.setUvBufferOffset(textured ? uvoffset : -1);
+			int len = sceneTilePaint.getNeColor() == 12345678 ? 0 : 6;
+			sceneTilePaint.setBufferLen(len);
+			writes.add(new PendingWrite(tile, sceneTilePaint, offset, uvoffset));
+			reserve(6);
+			offset += len;
+			if (textured)
+			{
+				uvoffset += len;
+			}
+		}
+
+		SceneTileModel sceneTileModel = tile.getSceneTileModel();
+		if (sceneTileModel != null)
+		{
+			boolean textured = sceneTileModel.getTriangleTextureId() != null;
+			sceneTileModel.setBufferOffset(offset);
+			sceneTileModel.setUvBufferOffset(textured ? uvoffset : -1);
+			int len = 0;
+			for (int color : sceneTileModel.getTriangleColorA())
+			{
+				if (color != 12345678)
+				{
+					len += 3;
+				}
+			}
+			sceneTileModel.setBufferLen(len);
+			writes.add(new PendingWrite(tile, sceneTileModel, offset, uvoffset));
+			reserve(sceneTileModel.getFaceX().length * 3);
+			offset += len;
+			if (textured)
+			{
+				uvoffset += len;
+			}
+		}
+
+		WallObject wallObject = tile.getWallObject();
+		if (wallObject != null)
+		{
+			assignOffsets(wallObject.getRenderable1(), writes);
+			assignOffsets(wallObject.getRenderable2(), writes);
+		}
+
+		GroundObject groundObject = tile.getGroundObject();
+		if (groundObject != null)
+		{
+			assignOffsets(groundObject.getRenderable(), writes);
+		}
+
+		DecorativeObject decorativeObject = tile.getDecorativeObject();
+		if (decorativeObject != null)
+		{
+			assignOffsets(decorativeObject.getRenderable(), writes);
+			assignOffsets(decorativeObject.getRenderable2(), writes);
+		}
+
+		for (GameObject gameObject : tile.getGameObjects())
+		{
+			if (gameObject != null)
+			{
+				assignOffsets(gameObject.getRenderable(), writes);
+			}
+		}
+	}
+
+	private void assignOffsets(Renderable renderable, List<PendingWrite> writes)
+	{
+		if (!(renderable instanceof Model))
+		{
+			return;
+		}
+
+		Model model = (Model) renderable;
+		if (model.getSceneId() == sceneId)
+		{
+			return; // model has already been assigned offsets
+		}
+
+		boolean textured = model.getFaceTextures() != null;
+		model.setBufferOffset(offset);
+		model.setUvBufferOffset(textured ? uvoffset : -1);
+		model.setSceneId(sceneId);
+
+		// pushModel writes every face, skipped faces as zeroes
+		int len = Math.min(model.getFaceCount(), GpuPlugin.MAX_TRIANGLE) * 3;
+		writes.add(new PendingWrite(null, model, offset, uvoffset));
+		reserve(len);
+		offset += len;
+		if (textured)
+		{
+			uvoffset += len;
+		}
+	}
+
+	/**
+	 * Make sure there is room for the capacity the upload methods ensure before writing, since the views the
+	 * parallel upload writes through can't grow.
+	 */
+	private void reserve(int vertices)
+	{
+		vertexReserve = Math.max(vertexReserve, offset + vertices);
+		uvReserve = Math.max(uvReserve, uvoffset + vertices);
+	}
+
+	private static class PendingWrite
+	{
+		final Tile tile;
+		final Object source;
+		final int offset;
+		final int uvOffset;
+
+		PendingWrite(Tile tile, Object source, int offset, int uvOffset)
+		{
+			this.tile = tile;
+			this.source = source;
+			this.offset = offset;
+			this.uvOffset = uvOffset;
+		}
+	}
+
+	private class FillTask extends RecursiveAction
+	{
+		private final List<PendingWrite> writes;
+		private final int start;
+		private final int end;
+		private final GpuIntBuffer vertexBuffer;
+		private final GpuFloatBuffer uvBuffer;
+
+		FillTask(List<PendingWrite> writes, int start, int end, GpuIntBuffer vertexBuffer, GpuFloatBuffer uvBuffer)
+		{
+			this.writes = writes;
+			this.start = start;
+			this.end = end;
+			this.vertexBuffer = vertexBuffer;
+			this.uvBuffer = uvBuffer;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (end - start > PARALLEL_WRITE_THRESHOLD)
+			{
+				int mid = (start + end) >>> 1;
+				invokeAll(
+					new FillTask(writes, start, mid, vertexBuffer, uvBuffer),
+					new FillTask(writes, mid, end, vertexBuffer, uvBuffer));
+				return;
+			}
+
+			GpuIntBuffer vertexView = vertexBuffer.view(0);
+			GpuFloatBuffer uvView = uvBuffer.view(0);
+			for (int i = start; i < end; i++)
+			{
+				PendingWrite write = writes.get(i);
+				vertexView.getBuffer().position(write.offset * 4);
+				uvView.getBuffer().position(write.uvOffset * 4);
+
+				if (write.source instanceof SceneTilePaint)
+				{
+					Point tilePoint = write.tile.getSceneLocation();
+					upload((SceneTilePaint) write.source,
+						write.tile.getRenderLevel(), tilePoint.getX(), tilePoint.getY(),
+						vertexView, uvView,
+						0, 0, false);
+				}
+				else if (write.source instanceof SceneTileModel)
+				{
+					Point tilePoint = write.tile.getSceneLocation();
+					upload((SceneTileModel) write.source,
+						tilePoint.getX(), tilePoint.getY(),
+						vertexView, uvView,
+						0, 0, false);
+				}
+				else
+				{
+					pushSceneModel((Model) write.source, vertexView, uvView);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reserve fixed size slots at the end of the scene buffers, which settled lava tiles are written to as they are
+	 * drawn, so they can be referenced from the scene buffer instead of being re-uploaded every frame.
+	 */
+	private void reserveLavaSlots(int lavaSlots, GpuIntBuffer vertexBuffer, GpuFloatBuffer uvBuffer)
+	{
+		this.lavaSlots = lavaSlots;
+		lavaOffset = offset;
+		lavaUvOffset = uvoffset;
+
+		int size = lavaSlots * LAVA_SLOT_VERTICES;
+		vertexBuffer.ensureCapacity(size * 4);
+		uvBuffer.ensureCapacity(size * 4);
+
+		// The slot contents are written once the tiles are drawn
+		vertexBuffer.getBuffer().position(vertexBuffer.getBuffer().position() + size * 4);
+		uvBuffer.getBuffer().position(uvBuffer.getBuffer().position() + size * 4);
+
+		offset += size;
+		uvoffset += size;
 	}
 
 	private void upload(Tile tile, GpuIntBuffer vertexBuffer, GpuFloatBuffer uvBuffer)
@@ -368,7 +671,7 @@ class SceneUploader
 		}
 		model.setSceneId(sceneId);
 
-		int len = pushModel(model, vertexBuffer, uvBuffer);
+		int len = pushSceneModel(model, vertexBuffer, uvBuffer);
 
 		offset += len;
 		if (model.getFaceTextures() != null)
@@ -377,6 +680,52 @@ class SceneUploader
 		}
 	}
 
+	/**
+	 * Push a static scene model, copying its geometry from the model cache if it has been seen in a previous scene.
+	 */
+	int pushSceneModel(Model model, GpuIntBuffer vertexBuffer, GpuFloatBuffer uvBuffer)
+	{
+		if (!modelCache.isEnabled())
+		{
+			return pushModel(model, vertexBuffer, uvBuffer);
+		}
+
+		final long key = ModelGeometryCache.hash(model);
+		ModelGeometryCache.Entry entry = modelCache.get(key, model);
+		if (entry != null)
+		{
+			vertexBuffer.ensureCapacity(entry.vertices.length);
+			vertexBuffer.getBuffer().put(entry.vertices);
+			if (entry.uvs != null)
+			{
+				uvBuffer.ensureCapacity(entry.uvs.length);
+				uvBuffer.getBuffer().put(entry.uvs);
+			}
+			return entry.vertices.length / 4;
+		}
+
+		final int vertexStart = vertexBuffer.getBuffer().position();
+		final int uvStart = uvBuffer.getBuffer().position();
+		final int len = pushModel(model, vertexBuffer, uvBuffer);
+
+		int[] vertices = new int[len * 4];
+		IntBuffer vertexData = vertexBuffer.getBuffer().duplicate();
+		vertexData.position(vertexStart);
+		vertexData.get(vertices);
+
+		float[] uvs = null;
+		if (model.getFaceTextures() != null)
+		{
+			uvs = new float[len * 4];
+			FloatBuffer uvData = uvBuffer.getBuffer().duplicate();
+			uvData.position(uvStart);
+			uvData.get(uvs);
+		}
+
+		modelCache.put(key, new ModelGeometryCache.Entry(model.getFaceCount(), model.getVerticesCount(), vertices, uvs));
+		return len;
+	}
+
 	public int pushModel(Model model, GpuIntBuffer vertexBuffer, GpuFloatBuffer uvBuffer)
 	{
 		final int triangleCount = Math.min(model.getFaceCount(), GpuPlugin.MAX_TRIANGLE);
@@ -57,6 +57,35 @@ public class Shader
 
 	public int compile(Template template) throws ShaderException
 	{
+		return compile(template, null);
+	}
+
+	/**
+	 * @param binaryCache cache to load the linked program from, and to store it in after compiling, or null
+	 */
+	int compile(Template template, ProgramBinaryCache binaryCache) throws ShaderException
+	{
+		int[] types = new int[units.size()];
+		String[] sources = new String[units.size()];
+		for (int j = 0; j < sources.length; j++)
+		{
+			types[j] = units.get(j).type;
+			sources[j] = template.load(units.get(j).filename);
+		}
+
+		String binaryKey = null;
+		if (binaryCache != null)
+		{
+			binaryKey = binaryCache.getKey(types, sources);
+
+			int program = GL43C.glCreateProgram();
+			if (binaryCache.load(program, binaryKey))
+			{
+				return program;
+			}
+			GL43C.glDeleteProgram(program);
+		}
+
 		int program = GL43C.glCreateProgram();
 		int[] shaders = new int[units.size()];
 		int i = 0;
@@ -72,7 +101,7 @@ public class Shader
 					throw new ShaderException("Unable to create shader of type " + unit.type);
 				}
 
-				String source = template.load(unit.filename);
+				String source = sources[i];
 				GL43C.glShaderSource(shader, source);
 				GL43C.glCompileShader(shader);
 
@@ -86,6 +115,10 @@ public class Shader
 				shaders[i++] = shader;
 			}
 
+			if (binaryCache != null)
+			{
+				GL43C.glProgramParameteri(program, GL43C.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL43C.GL_TRUE);
+			}
 			GL43C.glLinkProgram(program);
 
 			if (GL43C.glGetProgrami(program, GL43C.GL_LINK_STATUS) == GL43C.GL_FALSE)
@@ -102,6 +135,11 @@ public class Shader
 				throw new ShaderException(err);
 			}
 
+			if (binaryCache != null)
+			{
+				binaryCache.save(program, binaryKey);
+			}
+
 			ok = true;
 		}
 		finally
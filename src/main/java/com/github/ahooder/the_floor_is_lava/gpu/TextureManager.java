@@ -25,6 +25,9 @@
 package com.github.ahooder.the_floor_is_lava.gpu;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
 import javax.inject.Singleton;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.api.Texture;
@@ -39,27 +42,83 @@ class TextureManager
 {
 	private static final int TEXTURE_SIZE = 128;
 
+	/**
+	 * direct buffer the textures are converted into, kept for the next time the texture array is created
+	 */
+	private ByteBuffer pixelBuffer;
+
+	/**
+	 * conversion of the textures into {@link #pixelBuffer} running on the fork join pool, if any
+	 */
+	private CompletableFuture<Integer> conversion;
+	private int convertedLayers;
+
+	/**
+	 * Create the texture array once all textures are loaded. The textures are converted on a worker, so this
+	 * returns -1 until the conversion has finished, after which the whole array is uploaded at once.
+	 */
 	int initTextureArray(TextureProvider textureProvider)
 	{
-		if (!allTexturesLoaded(textureProvider))
+		if (conversion == null)
 		{
+			int[][] pixels = loadTextures(textureProvider);
+			if (pixels == null)
+			{
+				return -1;
+			}
+
+			// Textures are loaded with the client's brightness applied, but have to be uploaded unmodified. Switching
+			// the brightness drops the loaded textures, so only do it once they are all available.
+			if (textureProvider.getBrightness() != 1.0d)
+			{
+				double save = textureProvider.getBrightness();
+				textureProvider.setBrightness(1.0d);
+				pixels = loadTextures(textureProvider);
+				textureProvider.setBrightness(save);
+
+				if (pixels == null)
+				{
+					return -1;
+				}
+			}
+
+			convertedLayers = pixels.length;
+			conversion = convertTextures(pixels);
 			return -1;
 		}
 
-		Texture[] textures = textureProvider.getTextures();
+		if (!conversion.isDone())
+		{
+			return -1;
+		}
+
+		int cnt;
+		try
+		{
+			cnt = conversion.join();
+		}
+		catch (CompletionException ex)
+		{
+			log.warn("Unable to convert textures", ex);
+			return -1;
+		}
+		finally
+		{
+			conversion = null;
+		}
 
 		int textureArrayId = GL43C.glGenTextures();
 		GL43C.glBindTexture(GL43C.GL_TEXTURE_2D_ARRAY, textureArrayId);
 		if (GL.getCapabilities().glTexStorage3D != 0)
 		{
-			GL43C.glTexStorage3D(GL43C.GL_TEXTURE_2D_ARRAY, 8, GL43C.GL_RGBA8, TEXTURE_SIZE, TEXTURE_SIZE, textures.length);
+			GL43C.glTexStorage3D(GL43C.GL_TEXTURE_2D_ARRAY, 8, GL43C.GL_RGBA8, TEXTURE_SIZE, TEXTURE_SIZE, convertedLayers);
 		}
 		else
 		{
 			int size = TEXTURE_SIZE;
 			for (int i = 0; i < 8; i++)
 			{
-				GL43C.glTexImage3D(GL43C.GL_TEXTURE_2D_ARRAY, i, GL43C.GL_RGBA8, size, size, textures.length, 0, GL43C.GL_RGBA, GL43C.GL_UNSIGNED_BYTE, 0);
+				GL43C.glTexImage3D(GL43C.GL_TEXTURE_2D_ARRAY, i, GL43C.GL_RGBA8, size, size, convertedLayers, 0, GL43C.GL_RGBA, GL43C.GL_UNSIGNED_BYTE, 0);
 				size /= 2;
 			}
 		}
@@ -69,13 +128,10 @@ class TextureManager
 
 		GL43C.glTexParameteri(GL43C.GL_TEXTURE_2D_ARRAY, GL43C.GL_TEXTURE_WRAP_S, GL43C.GL_CLAMP_TO_EDGE);
 
-		// Set brightness to 1.0d to upload unmodified textures to GPU
-		double save = textureProvider.getBrightness();
-		textureProvider.setBrightness(1.0d);
-
-		updateTextures(textureProvider, textureArrayId);
-
-		textureProvider.setBrightness(save);
+		pixelBuffer.position(0).limit(convertedLayers * TEXTURE_SIZE * TEXTURE_SIZE * 4);
+		GL43C.glTexSubImage3D(GL43C.GL_TEXTURE_2D_ARRAY, 0, 0, 0, 0, TEXTURE_SIZE, TEXTURE_SIZE,
+			convertedLayers, GL43C.GL_RGBA, GL43C.GL_UNSIGNED_BYTE, pixelBuffer);
+		log.debug("Uploaded textures {}", cnt);
 
 		GL43C.glActiveTexture(GL43C.GL_TEXTURE1);
 		GL43C.glBindTexture(GL43C.GL_TEXTURE_2D_ARRAY, textureArrayId);
@@ -119,105 +175,91 @@ class TextureManager
 	}
 
 	/**
-	 * Check if all textures have been loaded and cached yet.
+	 * Load the pixels of all textures.
 	 *
 	 * @param textureProvider
-	 * @return
+	 * @return the pixels of each texture, or null if not all textures have been loaded and cached yet
 	 */
-	private boolean allTexturesLoaded(TextureProvider textureProvider)
+	private static int[][] loadTextures(TextureProvider textureProvider)
 	{
 		Texture[] textures = textureProvider.getTextures();
 		if (textures == null || textures.length == 0)
 		{
-			return false;
+			return null;
 		}
 
+		int[][] pixels = new int[textures.length][];
 		for (int textureId = 0; textureId < textures.length; textureId++)
 		{
-			Texture texture = textures[textureId];
-			if (texture != null)
+			if (textures[textureId] != null)
 			{
-				int[] pixels = textureProvider.load(textureId);
-				if (pixels == null)
+				pixels[textureId] = textureProvider.load(textureId);
+				if (pixels[textureId] == null)
 				{
-					return false;
+					return null;
 				}
 			}
 		}
 
-		return true;
+		return pixels;
 	}
 
-	private void updateTextures(TextureProvider textureProvider, int textureArrayId)
+	/**
+	 * Convert the textures into consecutive layers of {@link #pixelBuffer} in parallel.
+	 *
+	 * @return the number of textures converted
+	 */
+	private CompletableFuture<Integer> convertTextures(int[][] pixels)
 	{
-		Texture[] textures = textureProvider.getTextures();
-
-		GL43C.glBindTexture(GL43C.GL_TEXTURE_2D_ARRAY, textureArrayId);
-
-		int cnt = 0;
-		for (int textureId = 0; textureId < textures.length; textureId++)
+		final int layerSize = TEXTURE_SIZE * TEXTURE_SIZE * 4;
+		if (pixelBuffer == null || pixelBuffer.capacity() < pixels.length * layerSize)
 		{
-			Texture texture = textures[textureId];
-			if (texture != null)
+			pixelBuffer = ByteBuffer.allocateDirect(pixels.length * layerSize);
+		}
+
+		final ByteBuffer buffer = pixelBuffer;
+		return CompletableFuture.supplyAsync(() -> (int) IntStream.range(0, pixels.length)
+			.parallel()
+			.filter(textureId ->
 			{
-				int[] srcPixels = textureProvider.load(textureId);
+				int[] srcPixels = pixels[textureId];
 				if (srcPixels == null)
 				{
-					log.warn("No pixels for texture {}!", textureId);
-					continue; // this can't happen
+					clearLayer(buffer, textureId * layerSize);
+					return false;
 				}
 
-				++cnt;
-
 				if (srcPixels.length != TEXTURE_SIZE * TEXTURE_SIZE)
 				{
 					// The texture storage is 128x128 bytes, and will only work correctly with the
 					// 128x128 textures from high detail mode
 					log.warn("Texture size for {} is {}!", textureId, srcPixels.length);
-					continue;
+					clearLayer(buffer, textureId * layerSize);
+					return true;
 				}
 
-				byte[] pixels = convertPixels(srcPixels, TEXTURE_SIZE, TEXTURE_SIZE, TEXTURE_SIZE, TEXTURE_SIZE);
-				ByteBuffer pixelBuffer = ByteBuffer.allocateDirect(pixels.length);
-				pixelBuffer.put(pixels);
-				pixelBuffer.flip();
-				GL43C.glTexSubImage3D(GL43C.GL_TEXTURE_2D_ARRAY, 0, 0, 0, textureId, TEXTURE_SIZE, TEXTURE_SIZE,
-					1, GL43C.GL_RGBA, GL43C.GL_UNSIGNED_BYTE, pixelBuffer);
-			}
-		}
-
-		log.debug("Uploaded textures {}", cnt);
+				convertPixels(srcPixels, buffer, textureId * layerSize);
+				return true;
+			})
+			.count());
 	}
 
-	private static byte[] convertPixels(int[] srcPixels, int width, int height, int textureWidth, int textureHeight)
+	private static void convertPixels(int[] srcPixels, ByteBuffer pixels, int offset)
 	{
-		byte[] pixels = new byte[textureWidth * textureHeight * 4];
-
-		int pixelIdx = 0;
-		int srcPixelIdx = 0;
-
-		int offset = (textureWidth - width) * 4;
+		// The buffer is big endian, so this writes the RGBA bytes in order
+		for (int i = 0; i < srcPixels.length; i++)
+		{
+			int rgb = srcPixels[i];
+			pixels.putInt(offset + i * 4, rgb != 0 ? rgb << 8 | 0xFF : 0);
+		}
+	}
 
-		for (int y = 0; y < height; y++)
+	private static void clearLayer(ByteBuffer pixels, int offset)
+	{
+		for (int i = 0; i < TEXTURE_SIZE * TEXTURE_SIZE; i++)
 		{
-			for (int x = 0; x < width; x++)
-			{
-				int rgb = srcPixels[srcPixelIdx++];
-				if (rgb != 0)
-				{
-					pixels[pixelIdx++] = (byte) (rgb >> 16);
-					pixels[pixelIdx++] = (byte) (rgb >> 8);
-					pixels[pixelIdx++] = (byte) rgb;
-					pixels[pixelIdx++] = (byte) -1;
-				}
-				else
-				{
-					pixelIdx += 4;
-				}
-			}
-			pixelIdx += offset;
+			pixels.putInt(offset + i * 4, 0);
 		}
-		return pixels;
 	}
 
 	float[] computeTextureAnimations(TextureProvider textureProvider)
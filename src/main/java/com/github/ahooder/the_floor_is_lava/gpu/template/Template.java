@@ -30,16 +30,42 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class Template
 {
+	/**
+	 * Classpath resources, keyed by the including class and the resource name
+	 */
+	private static final Map<String, Optional<String>> RESOURCE_CACHE = new ConcurrentHashMap<>();
+
+	/**
+	 * Fully resolved sources, keyed by the template's loaders and the filename
+	 */
+	private static final Map<String, String> SOURCE_CACHE = new ConcurrentHashMap<>();
+
 	private final List<Function<String, String>> resourceLoaders = new ArrayList<>();
 
+	/**
+	 * Describes the loaders added so far, or null if a loader was added which can't be described, in which case the
+	 * resolved sources can't be cached.
+	 */
+	private StringBuilder cacheKey = new StringBuilder();
+
 	public String process(String str)
+	{
+		return process(null, str, new HashSet<>());
+	}
+
+	private String process(String filename, String str, Set<String> onceIncluded)
 	{
 		StringBuilder sb = new StringBuilder();
 		for (String line : str.split("\r?\n"))
@@ -47,9 +73,16 @@ public class Template
 			if (line.startsWith("#include "))
 			{
 				String resource = line.substring(9);
-				String resourceStr = load(resource);
+				String resourceStr = load(resource, onceIncluded);
 				sb.append(resourceStr);
 			}
+			else if (line.trim().equals("#pragma once"))
+			{
+				if (filename != null && !onceIncluded.add(filename))
+				{
+					return "";
+				}
+			}
 			else
 			{
 				sb.append(line).append('\n');
@@ -59,13 +92,23 @@ public class Template
 	}
 
 	public String load(String filename)
+	{
+		if (cacheKey == null)
+		{
+			return load(filename, new HashSet<>());
+		}
+
+		return SOURCE_CACHE.computeIfAbsent(cacheKey + filename, k -> load(filename, new HashSet<>()));
+	}
+
+	private String load(String filename, Set<String> onceIncluded)
 	{
 		for (Function<String, String> loader : resourceLoaders)
 		{
 			String value = loader.apply(filename);
 			if (value != null)
 			{
-				return process(value);
+				return process(filename, value, onceIncluded);
 			}
 		}
 
@@ -75,26 +118,46 @@ public class Template
 	public Template add(Function<String, String> fn)
 	{
 		resourceLoaders.add(fn);
+		cacheKey = null;
+		return this;
+	}
+
+	/**
+	 * Resolve includes of the given key to the given value. Unlike {@link #add}, this keeps the resolved sources
+	 * cacheable.
+	 */
+	public Template define(String key, String value)
+	{
+		resourceLoaders.add(k -> k.equals(key) ? value : null);
+		if (cacheKey != null)
+		{
+			cacheKey.append("define ").append(key).append('=').append(value).append('\0');
+		}
 		return this;
 	}
 
 	public Template addInclude(Class<?> clazz)
 	{
-		return add(f ->
+		resourceLoaders.add(f -> RESOURCE_CACHE.computeIfAbsent(clazz.getName() + ':' + f, k ->
 		{
 			try (InputStream is = clazz.getResourceAsStream(f))
 			{
 				if (is != null)
 				{
-					return inputStreamToString(is);
+					return Optional.of(inputStreamToString(is));
 				}
 			}
 			catch (IOException ex)
 			{
 				log.warn(null, ex);
 			}
-			return null;
-		});
+			return Optional.empty();
+		}).orElse(null));
+		if (cacheKey != null)
+		{
+			cacheKey.append("include ").append(clazz.getName()).append('\0');
+		}
+		return this;
 	}
 
 	private static String inputStreamToString(InputStream in)
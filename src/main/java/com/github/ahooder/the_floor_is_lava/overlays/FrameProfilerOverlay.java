@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.overlays;
+
+import com.github.ahooder.the_floor_is_lava.Config;
+import com.github.ahooder.the_floor_is_lava.LavaPlugin;
+import com.github.ahooder.the_floor_is_lava.gpu.FrameProfiler;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import javax.inject.Inject;
+import net.runelite.client.ui.overlay.OverlayPanel;
+import net.runelite.client.ui.overlay.OverlayPosition;
+import net.runelite.client.ui.overlay.OverlayPriority;
+import net.runelite.client.ui.overlay.components.LineComponent;
+import net.runelite.client.ui.overlay.components.TitleComponent;
+
+public class FrameProfilerOverlay extends OverlayPanel
+{
+	@Inject
+	private Config config;
+	private final FrameProfiler profiler;
+
+	@Inject
+	private FrameProfilerOverlay(LavaPlugin plugin, FrameProfiler profiler)
+	{
+		super(plugin);
+		this.profiler = profiler;
+		setPosition(OverlayPosition.TOP_RIGHT);
+		setPriority(OverlayPriority.LOW);
+	}
+
+	@Override
+	public Dimension render(Graphics2D graphics)
+	{
+		if (!config.frameProfiler() || !profiler.isEnabled())
+			return null;
+
+		panelComponent.getChildren().add(TitleComponent.builder()
+			.text("Frame times over " + profiler.getFrameCount() + " frames")
+			.build());
+		panelComponent.getChildren().add(LineComponent.builder()
+			.left("Stage")
+			.right("p50 / p99 ms")
+			.build());
+
+		for (FrameProfiler.Stage stage : FrameProfiler.Stage.values())
+		{
+			panelComponent.getChildren().add(LineComponent.builder()
+				.left(stage.getName())
+				.right(formatPercentiles(stage, false))
+				.build());
+
+			if (profiler.isGpuTimers() && stage.isGpu())
+			{
+				panelComponent.getChildren().add(LineComponent.builder()
+					.left("  GPU")
+					.right(formatPercentiles(stage, true))
+					.build());
+			}
+		}
+
+		panelComponent.setPreferredSize(new Dimension(220, 0));
+
+		return super.render(graphics);
+	}
+
+	private String formatPercentiles(FrameProfiler.Stage stage, boolean gpu)
+	{
+		return String.format("%.2f / %.2f",
+			profiler.getPercentile(stage, gpu, .5) / 1e6,
+			profiler.getPercentile(stage, gpu, .99) / 1e6);
+	}
+}
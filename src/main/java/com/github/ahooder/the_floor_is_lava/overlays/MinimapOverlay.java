@@ -30,13 +30,12 @@ import com.github.ahooder.the_floor_is_lava.LavaPlugin;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
-import java.util.Collection;
 import javax.inject.Inject;
 import net.runelite.api.Client;
 import net.runelite.api.Perspective;
+import net.runelite.api.Player;
 import net.runelite.api.Point;
 import net.runelite.api.coords.LocalPoint;
-import net.runelite.api.coords.WorldPoint;
 import net.runelite.client.ui.overlay.Overlay;
 import net.runelite.client.ui.overlay.OverlayLayer;
 import net.runelite.client.ui.overlay.OverlayPosition;
@@ -48,6 +47,7 @@ public class MinimapOverlay extends Overlay
 	private static final int MAX_DRAW_DISTANCE = 16;
 	private static final int TILE_WIDTH = 4;
 	private static final int TILE_HEIGHT = 4;
+	private static final Color TILE_COLOR = new Color(255, 89, 0);
 
 	private final Client client;
 	private final Config config;
@@ -72,47 +72,40 @@ public class MinimapOverlay extends Overlay
 			return null;
 		}
 
-		final Collection<WorldPoint> points = lavaPlugin.getPoints();
-		for (final WorldPoint point : points)
+		final Player player = client.getLocalPlayer();
+		if (player == null)
 		{
-			WorldPoint worldPoint = point;
-			if (worldPoint.getPlane() != client.getPlane())
+			return null;
+		}
+
+		final LocalPoint playerLocation = player.getLocalLocation();
+		final int plane = client.getPlane();
+		final int playerX = playerLocation.getSceneX();
+		final int playerY = playerLocation.getSceneY();
+
+		// Only look at the tiles within the draw distance around the player in the scene tile index
+		for (int x = playerX - MAX_DRAW_DISTANCE + 1; x < playerX + MAX_DRAW_DISTANCE; x++)
+		{
+			for (int y = playerY - MAX_DRAW_DISTANCE + 1; y < playerY + MAX_DRAW_DISTANCE; y++)
 			{
-				continue;
+				if (lavaPlugin.containsTile(plane, x, y))
+				{
+					drawOnMinimap(graphics, LocalPoint.fromScene(x, y));
+				}
 			}
-
-			drawOnMinimap(graphics, worldPoint);
 		}
 
 		return null;
 	}
 
-	private void drawOnMinimap(Graphics2D graphics, WorldPoint point)
+	private void drawOnMinimap(Graphics2D graphics, LocalPoint lp)
 	{
-		WorldPoint playerLocation = client.getLocalPlayer().getWorldLocation();
-
-		if (point.distanceTo(playerLocation) >= MAX_DRAW_DISTANCE)
-		{
-			return;
-		}
-
-		LocalPoint lp = LocalPoint.fromWorld(client, point);
-		if (lp == null)
-		{
-			return;
-		}
-
 		Point posOnMinimap = Perspective.localToMinimap(client, lp);
 		if (posOnMinimap == null)
 		{
 			return;
 		}
 
-		OverlayUtil.renderMinimapRect(client, graphics, posOnMinimap, TILE_WIDTH, TILE_HEIGHT, getTileColor());
-	}
-
-	private Color getTileColor()
-	{
-		return new Color(255, 89, 0);
+		OverlayUtil.renderMinimapRect(client, graphics, posOnMinimap, TILE_WIDTH, TILE_HEIGHT, TILE_COLOR);
 	}
 }
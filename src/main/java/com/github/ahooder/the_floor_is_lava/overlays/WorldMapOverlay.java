@@ -34,8 +34,15 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import javax.inject.Inject;
 import net.runelite.api.Client;
+import net.runelite.api.Constants;
 import net.runelite.api.Point;
 import net.runelite.api.RenderOverview;
 import net.runelite.api.widgets.Widget;
@@ -50,6 +57,26 @@ public class WorldMapOverlay extends Overlay
 	private static final int REGION_SIZE = 1 << 6;
 	// Bitmask to return first coordinate in region
 	private static final int REGION_TRUNCATE = ~((1 << 6) - 1);
+	private static final int MAX_CACHED_REGIONS = 512;
+	private static final Color TILE_COLOR = new Color(255, 89, 0);
+
+	/**
+	 * 1 pixel per tile masks of the lava tiles in a region, one per plane
+	 */
+	private static class RegionImage
+	{
+		private Collection<LavaTile> tiles;
+		private final BufferedImage[] planes = new BufferedImage[Constants.MAX_Z];
+	}
+
+	private final Map<Integer, RegionImage> regionImages = new LinkedHashMap<Integer, RegionImage>(16, .75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, RegionImage> eldest)
+		{
+			return size() > MAX_CACHED_REGIONS;
+		}
+	};
 
 	private final Client client;
 	private final Config config;
@@ -104,30 +131,85 @@ public class WorldMapOverlay extends Overlay
 		int yRegionMin = (yTileMin & REGION_TRUNCATE);
 		int yRegionMax = ((worldMapPosition.getY() + heightInTiles / 2) & REGION_TRUNCATE) + REGION_SIZE;
 		int regionPixelSize = (int) Math.ceil(REGION_SIZE * pixelsPerTile);
+		int tileSize = regionPixelSize / REGION_SIZE;
+		int plane = client.getPlane();
+
+		Object interpolation = graphics.getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+		graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
 
 		for (int x = xRegionMin; x < xRegionMax; x += REGION_SIZE)
 		{
 			for (int y = yRegionMin; y < yRegionMax; y += REGION_SIZE)
 			{
 				int regionId = ((x >> 6) << 8) | (y >> 6);
-				for (final LavaTile tile : lavaPlugin.getTiles(regionId))
+				BufferedImage image = getRegionImage(regionId, plane);
+				if (image == null)
 				{
-					if (tile.getZ() != client.getPlane())
-					{
-						continue;
-					}
-					int yTileOffset = -(yTileMin - y) + 2; // Added offset of 2 as tiles were misaligned
-					int xTileOffset = x + widthInTiles / 2 - worldMapPosition.getX();
-					int xPos = ((int) (xTileOffset * pixelsPerTile)) + (int) worldMapRect.getX();
-					int yPos = (worldMapRect.height - (int) (yTileOffset * pixelsPerTile)) + (int) worldMapRect.getY();
-					int size = (regionPixelSize / (64 - Math.round(48f * ((8f - pixelsPerTile) / 7f))));
-					int tileSize = regionPixelSize / 64;
-
-					graphics.setColor(new Color(255, 89, 0));
-					graphics.fillRect(xPos + (tile.getRegionX() * tileSize), yPos - (tile.getRegionY() * tileSize) + tileSize, size - 1, size - 1);
-					graphics.drawRect(xPos + (tile.getRegionX() * tileSize), yPos - (tile.getRegionY() * tileSize) + tileSize, size - 1, size - 1);
+					continue;
 				}
+
+				int yTileOffset = -(yTileMin - y) + 2; // Added offset of 2 as tiles were misaligned
+				int xTileOffset = x + widthInTiles / 2 - worldMapPosition.getX();
+				int xPos = ((int) (xTileOffset * pixelsPerTile)) + (int) worldMapRect.getX();
+				int yPos = (worldMapRect.height - (int) (yTileOffset * pixelsPerTile)) + (int) worldMapRect.getY();
+
+				// yPos is the bottom edge of the second row of tiles from the bottom of the region
+				graphics.drawImage(image, xPos, yPos + 2 * tileSize - regionPixelSize, regionPixelSize, regionPixelSize, null);
 			}
 		}
+
+		if (interpolation != null)
+		{
+			graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+		}
+	}
+
+	/**
+	 * @return a mask of the region's lava tiles on the plane, rebuilt only when the region's tiles have changed,
+	 * or null if there are no lava tiles in the region.
+	 */
+	private BufferedImage getRegionImage(int regionId, int plane)
+	{
+		Collection<LavaTile> tiles = lavaPlugin.getTiles(regionId);
+		if (tiles.isEmpty())
+		{
+			regionImages.remove(regionId);
+			return null;
+		}
+
+		RegionImage regionImage = regionImages.get(regionId);
+		if (regionImage == null)
+		{
+			regionImage = new RegionImage();
+			regionImages.put(regionId, regionImage);
+		}
+
+		// The plugin replaces the collection whenever the region's tiles change
+		if (regionImage.tiles != tiles)
+		{
+			regionImage.tiles = tiles;
+			for (int i = 0; i < regionImage.planes.length; i++)
+			{
+				regionImage.planes[i] = null;
+			}
+		}
+
+		BufferedImage image = regionImage.planes[plane];
+		if (image == null)
+		{
+			image = new BufferedImage(REGION_SIZE, REGION_SIZE, BufferedImage.TYPE_INT_ARGB);
+			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			int color = TILE_COLOR.getRGB();
+			for (final LavaTile tile : tiles)
+			{
+				if (tile.getZ() == plane)
+				{
+					pixels[(REGION_SIZE - 1 - tile.getRegionY()) * REGION_SIZE + tile.getRegionX()] = color;
+				}
+			}
+			regionImage.planes[plane] = image;
+		}
+
+		return image;
 	}
 }
@@ -3,6 +3,8 @@
 // https://web.archive.org/web/20090731011248/http://scien.stanford.edu/class/psych221/projects/05/ofidaner/project_report.pdf
 //
 
+#pragma once
+
 #define NONE 0
 #define PROTAN 1
 #define DEUTERAN 2
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+#include lava_config
+
+#include cl_types.cl
+#include common.cl
+
+#define LAVA_TEXTURE_METADATA as_float(1)
+
+struct lavainfo {
+  int x;     // scene tile x
+  int y;     // scene tile y
+  int flags; // plane, bridge
+  int idx;   // write idx in target buffer
+};
+
+int tile_height(__global const int *tileHeights, int plane, int x, int y) {
+  return tileHeights[(plane * (SCENE_SIZE + 1) + x) * (SCENE_SIZE + 1) + y];
+}
+
+int tile_start(__global const int *tileStarts, int plane, int x, int y) {
+  if (x < 0 || y < 0 || x >= SCENE_SIZE || y >= SCENE_SIZE) {
+    return LAVA_NONE;
+  }
+  return tileStarts[(plane * SCENE_SIZE + x) * SCENE_SIZE + y];
+}
+
+bool is_lava(__global const int *tileStarts, int lavaTime, int plane, int x, int y) {
+  // Settled tiles sort below any time, and tiles without lava above it
+  return tile_start(tileStarts, plane, x, y) <= lavaTime;
+}
+
+// Adds a quad as two faces, in the same winding as the CPU lava geometry
+void add_quad(int4 *faces, int *faceCount, int4 a, int4 b, int4 c, int4 d, int4 e, int4 f) {
+  int i = *faceCount * 3;
+  faces[i]     = a;
+  faces[i + 1] = b;
+  faces[i + 2] = c;
+  faces[i + 3] = d;
+  faces[i + 4] = e;
+  faces[i + 5] = f;
+  *faceCount += 2;
+}
+
+__kernel
+__attribute__((reqd_work_group_size(LAVA_WORK_GROUP_SIZE, 1, 1)))
+void computeLava(__global const struct lavainfo *lol,
+                 __global const int *tileHeights,
+                 __global const int *tileStarts,
+                 __global int4 *vout,
+                 __global float4 *uvout,
+                 __constant struct uniform *uni,
+                 int lavaTileCount,
+                 int lavaTime) {
+  size_t id = get_global_id(0);
+  if (id >= lavaTileCount) {
+    return;
+  }
+
+  struct lavainfo info = lol[id];
+  int plane = info.flags & LAVA_FLAG_PLANE;
+  bool isBridge = (info.flags & LAVA_FLAG_BRIDGE) != 0;
+  int tileX = info.x;
+  int tileY = info.y;
+  int start = tile_start(tileStarts, plane, tileX, tileY);
+  int elapsed = start == LAVA_SETTLED ? LAVA_SETTLED_ELAPSED : lavaTime - start;
+
+  int swtop = tile_height(tileHeights, plane, tileX, tileY);
+  int setop = tile_height(tileHeights, plane, tileX + 1, tileY);
+  int nwtop = tile_height(tileHeights, plane, tileX, tileY + 1);
+  int netop = tile_height(tileHeights, plane, tileX + 1, tileY + 1);
+
+  int maxHeight = max(max(swtop, setop), max(nwtop, netop));
+
+  int lavaHeight = LAVA_DEPTH;
+  if (plane > 0) {
+    lavaHeight = maxHeight + 32;
+  }
+
+  int minHeight = lavaHeight;
+  lavaHeight = (int) fmax((float) maxHeight, fmin((float) minHeight, maxHeight + LAVA_FALLING_SPEED * (float) elapsed / 1000.0f));
+
+  int fade = 0;
+  if (minHeight != maxHeight) {
+    fade = clamp((lavaHeight - maxHeight - minHeight) * 15 / (minHeight - maxHeight), 0, 15);
+  }
+  int midColor = LAVA_TOP_COLOR | fade;
+
+  nwtop -= lavaHeight;
+  netop -= lavaHeight;
+  swtop -= lavaHeight;
+  setop -= lavaHeight;
+
+  // Bottom face height
+  int nwbot = 0, nebot = 0, swbot = 0, sebot = 0;
+  if (isBridge) {
+    nwbot = nwtop;
+    nebot = netop;
+    swbot = swtop;
+    sebot = setop;
+  }
+
+  int4 faces[LAVA_MAX_FACES * 3];
+  int faceCount = 0;
+
+  // Textured bottom face
+  add_quad(faces, &faceCount,
+    (int4)(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, LAVA_TEXTURE_COLOR),
+    (int4)(0, nwbot, LOCAL_TILE_SIZE, LAVA_TEXTURE_COLOR),
+    (int4)(LOCAL_TILE_SIZE, sebot, 0, LAVA_TEXTURE_COLOR),
+    (int4)(0, swbot, 0, LAVA_TEXTURE_COLOR),
+    (int4)(LOCAL_TILE_SIZE, sebot, 0, LAVA_TEXTURE_COLOR),
+    (int4)(0, nwbot, LOCAL_TILE_SIZE, LAVA_TEXTURE_COLOR));
+
+  if (lavaHeight != minHeight) {
+    // Walls beneath while animating
+    int wallHeight = minHeight - lavaHeight;
+    add_quad(faces, &faceCount,
+      (int4)(0, nwbot, LOCAL_TILE_SIZE, midColor),
+      (int4)(0, wallHeight, 0, LAVA_BOTTOM_COLOR),
+      (int4)(0, swbot, 0, midColor),
+      (int4)(0, wallHeight, 0, LAVA_BOTTOM_COLOR),
+      (int4)(0, nwbot, LOCAL_TILE_SIZE, midColor),
+      (int4)(0, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR));
+    add_quad(faces, &faceCount,
+      (int4)(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, midColor),
+      (int4)(0, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(0, nwbot, LOCAL_TILE_SIZE, midColor),
+      (int4)(0, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, midColor),
+      (int4)(LOCAL_TILE_SIZE, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR));
+    add_quad(faces, &faceCount,
+      (int4)(LOCAL_TILE_SIZE, sebot, 0, midColor),
+      (int4)(LOCAL_TILE_SIZE, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, midColor),
+      (int4)(LOCAL_TILE_SIZE, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, sebot, 0, midColor),
+      (int4)(LOCAL_TILE_SIZE, wallHeight, 0, LAVA_BOTTOM_COLOR));
+    add_quad(faces, &faceCount,
+      (int4)(0, swbot, 0, midColor),
+      (int4)(LOCAL_TILE_SIZE, wallHeight, 0, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, sebot, 0, midColor),
+      (int4)(LOCAL_TILE_SIZE, wallHeight, 0, LAVA_BOTTOM_COLOR),
+      (int4)(0, swbot, 0, midColor),
+      (int4)(0, wallHeight, 0, LAVA_BOTTOM_COLOR));
+  }
+
+  // Walls towards neighbouring tiles without lava
+  if (!is_lava(tileStarts, lavaTime, plane, tileX - 1, tileY)) {
+    add_quad(faces, &faceCount,
+      (int4)(0, nwtop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR),
+      (int4)(0, swtop, 0, LAVA_TOP_COLOR),
+      (int4)(0, swbot, 0, LAVA_BOTTOM_COLOR),
+      (int4)(0, swbot, 0, LAVA_BOTTOM_COLOR),
+      (int4)(0, nwbot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(0, nwtop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR));
+  }
+  if (!is_lava(tileStarts, lavaTime, plane, tileX, tileY + 1)) {
+    add_quad(faces, &faceCount,
+      (int4)(LOCAL_TILE_SIZE, netop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR),
+      (int4)(0, nwtop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR),
+      (int4)(0, nwbot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(0, nwbot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, netop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR));
+  }
+  if (!is_lava(tileStarts, lavaTime, plane, tileX + 1, tileY)) {
+    add_quad(faces, &faceCount,
+      (int4)(LOCAL_TILE_SIZE, setop, 0, LAVA_TOP_COLOR),
+      (int4)(LOCAL_TILE_SIZE, netop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR),
+      (int4)(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, sebot, 0, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, setop, 0, LAVA_TOP_COLOR));
+  }
+  if (!is_lava(tileStarts, lavaTime, plane, tileX, tileY - 1)) {
+    add_quad(faces, &faceCount,
+      (int4)(0, swtop, 0, LAVA_TOP_COLOR),
+      (int4)(LOCAL_TILE_SIZE, setop, 0, LAVA_TOP_COLOR),
+      (int4)(LOCAL_TILE_SIZE, sebot, 0, LAVA_BOTTOM_COLOR),
+      (int4)(LOCAL_TILE_SIZE, sebot, 0, LAVA_BOTTOM_COLOR),
+      (int4)(0, swbot, 0, LAVA_BOTTOM_COLOR),
+      (int4)(0, swtop, 0, LAVA_TOP_COLOR));
+  }
+
+  int4 pos = (int4)(tileX * LOCAL_TILE_SIZE, lavaHeight, tileY * LOCAL_TILE_SIZE, 0);
+  int outOffset = info.idx;
+
+  // Every tile has room for the maximum number of faces. The unused ones are written first as degenerate
+  // triangles, so they don't draw anything.
+  int unused = LAVA_MAX_FACES - faceCount;
+  for (int i = 0; i < unused * 3; ++i) {
+    vout[outOffset + i] = pos;
+    uvout[outOffset + i] = (float4)(0.0f, 0.0f, 0.0f, 0.0f);
+  }
+
+  // Sort the faces back to front, the same way the priority renderer orders faces of equal priority
+  int dis[LAVA_MAX_FACES];
+  for (int i = 0; i < faceCount; ++i) {
+    dis[i] = face_distance(faces[i * 3], faces[i * 3 + 1], faces[i * 3 + 2], uni->cameraYaw, uni->cameraPitch);
+  }
+
+  for (int i = 0; i < faceCount; ++i) {
+    int myOffset = unused;
+    for (int j = 0; j < faceCount; ++j) {
+      if (dis[j] > dis[i] || (dis[j] == dis[i] && j < i)) {
+        ++myOffset;
+      }
+    }
+
+    vout[outOffset + myOffset * 3]     = pos + faces[i * 3];
+    vout[outOffset + myOffset * 3 + 1] = pos + faces[i * 3 + 1];
+    vout[outOffset + myOffset * 3 + 2] = pos + faces[i * 3 + 2];
+
+    if (i == 0) {
+      uvout[outOffset + myOffset * 3]     = (float4)((float) LAVA_TEXTURE, 1.0f, 1.0f, LAVA_TEXTURE_METADATA);
+      uvout[outOffset + myOffset * 3 + 1] = (float4)((float) LAVA_TEXTURE, 0.0f, 1.0f, LAVA_TEXTURE_METADATA);
+      uvout[outOffset + myOffset * 3 + 2] = (float4)((float) LAVA_TEXTURE, 1.0f, 0.0f, LAVA_TEXTURE_METADATA);
+    } else if (i == 1) {
+      uvout[outOffset + myOffset * 3]     = (float4)((float) LAVA_TEXTURE, 0.0f, 0.0f, LAVA_TEXTURE_METADATA);
+      uvout[outOffset + myOffset * 3 + 1] = (float4)((float) LAVA_TEXTURE, 1.0f, 0.0f, LAVA_TEXTURE_METADATA);
+      uvout[outOffset + myOffset * 3 + 2] = (float4)((float) LAVA_TEXTURE, 0.0f, 1.0f, LAVA_TEXTURE_METADATA);
+    } else {
+      uvout[outOffset + myOffset * 3]     = (float4)(0.0f, 0.0f, 0.0f, 0.0f);
+      uvout[outOffset + myOffset * 3 + 1] = (float4)(0.0f, 0.0f, 0.0f, 0.0f);
+      uvout[outOffset + myOffset * 3 + 2] = (float4)(0.0f, 0.0f, 0.0f, 0.0f);
+    }
+  }
+}
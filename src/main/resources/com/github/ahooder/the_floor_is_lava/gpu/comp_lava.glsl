@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+#include version_header
+
+#include comp_common.glsl
+#include lava_config
+
+layout(local_size_x = LAVA_WORK_GROUP_SIZE) in;
+
+#include common.glsl
+
+#define LAVA_TEXTURE_METADATA intBitsToFloat(1)
+
+struct lavainfo {
+  int x;     // scene tile x
+  int y;     // scene tile y
+  int flags; // plane, bridge
+  int idx;   // write idx in target buffer
+};
+
+layout(std430, binding = 7) readonly buffer lavabuffer_in {
+  lavainfo lol[];
+};
+
+layout(std430, binding = 8) readonly buffer lavaheights_in {
+  int tileHeights[];
+};
+
+layout(std430, binding = 9) readonly buffer lavastarts_in {
+  int tileStarts[];
+};
+
+uniform int lavaTileCount;
+uniform int lavaTime;
+
+ivec4 faces[LAVA_MAX_FACES * 3];
+int faceCount;
+
+void add_face(ivec4 a, ivec4 b, ivec4 c) {
+  faces[faceCount * 3]     = a;
+  faces[faceCount * 3 + 1] = b;
+  faces[faceCount * 3 + 2] = c;
+  ++faceCount;
+}
+
+// Adds a quad as two faces, in the same winding as the CPU lava geometry
+void add_quad(ivec4 a, ivec4 b, ivec4 c, ivec4 d, ivec4 e, ivec4 f) {
+  add_face(a, b, c);
+  add_face(d, e, f);
+}
+
+int tile_height(int plane, int x, int y) {
+  return tileHeights[(plane * (SCENE_SIZE + 1) + x) * (SCENE_SIZE + 1) + y];
+}
+
+int tile_start(int plane, int x, int y) {
+  if (x < 0 || y < 0 || x >= SCENE_SIZE || y >= SCENE_SIZE) {
+    return LAVA_NONE;
+  }
+  return tileStarts[(plane * SCENE_SIZE + x) * SCENE_SIZE + y];
+}
+
+bool is_lava(int plane, int x, int y) {
+  // Settled tiles sort below any time, and tiles without lava above it
+  return tile_start(plane, x, y) <= lavaTime;
+}
+
+void main() {
+  uint id = gl_GlobalInvocationID.x;
+  if (id >= uint(lavaTileCount)) {
+    return;
+  }
+
+  lavainfo info = lol[id];
+  int plane = info.flags & LAVA_FLAG_PLANE;
+  bool isBridge = (info.flags & LAVA_FLAG_BRIDGE) != 0;
+  int tileX = info.x;
+  int tileY = info.y;
+  int start = tile_start(plane, tileX, tileY);
+  int elapsed = start == LAVA_SETTLED ? LAVA_SETTLED_ELAPSED : lavaTime - start;
+
+  int swtop = tile_height(plane, tileX, tileY);
+  int setop = tile_height(plane, tileX + 1, tileY);
+  int nwtop = tile_height(plane, tileX, tileY + 1);
+  int netop = tile_height(plane, tileX + 1, tileY + 1);
+
+  int maxHeight = max(max(swtop, setop), max(nwtop, netop));
+
+  int lavaHeight = LAVA_DEPTH;
+  if (plane > 0) {
+    lavaHeight = maxHeight + 32;
+  }
+
+  int minHeight = lavaHeight;
+  lavaHeight = int(max(float(maxHeight), min(float(minHeight), float(maxHeight) + LAVA_FALLING_SPEED * float(elapsed) / 1000.0)));
+
+  int fade = 0;
+  if (minHeight != maxHeight) {
+    fade = clamp((lavaHeight - maxHeight - minHeight) * 15 / (minHeight - maxHeight), 0, 15);
+  }
+  int midColor = LAVA_TOP_COLOR | fade;
+
+  nwtop -= lavaHeight;
+  netop -= lavaHeight;
+  swtop -= lavaHeight;
+  setop -= lavaHeight;
+
+  // Bottom face height
+  int nwbot = 0, nebot = 0, swbot = 0, sebot = 0;
+  if (isBridge) {
+    nwbot = nwtop;
+    nebot = netop;
+    swbot = swtop;
+    sebot = setop;
+  }
+
+  faceCount = 0;
+
+  // Textured bottom face
+  add_quad(
+    ivec4(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, LAVA_TEXTURE_COLOR),
+    ivec4(0, nwbot, LOCAL_TILE_SIZE, LAVA_TEXTURE_COLOR),
+    ivec4(LOCAL_TILE_SIZE, sebot, 0, LAVA_TEXTURE_COLOR),
+    ivec4(0, swbot, 0, LAVA_TEXTURE_COLOR),
+    ivec4(LOCAL_TILE_SIZE, sebot, 0, LAVA_TEXTURE_COLOR),
+    ivec4(0, nwbot, LOCAL_TILE_SIZE, LAVA_TEXTURE_COLOR));
+
+  if (lavaHeight != minHeight) {
+    // Walls beneath while animating
+    int wallHeight = minHeight - lavaHeight;
+    add_quad(
+      ivec4(0, nwbot, LOCAL_TILE_SIZE, midColor),
+      ivec4(0, wallHeight, 0, LAVA_BOTTOM_COLOR),
+      ivec4(0, swbot, 0, midColor),
+      ivec4(0, wallHeight, 0, LAVA_BOTTOM_COLOR),
+      ivec4(0, nwbot, LOCAL_TILE_SIZE, midColor),
+      ivec4(0, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR));
+    add_quad(
+      ivec4(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, midColor),
+      ivec4(0, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(0, nwbot, LOCAL_TILE_SIZE, midColor),
+      ivec4(0, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, midColor),
+      ivec4(LOCAL_TILE_SIZE, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR));
+    add_quad(
+      ivec4(LOCAL_TILE_SIZE, sebot, 0, midColor),
+      ivec4(LOCAL_TILE_SIZE, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, midColor),
+      ivec4(LOCAL_TILE_SIZE, wallHeight, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, sebot, 0, midColor),
+      ivec4(LOCAL_TILE_SIZE, wallHeight, 0, LAVA_BOTTOM_COLOR));
+    add_quad(
+      ivec4(0, swbot, 0, midColor),
+      ivec4(LOCAL_TILE_SIZE, wallHeight, 0, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, sebot, 0, midColor),
+      ivec4(LOCAL_TILE_SIZE, wallHeight, 0, LAVA_BOTTOM_COLOR),
+      ivec4(0, swbot, 0, midColor),
+      ivec4(0, wallHeight, 0, LAVA_BOTTOM_COLOR));
+  }
+
+  // Walls towards neighbouring tiles without lava
+  if (!is_lava(plane, tileX - 1, tileY)) {
+    add_quad(
+      ivec4(0, nwtop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR),
+      ivec4(0, swtop, 0, LAVA_TOP_COLOR),
+      ivec4(0, swbot, 0, LAVA_BOTTOM_COLOR),
+      ivec4(0, swbot, 0, LAVA_BOTTOM_COLOR),
+      ivec4(0, nwbot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(0, nwtop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR));
+  }
+  if (!is_lava(plane, tileX, tileY + 1)) {
+    add_quad(
+      ivec4(LOCAL_TILE_SIZE, netop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR),
+      ivec4(0, nwtop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR),
+      ivec4(0, nwbot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(0, nwbot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, netop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR));
+  }
+  if (!is_lava(plane, tileX + 1, tileY)) {
+    add_quad(
+      ivec4(LOCAL_TILE_SIZE, setop, 0, LAVA_TOP_COLOR),
+      ivec4(LOCAL_TILE_SIZE, netop, LOCAL_TILE_SIZE, LAVA_TOP_COLOR),
+      ivec4(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, nebot, LOCAL_TILE_SIZE, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, sebot, 0, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, setop, 0, LAVA_TOP_COLOR));
+  }
+  if (!is_lava(plane, tileX, tileY - 1)) {
+    add_quad(
+      ivec4(0, swtop, 0, LAVA_TOP_COLOR),
+      ivec4(LOCAL_TILE_SIZE, setop, 0, LAVA_TOP_COLOR),
+      ivec4(LOCAL_TILE_SIZE, sebot, 0, LAVA_BOTTOM_COLOR),
+      ivec4(LOCAL_TILE_SIZE, sebot, 0, LAVA_BOTTOM_COLOR),
+      ivec4(0, swbot, 0, LAVA_BOTTOM_COLOR),
+      ivec4(0, swtop, 0, LAVA_TOP_COLOR));
+  }
+
+  ivec4 pos = ivec4(tileX * LOCAL_TILE_SIZE, lavaHeight, tileY * LOCAL_TILE_SIZE, 0);
+  int outOffset = info.idx;
+
+  // Every tile has room for the maximum number of faces. The unused ones are written first as degenerate
+  // triangles, so they don't draw anything.
+  int unused = LAVA_MAX_FACES - faceCount;
+  for (int i = 0; i < unused * 3; ++i) {
+    vout[outOffset + i] = pos;
+    uvout[outOffset + i] = vec4(0, 0, 0, 0);
+  }
+
+  // Sort the faces back to front, the same way the priority renderer orders faces of equal priority
+  int dis[LAVA_MAX_FACES];
+  for (int i = 0; i < faceCount; ++i) {
+    dis[i] = face_distance(faces[i * 3], faces[i * 3 + 1], faces[i * 3 + 2], cameraYaw, cameraPitch);
+  }
+
+  for (int i = 0; i < faceCount; ++i) {
+    int myOffset = unused;
+    for (int j = 0; j < faceCount; ++j) {
+      if (dis[j] > dis[i] || (dis[j] == dis[i] && j < i)) {
+        ++myOffset;
+      }
+    }
+
+    vout[outOffset + myOffset * 3]     = pos + faces[i * 3];
+    vout[outOffset + myOffset * 3 + 1] = pos + faces[i * 3 + 1];
+    vout[outOffset + myOffset * 3 + 2] = pos + faces[i * 3 + 2];
+
+    if (i == 0) {
+      uvout[outOffset + myOffset * 3]     = vec4(LAVA_TEXTURE, 1, 1, LAVA_TEXTURE_METADATA);
+      uvout[outOffset + myOffset * 3 + 1] = vec4(LAVA_TEXTURE, 0, 1, LAVA_TEXTURE_METADATA);
+      uvout[outOffset + myOffset * 3 + 2] = vec4(LAVA_TEXTURE, 1, 0, LAVA_TEXTURE_METADATA);
+    } else if (i == 1) {
+      uvout[outOffset + myOffset * 3]     = vec4(LAVA_TEXTURE, 0, 0, LAVA_TEXTURE_METADATA);
+      uvout[outOffset + myOffset * 3 + 1] = vec4(LAVA_TEXTURE, 1, 0, LAVA_TEXTURE_METADATA);
+      uvout[outOffset + myOffset * 3 + 2] = vec4(LAVA_TEXTURE, 0, 1, LAVA_TEXTURE_METADATA);
+    } else {
+      uvout[outOffset + myOffset * 3]     = vec4(0, 0, 0, 0);
+      uvout[outOffset + myOffset * 3 + 1] = vec4(0, 0, 0, 0);
+      uvout[outOffset + myOffset * 3 + 2] = vec4(0, 0, 0, 0);
+    }
+  }
+}
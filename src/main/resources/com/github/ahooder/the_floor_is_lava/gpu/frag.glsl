@@ -49,7 +49,13 @@ void main() {
   if (textureId > 0) {
     int textureIdx = textureId - 1;
 
-    vec4 textureColor = texture(textures, vec3(fUv, float(textureIdx)));
+    vec4 textureColor;
+    if (textureMetadata == 1u) {
+      // Merged lava regions repeat the texture horizontally, which the clamped texture array doesn't do by itself
+      textureColor = textureGrad(textures, vec3(fract(fUv.x), fUv.y, float(textureIdx)), dFdx(fUv), dFdy(fUv));
+    } else {
+      textureColor = texture(textures, vec3(fUv, float(textureIdx)));
+    }
     vec4 textureColorBrightness = pow(textureColor, vec4(brightness, brightness, brightness, 1.0f));
 
     // textured triangles hsl is a 7 bit lightness 2-126
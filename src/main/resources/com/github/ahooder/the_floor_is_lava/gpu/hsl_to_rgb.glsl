@@ -23,6 +23,8 @@
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
+#pragma once
+
 vec3 hslToRgb(int hsl) {
   int var5 = hsl / 128;
   float var6 = float(var5 >> 3) / 64.0f + 0.0078125f;
@@ -24,6 +24,8 @@
    Incorporates some of the ideas from SABR shader. Thanks to Joshua Street.
 */
 
+#pragma once
+
 struct XBRTable
 {
     vec2 texCoord;
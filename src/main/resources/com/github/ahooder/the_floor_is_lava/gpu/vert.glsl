@@ -31,6 +31,16 @@
 // 128x128px - so this is equivalent to +1px
 #define TEXTURE_ANIM_UNIT (1.0f / 128.0f)
 
+// texture metadata bits of lava vertices which are emitted at rest, and lifted back up until the game cycle at
+// which they settle. these must match GpuPlugin.
+#define LAVA_TEXTURE_SCROLL 1u
+#define LAVA_ANIMATED 2u
+#define LAVA_FADE 4u
+#define LAVA_SETTLE_CYCLE_SHIFT 3u
+#define LAVA_SETTLE_CYCLE_BITS 20
+// lava falls 128 units per second, and a game cycle is 20ms
+#define LAVA_FALL_PER_CYCLE 2.56f
+
 #define FOG_SCENE_EDGE_MIN TILE_SIZE
 #define FOG_SCENE_EDGE_MAX (103 * TILE_SIZE)
 #define FOG_CORNER_ROUNDING 1.5
@@ -79,6 +89,26 @@ void main()
   int hsl = ahsl & 0xffff;
   float a = float(ahsl >> 24 & 0xff) / 255.f;
 
+  textureMetadata = floatBitsToUint(uv.w);
+  if ((textureMetadata & LAVA_ANIMATED) != 0u) {
+    // only the low bits of the settle cycle are stored, which is plenty for the few seconds lava takes to settle
+    int cycles = int(textureMetadata >> LAVA_SETTLE_CYCLE_SHIFT) - tick;
+    cycles = cycles << (32 - LAVA_SETTLE_CYCLE_BITS) >> (32 - LAVA_SETTLE_CYCLE_BITS);
+    int remaining = int(max(0.f, float(cycles) * LAVA_FALL_PER_CYCLE));
+    vertex.y -= remaining;
+
+    if ((textureMetadata & LAVA_FADE) != 0u) {
+      // the largest corner height of the tile, and the height at which the lava comes to rest
+      int maxHeight = int(uv.y);
+      int minHeight = int(uv.z);
+      int lavaHeight = minHeight - remaining;
+      int fade = clamp((lavaHeight - maxHeight - minHeight) * 15 / (minHeight - maxHeight), 0, 15);
+      hsl = hsl & ~0x7f | fade;
+    }
+
+    textureMetadata &= LAVA_TEXTURE_SCROLL;
+  }
+
   vec3 rgb = hslToRgb(hsl);
 
   gl_Position = projectionMatrix * vec4(vertex, 1.f);
@@ -87,7 +117,6 @@ void main()
 
   int textureIdx = int(uv.x); // the texture id + 1
   vec2 textureUv = uv.yz;
-  textureMetadata = floatBitsToUint(uv.w);
 
   vec2 textureAnim = vec2(0);
   if (textureMetadata == 1u) {
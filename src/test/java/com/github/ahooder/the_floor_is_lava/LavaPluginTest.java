@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import net.runelite.client.config.ConfigManager;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LavaPluginTest
+{
+	private static final int REGION_ID = 12850;
+	private static final String REGION_KEY = "global.region_" + REGION_ID;
+
+	@Mock
+	private ConfigManager configManager;
+
+	@Mock
+	private ScheduledExecutorService executorService;
+
+	@Mock
+	private Config config;
+
+	private LavaPlugin plugin;
+
+	@Before
+	public void before() throws ReflectiveOperationException
+	{
+		plugin = new LavaPlugin();
+		setField("configManager", configManager);
+		setField("executorService", executorService);
+		setField("config", config);
+		setField("configUUID", "global");
+	}
+
+	@Test
+	public void testUnreadableRegionIsNotSavedOver()
+	{
+		// a format byte from a newer version of the plugin
+		when(configManager.getConfiguration(Config.GROUP, REGION_KEY)).thenReturn("CQAB");
+
+		assertTrue(plugin.getTiles(REGION_ID).isEmpty());
+		plugin.savePoints(REGION_ID, Collections.singleton(new LavaTile(REGION_ID, 1, 2, 0)));
+		assertTrue(plugin.getTiles(REGION_ID).isEmpty());
+
+		verify(executorService, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+		verify(configManager, never()).setConfiguration(anyString(), anyString(), anyString());
+		verify(configManager, never()).unsetConfiguration(anyString(), anyString());
+	}
+
+	@Test
+	public void testRegionIsSaved()
+	{
+		when(config.tileEncoding()).thenReturn(Config.TileEncoding.PACKED);
+
+		Collection<LavaTile> tiles = Collections.singleton(new LavaTile(REGION_ID, 1, 2, 0));
+		plugin.savePoints(REGION_ID, tiles);
+
+		ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+		verify(executorService).schedule(flush.capture(), anyLong(), any(TimeUnit.class));
+		flush.getValue().run();
+		verify(configManager).setConfiguration(Config.GROUP, REGION_KEY,
+			LavaTileCodec.encode(tiles, Config.TileEncoding.PACKED));
+	}
+
+	private void setField(String name, Object value) throws ReflectiveOperationException
+	{
+		Field field = LavaPlugin.class.getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(plugin, value);
+	}
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class LavaTileCodecTest
+{
+	private static final int REGION_ID = 12850;
+
+	@Test
+	public void testRoundTrip()
+	{
+		List<LavaTile> tiles = new ArrayList<>();
+		tiles.add(new LavaTile(REGION_ID, 0, 0, 0));
+		tiles.add(new LavaTile(REGION_ID, 63, 63, 3));
+		tiles.add(new LavaTile(REGION_ID, 12, 34, 1));
+
+		for (Config.TileEncoding encoding : Config.TileEncoding.values())
+		{
+			String value = LavaTileCodec.encode(tiles, encoding);
+			assertEquals(encoding.toString(), new HashSet<>(tiles), new HashSet<>(LavaTileCodec.decode(REGION_ID, value)));
+		}
+	}
+
+	@Test
+	public void testUndecodable()
+	{
+		// not base64
+		assertNull(LavaTileCodec.decode(REGION_ID, "!!!"));
+		// a format byte from a newer version of the plugin
+		assertNull(LavaTileCodec.decode(REGION_ID, "CQAB"));
+		// packed, with the last tile cut in half
+		assertNull(LavaTileCodec.decode(REGION_ID, "AgA="));
+		// truncated JSON
+		assertNull(LavaTileCodec.decode(REGION_ID, "[{\"regionId\":"));
+	}
+}
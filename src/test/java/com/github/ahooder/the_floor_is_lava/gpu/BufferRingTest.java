@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class BufferRingTest
+{
+	/**
+	 * Hands out increasing sync ids and records every call
+	 */
+	private static class FakeFenceSync implements FenceSync
+	{
+		final List<String> calls = new ArrayList<>();
+		boolean signaled = true;
+		private long nextSync = 1;
+
+		@Override
+		public long fence()
+		{
+			calls.add("fence " + nextSync);
+			return nextSync++;
+		}
+
+		@Override
+		public boolean await(long sync, long timeoutNanos)
+		{
+			calls.add("await " + sync);
+			return signaled;
+		}
+
+		@Override
+		public void delete(long sync)
+		{
+			calls.add("delete " + sync);
+		}
+	}
+
+	private final FakeFenceSync sync = new FakeFenceSync();
+	private final BufferRing ring = new BufferRing(sync, 3);
+
+	@Test
+	public void testAcquireWrapsAround()
+	{
+		for (int region = 0; region < 3; region++)
+		{
+			assertEquals(region, ring.acquire());
+			ring.release();
+		}
+		assertEquals(Arrays.asList("fence 1", "fence 2", "fence 3"), sync.calls);
+
+		sync.calls.clear();
+		assertEquals(0, ring.acquire());
+		assertEquals(Arrays.asList("await 1", "delete 1"), sync.calls);
+
+		sync.calls.clear();
+		ring.release();
+		assertEquals(1, ring.acquire());
+		assertEquals(Arrays.asList("fence 4", "await 2", "delete 2"), sync.calls);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testReleaseWithoutAcquire()
+	{
+		ring.release();
+	}
+
+	@Test
+	public void testReset()
+	{
+		ring.acquire();
+		ring.release();
+		ring.acquire();
+		ring.release();
+		sync.calls.clear();
+
+		ring.reset();
+		assertEquals(Arrays.asList("await 1", "delete 1", "await 2", "delete 2"), sync.calls);
+		assertEquals(-1, ring.getCurrent());
+
+		// Every fence was deleted, so starting over doesn't wait
+		sync.calls.clear();
+		assertEquals(0, ring.acquire());
+		assertEquals(0, sync.calls.size());
+	}
+
+	@Test
+	public void testTimedOutFenceIsDeleted()
+	{
+		for (int region = 0; region < 3; region++)
+		{
+			ring.acquire();
+			ring.release();
+		}
+		sync.calls.clear();
+
+		sync.signaled = false;
+		assertEquals(0, ring.acquire());
+		assertEquals(Arrays.asList("await 1", "delete 1"), sync.calls);
+	}
+}
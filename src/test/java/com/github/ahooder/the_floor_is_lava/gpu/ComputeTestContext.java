@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import com.github.ahooder.the_floor_is_lava.gpu.template.Template;
+import java.awt.Canvas;
+import java.awt.Frame;
+import java.awt.GraphicsEnvironment;
+import java.util.ArrayList;
+import java.util.List;
+import net.runelite.api.Perspective;
+import net.runelite.rlawt.AWTContext;
+import org.junit.Assume;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL43C;
+import org.lwjgl.opengl.GLCapabilities;
+
+/**
+ * A GL context on a hidden window for running the compute shaders outside of the client.
+ * <p>
+ * Tests using it are skipped when there is no display or the driver lacks compute shaders. To run them on a
+ * machine without a GPU, use Mesa's software renderer: {@code LIBGL_ALWAYS_SOFTWARE=1 xvfb-run ./gradlew test}
+ */
+class ComputeTestContext implements AutoCloseable
+{
+	private final Frame frame;
+	private final AWTContext awtContext;
+	private final List<Integer> buffers = new ArrayList<>();
+	private final List<Integer> programs = new ArrayList<>();
+
+	private ComputeTestContext(Frame frame, AWTContext awtContext)
+	{
+		this.frame = frame;
+		this.awtContext = awtContext;
+	}
+
+	static ComputeTestContext create()
+	{
+		Assume.assumeFalse("no display to create a GL context on", GraphicsEnvironment.isHeadless());
+
+		Frame frame = new Frame();
+		Canvas canvas = new Canvas();
+		canvas.setSize(64, 64);
+		frame.setUndecorated(true);
+		frame.add(canvas);
+		frame.pack();
+		frame.setVisible(true);
+
+		AWTContext awtContext;
+		try
+		{
+			AWTContext.loadNatives();
+			awtContext = new AWTContext(canvas);
+			awtContext.configurePixelFormat(0, 0, 0);
+			awtContext.createGLContext();
+		}
+		catch (RuntimeException | LinkageError e)
+		{
+			frame.dispose();
+			Assume.assumeNoException("unable to create a GL context", e);
+			throw e;
+		}
+
+		ComputeTestContext context = new ComputeTestContext(frame, awtContext);
+		GLCapabilities caps = GL.createCapabilities();
+		if (!caps.OpenGL43 && !(caps.GL_ARB_compute_shader && caps.GL_ARB_shader_storage_buffer_object))
+		{
+			context.close();
+			Assume.assumeTrue("compute shaders are not supported by " + GL43C.glGetString(GL43C.GL_RENDERER), false);
+		}
+		return context;
+	}
+
+	/**
+	 * The uniform block shared by the compute shaders and kernels, laid out the same way GpuPlugin uploads it.
+	 */
+	static int[] uniforms(int cameraYaw, int cameraPitch, int centerX, int centerY, int zoom,
+		int cameraX, int cameraY, int cameraZ)
+	{
+		int[] uniforms = new int[8 + 2048 * 4];
+		uniforms[0] = cameraYaw;
+		uniforms[1] = cameraPitch;
+		uniforms[2] = centerX;
+		uniforms[3] = centerY;
+		uniforms[4] = zoom;
+		uniforms[5] = cameraX;
+		uniforms[6] = cameraY;
+		uniforms[7] = cameraZ;
+		for (int i = 0; i < 2048; i++)
+		{
+			// ivec2 alignment in std140 is 16 bytes
+			uniforms[8 + i * 4] = Perspective.SINE[i];
+			uniforms[8 + i * 4 + 1] = Perspective.COSINE[i];
+		}
+		return uniforms;
+	}
+
+	int compile(Shader shader, Template template) throws ShaderException
+	{
+		int program = shader.compile(template);
+		programs.add(program);
+		GL43C.glUniformBlockBinding(program, GL43C.glGetUniformBlockIndex(program, "uniforms"), 0);
+		return program;
+	}
+
+	void bindUniforms(int[] uniforms)
+	{
+		int buffer = createBuffer();
+		GL43C.glBindBuffer(GL43C.GL_UNIFORM_BUFFER, buffer);
+		GL43C.glBufferData(GL43C.GL_UNIFORM_BUFFER, uniforms, GL43C.GL_STATIC_DRAW);
+		GL43C.glBindBuffer(GL43C.GL_UNIFORM_BUFFER, 0);
+		GL43C.glBindBufferBase(GL43C.GL_UNIFORM_BUFFER, 0, buffer);
+	}
+
+	int createBuffer(int[] data)
+	{
+		int buffer = createBuffer();
+		GL43C.glBindBuffer(GL43C.GL_SHADER_STORAGE_BUFFER, buffer);
+		GL43C.glBufferData(GL43C.GL_SHADER_STORAGE_BUFFER, data, GL43C.GL_STATIC_DRAW);
+		GL43C.glBindBuffer(GL43C.GL_SHADER_STORAGE_BUFFER, 0);
+		return buffer;
+	}
+
+	int createBuffer(float[] data)
+	{
+		int buffer = createBuffer();
+		GL43C.glBindBuffer(GL43C.GL_SHADER_STORAGE_BUFFER, buffer);
+		GL43C.glBufferData(GL43C.GL_SHADER_STORAGE_BUFFER, data, GL43C.GL_STATIC_DRAW);
+		GL43C.glBindBuffer(GL43C.GL_SHADER_STORAGE_BUFFER, 0);
+		return buffer;
+	}
+
+	int[] readInts(int buffer, int length)
+	{
+		int[] data = new int[length];
+		GL43C.glMemoryBarrier(GL43C.GL_BUFFER_UPDATE_BARRIER_BIT);
+		GL43C.glBindBuffer(GL43C.GL_SHADER_STORAGE_BUFFER, buffer);
+		GL43C.glGetBufferSubData(GL43C.GL_SHADER_STORAGE_BUFFER, 0, data);
+		GL43C.glBindBuffer(GL43C.GL_SHADER_STORAGE_BUFFER, 0);
+		return data;
+	}
+
+	float[] readFloats(int buffer, int length)
+	{
+		float[] data = new float[length];
+		GL43C.glMemoryBarrier(GL43C.GL_BUFFER_UPDATE_BARRIER_BIT);
+		GL43C.glBindBuffer(GL43C.GL_SHADER_STORAGE_BUFFER, buffer);
+		GL43C.glGetBufferSubData(GL43C.GL_SHADER_STORAGE_BUFFER, 0, data);
+		GL43C.glBindBuffer(GL43C.GL_SHADER_STORAGE_BUFFER, 0);
+		return data;
+	}
+
+	private int createBuffer()
+	{
+		int buffer = GL43C.glGenBuffers();
+		buffers.add(buffer);
+		return buffer;
+	}
+
+	@Override
+	public void close()
+	{
+		for (int program : programs)
+		{
+			GL43C.glDeleteProgram(program);
+		}
+		for (int buffer : buffers)
+		{
+			GL43C.glDeleteBuffers(buffer);
+		}
+		awtContext.destroy();
+		frame.dispose();
+	}
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertArrayEquals;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lwjgl.opengl.GL43C;
+
+/**
+ * Checks that {@link CpuPriorityRenderer} orders faces the same way as comp.glsl, by sorting the same models with
+ * the same camera on both and comparing the output.
+ */
+public class CpuPriorityRendererTest
+{
+	// yaw, pitch, centerX, centerY, zoom, cameraX, cameraY, cameraZ
+	private static final int[][] CAMERAS = {
+		{0, 128, 383, 251, 512, 6592, -1000, 6592},
+		{512, 383, 383, 251, 1024, 6100, -2200, 7000},
+		{1337, 220, 765, 503, 700, 7200, -1600, 5900},
+		{2047, 300, 255, 167, 256, 6592, -800, 6592},
+	};
+
+	private static final int[] MODEL_SIZES = {1, 2, 3, 31, 200, 511, 512, 513, 1000, 2048, 4095, 4096};
+
+	private static ComputeTestContext context;
+	private static int smallProgram;
+	private static int largeProgram;
+
+	@BeforeClass
+	public static void init() throws ShaderException
+	{
+		context = ComputeTestContext.create();
+		smallProgram = context.compile(GpuPlugin.SMALL_COMPUTE_PROGRAM, GpuPlugin.createTemplate(512, 1));
+		largeProgram = context.compile(GpuPlugin.COMPUTE_PROGRAM, GpuPlugin.createTemplate(1024, 4));
+	}
+
+	@AfterClass
+	public static void shutdown()
+	{
+		if (context != null)
+		{
+			context.close();
+			context = null;
+		}
+	}
+
+	@Test
+	public void testMatchesComputeShader()
+	{
+		Random random = new Random(1);
+
+		// Inputs first, with the output of every model after them
+		int inputVertices = 0;
+		for (int size : MODEL_SIZES)
+		{
+			inputVertices += size * 3;
+		}
+		final int totalVertices = inputVertices * 2;
+
+		int[] vertices = new int[totalVertices * 4];
+		float[] uvs = new float[totalVertices * 4];
+		int[][] models = new int[MODEL_SIZES.length][];
+
+		for (int m = 0, offset = 0; m < MODEL_SIZES.length; m++)
+		{
+			int size = MODEL_SIZES[m];
+			int radius = m % 5 == 0 ? 0 : 200 + random.nextInt(1300);
+			int orientation = random.nextInt(2048);
+			// models with a negative flag read the scene buffers rather than the temporary ones
+			int flags = (m % 3 == 0 ? Integer.MIN_VALUE : 0) | radius << 12 | orientation;
+			boolean textured = m % 2 == 0;
+			int extent = Math.max(radius, 64);
+
+			for (int face = 0; face < size; face++)
+			{
+				int priority = random.nextInt(12);
+				int color = random.nextInt(0x10000);
+				for (int vertex = 0; vertex < 3; vertex++)
+				{
+					int i = ((offset + face * 3) + vertex) * 4;
+					vertices[i] = random.nextInt(extent) - extent / 2;
+					vertices[i + 1] = -random.nextInt(extent / 2);
+					vertices[i + 2] = random.nextInt(extent) - extent / 2;
+					vertices[i + 3] = priority << 16 | color;
+					uvs[i] = textured ? random.nextInt(100) + 1 : 0;
+					uvs[i + 1] = random.nextFloat();
+					uvs[i + 2] = random.nextFloat();
+					uvs[i + 3] = 0;
+				}
+			}
+
+			models[m] = new int[]{
+				offset,
+				textured ? offset : -1,
+				size,
+				inputVertices + offset,
+				flags,
+				6592 + random.nextInt(2048) - 1024,
+				-random.nextInt(512),
+				6592 + random.nextInt(2048) - 1024,
+			};
+			offset += size * 3;
+		}
+
+		for (int[] camera : CAMERAS)
+		{
+			int[] uniforms = ComputeTestContext.uniforms(camera[0], camera[1], camera[2], camera[3], camera[4],
+				camera[5], camera[6], camera[7]);
+
+			IntBuffer cpuVertices = IntBuffer.wrap(vertices.clone());
+			FloatBuffer cpuUvs = FloatBuffer.wrap(uvs.clone());
+			IntBuffer smallModels = IntBuffer.allocate(MODEL_SIZES.length * 8);
+			IntBuffer largeModels = IntBuffer.allocate(MODEL_SIZES.length * 8);
+			for (int[] model : models)
+			{
+				(model[2] <= GpuPlugin.SMALL_TRIANGLE_COUNT ? smallModels : largeModels).put(model);
+			}
+
+			CpuPriorityRenderer renderer = new CpuPriorityRenderer();
+			renderer.setCamera(camera[0], camera[1], camera[2], camera[3], camera[4], camera[5], camera[6], camera[7]);
+			renderer.render(smallModels, largeModels, cpuVertices, cpuUvs);
+
+			int[] gpuVertices = new int[totalVertices * 4];
+			float[] gpuUvs = new float[totalVertices * 4];
+			runComputeShader(uniforms, vertices, uvs, smallModels, largeModels, gpuVertices, gpuUvs);
+
+			for (int m = 0; m < models.length; m++)
+			{
+				int from = models[m][3] * 4;
+				int to = from + models[m][2] * 3 * 4;
+				String message = "model " + m + " with " + models[m][2] + " faces, camera " + Arrays.toString(camera);
+				assertArrayEquals(message, Arrays.copyOfRange(cpuVertices.array(), from, to),
+					Arrays.copyOfRange(gpuVertices, from, to));
+				assertArrayEquals(message, Arrays.copyOfRange(cpuUvs.array(), from, to),
+					Arrays.copyOfRange(gpuUvs, from, to), 0f);
+			}
+		}
+	}
+
+	private static void runComputeShader(int[] uniforms, int[] vertices, float[] uvs,
+		IntBuffer smallModels, IntBuffer largeModels, int[] outVertices, float[] outUvs)
+	{
+		context.bindUniforms(uniforms);
+
+		int vertexBuffer = context.createBuffer(vertices);
+		int uvBuffer = context.createBuffer(uvs);
+		int outBuffer = context.createBuffer(new int[outVertices.length]);
+		int outUvBuffer = context.createBuffer(new float[outUvs.length]);
+
+		for (int i = 0; i < 2; i++)
+		{
+			IntBuffer models = i == 0 ? smallModels : largeModels;
+			int count = models.position() / 8;
+			if (count == 0)
+			{
+				continue;
+			}
+
+			int modelBuffer = context.createBuffer(Arrays.copyOf(models.array(), count * 8));
+			GL43C.glUseProgram(i == 0 ? smallProgram : largeProgram);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 0, modelBuffer);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 1, vertexBuffer);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 2, vertexBuffer);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 3, outBuffer);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 4, outUvBuffer);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 5, uvBuffer);
+			GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 6, uvBuffer);
+			GL43C.glDispatchCompute(count, 1, 1);
+		}
+		GL43C.glUseProgram(0);
+
+		System.arraycopy(context.readInts(outBuffer, outVertices.length), 0, outVertices, 0, outVertices.length);
+		System.arraycopy(context.readFloats(outUvBuffer, outUvs.length), 0, outUvs, 0, outUvs.length);
+	}
+}
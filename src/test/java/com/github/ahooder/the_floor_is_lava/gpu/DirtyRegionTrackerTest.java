@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import static com.github.ahooder.the_floor_is_lava.gpu.DirtyRegionTracker.TILE_SIZE;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class DirtyRegionTrackerTest
+{
+	// Neither is a multiple of the tile size, so the last column and row of tiles are partial
+	private static final int WIDTH = 3 * TILE_SIZE + 8;
+	private static final int HEIGHT = 2 * TILE_SIZE + 2;
+
+	private final DirtyRegionTracker tracker = new DirtyRegionTracker();
+	private final int[] pixels = new int[WIDTH * HEIGHT];
+
+	@Test
+	public void testFullFrame()
+	{
+		assertEquals(1, tracker.update(pixels, WIDTH, HEIGHT));
+		assertRect(0, 0, 0, WIDTH, HEIGHT);
+
+		tracker.invalidate();
+		assertEquals(1, tracker.update(pixels, WIDTH, HEIGHT));
+		assertRect(0, 0, 0, WIDTH, HEIGHT);
+	}
+
+	@Test
+	public void testUnchangedFrame()
+	{
+		tracker.update(pixels, WIDTH, HEIGHT);
+		assertEquals(0, tracker.update(pixels, WIDTH, HEIGHT));
+	}
+
+	@Test
+	public void testAdjacentTilesMerge()
+	{
+		tracker.update(pixels, WIDTH, HEIGHT);
+
+		set(10, 10);
+		set(TILE_SIZE + 20, 30);
+		assertEquals(1, tracker.update(pixels, WIDTH, HEIGHT));
+		assertRect(0, 0, 0, 2 * TILE_SIZE, TILE_SIZE);
+	}
+
+	@Test
+	public void testSeparateTilesDontMerge()
+	{
+		tracker.update(pixels, WIDTH, HEIGHT);
+
+		set(10, 10);
+		set(2 * TILE_SIZE + 20, 30);
+		assertEquals(2, tracker.update(pixels, WIDTH, HEIGHT));
+		assertRect(0, 0, 0, TILE_SIZE, TILE_SIZE);
+		assertRect(1, 2 * TILE_SIZE, 0, TILE_SIZE, TILE_SIZE);
+	}
+
+	@Test
+	public void testPartialEdgeTiles()
+	{
+		tracker.update(pixels, WIDTH, HEIGHT);
+
+		set(WIDTH - 1, 0);
+		set(0, HEIGHT - 1);
+		set(WIDTH - 1, HEIGHT - 1);
+		assertEquals(3, tracker.update(pixels, WIDTH, HEIGHT));
+		assertRect(0, 3 * TILE_SIZE, 0, 8, TILE_SIZE);
+		assertRect(1, 0, 2 * TILE_SIZE, TILE_SIZE, 2);
+		assertRect(2, 3 * TILE_SIZE, 2 * TILE_SIZE, 8, 2);
+	}
+
+	@Test
+	public void testResize()
+	{
+		tracker.update(pixels, WIDTH, HEIGHT);
+
+		int[] smaller = new int[(WIDTH - 1) * HEIGHT];
+		assertEquals(1, tracker.update(smaller, WIDTH - 1, HEIGHT));
+		assertRect(0, 0, 0, WIDTH - 1, HEIGHT);
+	}
+
+	@Test
+	public void testPreviousFrameIsUpdated()
+	{
+		for (int i = 0; i < pixels.length; i++)
+		{
+			pixels[i] = i;
+		}
+		tracker.update(pixels, WIDTH, HEIGHT);
+
+		// Change the tile from its middle row down, leaving the rows above it as they were
+		for (int y = 30; y < TILE_SIZE; y++)
+		{
+			set(5, y);
+		}
+		assertEquals(1, tracker.update(pixels, WIDTH, HEIGHT));
+		assertRect(0, 0, 0, TILE_SIZE, TILE_SIZE);
+
+		// The changed rows were copied, so the same frame again is unchanged
+		assertEquals(0, tracker.update(pixels, WIDTH, HEIGHT));
+
+		// Rows above the first changed one still match, so a change there is detected on its own
+		set(7, 2);
+		assertEquals(1, tracker.update(pixels, WIDTH, HEIGHT));
+		assertRect(0, 0, 0, TILE_SIZE, TILE_SIZE);
+		assertEquals(0, tracker.update(pixels, WIDTH, HEIGHT));
+
+		// And changing it back is detected against the copy as well
+		set(7, 2);
+		assertEquals(1, tracker.update(pixels, WIDTH, HEIGHT));
+		assertEquals(0, tracker.update(pixels, WIDTH, HEIGHT));
+	}
+
+	private void set(int x, int y)
+	{
+		pixels[y * WIDTH + x] = ~pixels[y * WIDTH + x];
+	}
+
+	private void assertRect(int rect, int x, int y, int width, int height)
+	{
+		assertEquals(x, tracker.getX(rect));
+		assertEquals(y, tracker.getY(rect));
+		assertEquals(width, tracker.getWidth(rect));
+		assertEquals(height, tracker.getHeight(rect));
+	}
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static net.runelite.api.Constants.MAX_Z;
+import static net.runelite.api.Constants.SCENE_SIZE;
+import static net.runelite.api.Perspective.LOCAL_TILE_SIZE;
+import org.jocl.CL;
+import static org.jocl.CL.CL_CONTEXT_PLATFORM;
+import static org.jocl.CL.CL_DEVICE_TYPE_ALL;
+import static org.jocl.CL.CL_MEM_COPY_HOST_PTR;
+import static org.jocl.CL.CL_MEM_READ_ONLY;
+import static org.jocl.CL.CL_MEM_WRITE_ONLY;
+import static org.jocl.CL.CL_PROGRAM_BUILD_LOG;
+import static org.jocl.CL.CL_TRUE;
+import static org.jocl.CL.clBuildProgram;
+import static org.jocl.CL.clCreateBuffer;
+import static org.jocl.CL.clCreateCommandQueue;
+import static org.jocl.CL.clCreateContext;
+import static org.jocl.CL.clCreateKernel;
+import static org.jocl.CL.clCreateProgramWithSource;
+import static org.jocl.CL.clEnqueueNDRangeKernel;
+import static org.jocl.CL.clEnqueueReadBuffer;
+import static org.jocl.CL.clGetDeviceIDs;
+import static org.jocl.CL.clGetPlatformIDs;
+import static org.jocl.CL.clGetProgramBuildInfo;
+import static org.jocl.CL.clReleaseCommandQueue;
+import static org.jocl.CL.clReleaseContext;
+import static org.jocl.CL.clReleaseKernel;
+import static org.jocl.CL.clReleaseMemObject;
+import static org.jocl.CL.clReleaseProgram;
+import static org.jocl.CL.clSetKernelArg;
+import org.jocl.CLException;
+import org.jocl.Pointer;
+import org.jocl.Sizeof;
+import org.jocl.cl_command_queue;
+import org.jocl.cl_context;
+import org.jocl.cl_context_properties;
+import org.jocl.cl_device_id;
+import org.jocl.cl_kernel;
+import org.jocl.cl_mem;
+import org.jocl.cl_platform_id;
+import org.jocl.cl_program;
+import org.junit.AfterClass;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lwjgl.opengl.GL43C;
+
+/**
+ * Checks that comp_lava.glsl and comp_lava.cl generate the same lava geometry for the same tiles.
+ * <p>
+ * The OpenCL kernel runs on a context of its own, on any device, so Mesa's llvmpipe and POCL can run both kernels
+ * on machines without a GPU. The check is skipped when either isn't available.
+ */
+public class LavaKernelTest
+{
+	private static final int LAVA_TIME = 5000;
+	private static final int TILE_VERTICES = LavaTileBuffer.MAX_FACES * 3;
+
+	// yaw, pitch
+	private static final int[][] CAMERAS = {
+		{0, 128},
+		{512, 383},
+		{1337, 220},
+		{2047, 300},
+	};
+
+	private static ComputeTestContext context;
+	private static int lavaProgram;
+
+	@BeforeClass
+	public static void init() throws ShaderException
+	{
+		context = ComputeTestContext.create();
+		lavaProgram = context.compile(GpuPlugin.LAVA_COMPUTE_PROGRAM, GpuPlugin.createTemplate(-1, -1));
+	}
+
+	@AfterClass
+	public static void shutdown()
+	{
+		if (context != null)
+		{
+			context.close();
+			context = null;
+		}
+	}
+
+	@Test
+	public void testSettledTileWithoutNeighbours()
+	{
+		int[] heights = new int[MAX_Z * (SCENE_SIZE + 1) * (SCENE_SIZE + 1)];
+		int[] starts = new int[MAX_Z * SCENE_SIZE * SCENE_SIZE];
+		Arrays.fill(starts, LavaTileBuffer.NONE);
+		starts[50 * SCENE_SIZE + 50] = LavaTileBuffer.SETTLED;
+		int[] tiles = {50, 50, 0, 0};
+
+		int[] vertices = new int[TILE_VERTICES * 4];
+		float[] uvs = new float[TILE_VERTICES * 4];
+		runComputeShader(ComputeTestContext.uniforms(0, 128, 0, 0, 0, 0, 0, 0), tiles, heights, starts,
+			vertices, uvs);
+
+		// the bottom face and four walls, after the unused faces which are degenerate at the tile position
+		int[] pos = {50 * LOCAL_TILE_SIZE, GpuPlugin.LAVA_DEPTH, 50 * LOCAL_TILE_SIZE, 0};
+		int faces = 0;
+		for (int face = 0; face < LavaTileBuffer.MAX_FACES; face++)
+		{
+			boolean degenerate = true;
+			for (int i = face * 12; i < face * 12 + 12; i++)
+			{
+				degenerate &= vertices[i] == pos[i % 4];
+			}
+			if (!degenerate)
+			{
+				assertEquals("unused faces come first", LavaTileBuffer.MAX_FACES - 10, face - faces);
+				++faces;
+			}
+		}
+		assertEquals(10, faces);
+	}
+
+	@Test
+	public void testMatchesOpenCL()
+	{
+		Random random = new Random(1);
+
+		int[] heights = new int[MAX_Z * (SCENE_SIZE + 1) * (SCENE_SIZE + 1)];
+		for (int i = 0; i < heights.length; i++)
+		{
+			heights[i] = -random.nextInt(240);
+		}
+
+		int[] starts = new int[MAX_Z * SCENE_SIZE * SCENE_SIZE];
+		Arrays.fill(starts, LavaTileBuffer.NONE);
+		List<int[]> tiles = new ArrayList<>();
+		for (int plane = 0; plane < 2; plane++)
+		{
+			for (int x = 0; x < SCENE_SIZE; x++)
+			{
+				for (int y = 0; y < SCENE_SIZE; y++)
+				{
+					// lava in the corners of the scene, to include the tiles along its edges
+					if ((x >= 12 && x < SCENE_SIZE - 12) || (y >= 12 && y < SCENE_SIZE - 12))
+					{
+						continue;
+					}
+
+					int start;
+					switch (random.nextInt(4))
+					{
+						case 0:
+							continue;
+						case 1:
+							start = LavaTileBuffer.SETTLED;
+							break;
+						case 2:
+							// still falling
+							start = LAVA_TIME - random.nextInt(600);
+							break;
+						default:
+							// not flowing yet
+							start = LAVA_TIME + 1 + random.nextInt(600);
+							break;
+					}
+					starts[(plane * SCENE_SIZE + x) * SCENE_SIZE + y] = start;
+
+					if (start <= LAVA_TIME)
+					{
+						int flags = plane | (random.nextInt(5) == 0 ? LavaTileBuffer.FLAG_BRIDGE : 0);
+						tiles.add(new int[]{x, y, flags, tiles.size() * TILE_VERTICES});
+					}
+				}
+			}
+		}
+
+		int[] lavaTiles = new int[tiles.size() * 4];
+		for (int i = 0; i < tiles.size(); i++)
+		{
+			System.arraycopy(tiles.get(i), 0, lavaTiles, i * 4, 4);
+		}
+
+		for (int[] camera : CAMERAS)
+		{
+			int[] uniforms = ComputeTestContext.uniforms(camera[0], camera[1], 0, 0, 0, 0, 0, 0);
+			int length = tiles.size() * TILE_VERTICES * 4;
+
+			int[] glVertices = new int[length];
+			float[] glUvs = new float[length];
+			runComputeShader(uniforms, lavaTiles, heights, starts, glVertices, glUvs);
+
+			int[] clVertices = new int[length];
+			float[] clUvs = new float[length];
+			runOpenCL(uniforms, lavaTiles, heights, starts, clVertices, clUvs);
+
+			for (int i = 0; i < tiles.size(); i++)
+			{
+				int from = i * TILE_VERTICES * 4;
+				int to = from + TILE_VERTICES * 4;
+				String message = "tile " + Arrays.toString(tiles.get(i)) + ", camera " + Arrays.toString(camera);
+				assertArrayEquals(message, Arrays.copyOfRange(glVertices, from, to),
+					Arrays.copyOfRange(clVertices, from, to));
+				assertArrayEquals(message, Arrays.copyOfRange(glUvs, from, to),
+					Arrays.copyOfRange(clUvs, from, to), 0f);
+			}
+		}
+	}
+
+	private static void runComputeShader(int[] uniforms, int[] tiles, int[] heights, int[] starts,
+		int[] outVertices, float[] outUvs)
+	{
+		int tileCount = tiles.length / 4;
+		context.bindUniforms(uniforms);
+
+		int lavaBuffer = context.createBuffer(tiles);
+		int heightBuffer = context.createBuffer(heights);
+		int startBuffer = context.createBuffer(starts);
+		int outBuffer = context.createBuffer(new int[outVertices.length]);
+		int outUvBuffer = context.createBuffer(new float[outUvs.length]);
+
+		GL43C.glUseProgram(lavaProgram);
+		GL43C.glUniform1i(GL43C.glGetUniformLocation(lavaProgram, "lavaTileCount"), tileCount);
+		GL43C.glUniform1i(GL43C.glGetUniformLocation(lavaProgram, "lavaTime"), LAVA_TIME);
+		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 3, outBuffer);
+		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 4, outUvBuffer);
+		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 7, lavaBuffer);
+		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 8, heightBuffer);
+		GL43C.glBindBufferBase(GL43C.GL_SHADER_STORAGE_BUFFER, 9, startBuffer);
+		GL43C.glDispatchCompute((tileCount + LavaTileBuffer.WORK_GROUP_SIZE - 1) / LavaTileBuffer.WORK_GROUP_SIZE, 1, 1);
+		GL43C.glUseProgram(0);
+
+		System.arraycopy(context.readInts(outBuffer, outVertices.length), 0, outVertices, 0, outVertices.length);
+		System.arraycopy(context.readFloats(outUvBuffer, outUvs.length), 0, outUvs, 0, outUvs.length);
+	}
+
+	private static void runOpenCL(int[] uniforms, int[] tiles, int[] heights, int[] starts,
+		int[] outVertices, float[] outUvs)
+	{
+		CL.setExceptionsEnabled(true);
+
+		cl_platform_id platform = null;
+		cl_device_id device = null;
+		try
+		{
+			int[] platformCount = new int[1];
+			clGetPlatformIDs(0, null, platformCount);
+			cl_platform_id[] platforms = new cl_platform_id[platformCount[0]];
+			clGetPlatformIDs(platforms.length, platforms, null);
+
+			for (cl_platform_id p : platforms)
+			{
+				cl_device_id[] devices = new cl_device_id[1];
+				try
+				{
+					clGetDeviceIDs(p, CL_DEVICE_TYPE_ALL, 1, devices, null);
+				}
+				catch (CLException e)
+				{
+					continue;
+				}
+				platform = p;
+				device = devices[0];
+				break;
+			}
+		}
+		catch (CLException | LinkageError e)
+		{
+			Assume.assumeNoException("OpenCL is not available", e);
+		}
+		Assume.assumeTrue("no OpenCL device", device != null);
+
+		cl_context_properties properties = new cl_context_properties();
+		properties.addProperty(CL_CONTEXT_PLATFORM, platform);
+		cl_context clContext = clCreateContext(properties, 1, new cl_device_id[]{device}, null, null, null);
+		cl_command_queue commandQueue = clCreateCommandQueue(clContext, device, 0, null);
+		cl_program program = clCreateProgramWithSource(clContext, 1, new String[]{OpenCLManager.loadLavaProgram()}, null, null);
+		cl_kernel kernel = null;
+		cl_mem[] buffers = new cl_mem[6];
+		try
+		{
+			try
+			{
+				clBuildProgram(program, 0, null, null, null, null);
+			}
+			catch (CLException e)
+			{
+				fail("comp_lava.cl failed to build: " + buildLog(program, device));
+			}
+			kernel = clCreateKernel(program, "computeLava", null);
+
+			buffers[0] = inputBuffer(clContext, tiles);
+			buffers[1] = inputBuffer(clContext, heights);
+			buffers[2] = inputBuffer(clContext, starts);
+			buffers[3] = clCreateBuffer(clContext, CL_MEM_WRITE_ONLY, (long) Sizeof.cl_int * outVertices.length, null, null);
+			buffers[4] = clCreateBuffer(clContext, CL_MEM_WRITE_ONLY, (long) Sizeof.cl_float * outUvs.length, null, null);
+			buffers[5] = inputBuffer(clContext, uniforms);
+
+			int tileCount = tiles.length / 4;
+			for (int i = 0; i < buffers.length; i++)
+			{
+				clSetKernelArg(kernel, i, Sizeof.cl_mem, Pointer.to(buffers[i]));
+			}
+			clSetKernelArg(kernel, 6, Sizeof.cl_int, Pointer.to(new int[]{tileCount}));
+			clSetKernelArg(kernel, 7, Sizeof.cl_int, Pointer.to(new int[]{LAVA_TIME}));
+
+			// the global size has to be a multiple of the work group size, the kernel skips the excess work items
+			int groupSize = LavaTileBuffer.WORK_GROUP_SIZE;
+			long globalSize = (long) (tileCount + groupSize - 1) / groupSize * groupSize;
+			clEnqueueNDRangeKernel(commandQueue, kernel, 1, null, new long[]{globalSize}, new long[]{groupSize},
+				0, null, null);
+
+			clEnqueueReadBuffer(commandQueue, buffers[3], CL_TRUE, 0, (long) Sizeof.cl_int * outVertices.length,
+				Pointer.to(outVertices), 0, null, null);
+			clEnqueueReadBuffer(commandQueue, buffers[4], CL_TRUE, 0, (long) Sizeof.cl_float * outUvs.length,
+				Pointer.to(outUvs), 0, null, null);
+		}
+		finally
+		{
+			for (cl_mem buffer : buffers)
+			{
+				if (buffer != null)
+				{
+					clReleaseMemObject(buffer);
+				}
+			}
+			if (kernel != null)
+			{
+				clReleaseKernel(kernel);
+			}
+			clReleaseProgram(program);
+			clReleaseCommandQueue(commandQueue);
+			clReleaseContext(clContext);
+		}
+	}
+
+	private static cl_mem inputBuffer(cl_context clContext, int[] data)
+	{
+		return clCreateBuffer(clContext, CL_MEM_READ_ONLY | CL_MEM_COPY_HOST_PTR, (long) Sizeof.cl_int * data.length,
+			Pointer.to(data), null);
+	}
+
+	private static String buildLog(cl_program program, cl_device_id device)
+	{
+		long[] size = new long[1];
+		clGetProgramBuildInfo(program, device, CL_PROGRAM_BUILD_LOG, 0, null, size);
+		byte[] log = new byte[(int) size[0]];
+		clGetProgramBuildInfo(program, device, CL_PROGRAM_BUILD_LOG, log.length, Pointer.to(log), null);
+		return new String(log, 0, Math.max(0, log.length - 1));
+	}
+}
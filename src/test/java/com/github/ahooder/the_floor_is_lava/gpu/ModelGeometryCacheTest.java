@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022, Hooder <https://github.com/aHooder>
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.github.ahooder.the_floor_is_lava.gpu;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import net.runelite.api.Model;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class ModelGeometryCacheTest
+{
+	private static final int FACE_COUNT = 4096;
+
+	@Test
+	public void testRecolouredModelIsNotShared()
+	{
+		Map<String, Object> values = randomModel(FACE_COUNT, 0);
+		Map<String, Object> recoloured = new HashMap<>(values);
+		int[] colors = ((int[]) values.get("getFaceColors1")).clone();
+		// Between the elements a sampled hash would have looked at
+		colors[1] ^= 0x7f;
+		recoloured.put("getFaceColors1", colors);
+
+		Model model = stubModel(values);
+		Model recolouredModel = stubModel(recoloured);
+		assertNotEquals(ModelGeometryCache.hash(model), ModelGeometryCache.hash(recolouredModel));
+
+		SceneUploader sceneUploader = new SceneUploader();
+		sceneUploader.modelCache.setBudget(64L * 1024 * 1024);
+		sceneUploader.pushSceneModel(model, new GpuIntBuffer(), new GpuFloatBuffer());
+		assertNull(sceneUploader.modelCache.get(ModelGeometryCache.hash(recolouredModel), recolouredModel));
+
+		GpuIntBuffer cached = new GpuIntBuffer();
+		sceneUploader.pushSceneModel(recolouredModel, cached, new GpuFloatBuffer());
+		GpuIntBuffer converted = new GpuIntBuffer();
+		sceneUploader.pushModel(recolouredModel, converted, new GpuFloatBuffer());
+		assertArrayEquals(toArray(converted), toArray(cached));
+	}
+
+	private static int[] toArray(GpuIntBuffer buffer)
+	{
+		IntBuffer data = buffer.getBuffer().duplicate();
+		data.flip();
+		int[] array = new int[data.remaining()];
+		data.get(array);
+		return array;
+	}
+
+	/**
+	 * The values of an untextured model with random geometry, colours and priorities, by the name of their getter
+	 */
+	private static Map<String, Object> randomModel(int faceCount, long seed)
+	{
+		Random random = new Random(seed);
+		int vertexCount = faceCount / 2 + 3;
+
+		Map<String, Object> values = new HashMap<>();
+		values.put("getFaceCount", faceCount);
+		values.put("getVerticesCount", vertexCount);
+		values.put("getVerticesX", randomInts(random, vertexCount, -512, 512));
+		values.put("getVerticesY", randomInts(random, vertexCount, -512, 0));
+		values.put("getVerticesZ", randomInts(random, vertexCount, -512, 512));
+		values.put("getFaceIndices1", randomInts(random, faceCount, 0, vertexCount));
+		values.put("getFaceIndices2", randomInts(random, faceCount, 0, vertexCount));
+		values.put("getFaceIndices3", randomInts(random, faceCount, 0, vertexCount));
+		values.put("getFaceColors1", randomInts(random, faceCount, 0, 0x10000));
+		values.put("getFaceColors2", randomInts(random, faceCount, 0, 0x10000));
+		values.put("getFaceColors3", randomInts(random, faceCount, 0, 0x10000));
+
+		byte[] priorities = new byte[faceCount];
+		for (int i = 0; i < faceCount; i++)
+		{
+			priorities[i] = (byte) random.nextInt(12);
+		}
+		values.put("getFaceRenderPriorities", priorities);
+		return values;
+	}
+
+	private static Model stubModel(Map<String, Object> values)
+	{
+		return (Model) Proxy.newProxyInstance(Model.class.getClassLoader(), new Class<?>[]{Model.class},
+			(proxy, method, args) ->
+			{
+				if (values.containsKey(method.getName()))
+				{
+					return values.get(method.getName());
+				}
+
+				// The default value of the return type, e.g. 0 or null
+				Class<?> type = method.getReturnType();
+				return type.isPrimitive() && type != void.class ? Array.get(Array.newInstance(type, 1), 0) : null;
+			});
+	}
+
+	private static int[] randomInts(Random random, int count, int min, int max)
+	{
+		int[] values = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			values[i] = min + random.nextInt(max - min);
+		}
+		return values;
+	}
+}